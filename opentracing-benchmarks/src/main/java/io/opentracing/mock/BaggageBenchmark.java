@@ -0,0 +1,75 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.mock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of setting baggage items one after the other along a request path, as with
+ * {@link MockSpan#setBaggageItem(String, String)}: {@code withBaggageItem} shares the structure of the previous
+ * baggage, {@code copyHashMap} copies a {@link HashMap} for each item, which is how {@link MockSpan.MockContext} used
+ * to do it. Run with {@code -prof gc} to compare the garbage.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BaggageBenchmark {
+    @Param({"4", "16", "64"})
+    int items;
+
+    String[] keys;
+
+    @Setup
+    public void setup() {
+        keys = new String[items];
+        for (int i = 0; i < items; i++) {
+            keys[i] = "baggage-key-" + i;
+        }
+    }
+
+    @Benchmark
+    public MockSpan.MockContext withBaggageItem() {
+        MockSpan.MockContext context = new MockSpan.MockContext(4242L, 4343L, new HashMap<String, String>());
+        for (String key : keys) {
+            context = context.withBaggageItem(key, "value");
+        }
+        return context;
+    }
+
+    @Benchmark
+    public HashMap<String, String> copyHashMap() {
+        HashMap<String, String> baggage = new HashMap<>();
+        for (String key : keys) {
+            baggage = new HashMap<>(baggage);
+            baggage.put(key, "value");
+        }
+        return baggage;
+    }
+}
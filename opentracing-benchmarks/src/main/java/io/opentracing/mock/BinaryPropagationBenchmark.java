@@ -0,0 +1,79 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.mock;
+
+import io.opentracing.SpanContext;
+import io.opentracing.propagation.Format;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link MockTracer.Propagator#BINARY} inject and extract against heap and direct {@link ByteBuffer}s, with the same
+ * contexts as {@link TextMapPropagationBenchmark} to compare with. Run with {@code -prof gc} to see the allocation
+ * per operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BinaryPropagationBenchmark {
+    static final MockTracer TRACER = new MockTracer(MockTracer.Propagator.BINARY);
+
+    @Param({"0", "4", "32"})
+    public int baggageItems;
+
+    @Param({"false", "true"})
+    public boolean direct;
+
+    MockSpan.MockContext context;
+    ByteBuffer injectCarrier;
+    ByteBuffer extractCarrier;
+
+    @Setup
+    public void setup() {
+        context = new MockSpan.MockContext(4242L, 4343L, TextMapPropagationBenchmark.baggage(baggageItems));
+        int size = BinaryPropagator.encodedSize(context);
+        injectCarrier = direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+        extractCarrier = direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+        TRACER.inject(context, Format.Builtin.BINARY, extractCarrier);
+        extractCarrier.flip();
+    }
+
+    @Benchmark
+    public SpanContext extract() {
+        extractCarrier.rewind();
+        return TRACER.extract(Format.Builtin.BINARY, extractCarrier);
+    }
+
+    @Benchmark
+    public ByteBuffer inject() {
+        injectCarrier.clear();
+        TRACER.inject(context, Format.Builtin.BINARY, injectCarrier);
+        return injectCarrier;
+    }
+}
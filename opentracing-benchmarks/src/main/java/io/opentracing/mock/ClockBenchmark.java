@@ -0,0 +1,68 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.mock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-call cost of the {@link MockTracer.Clock}s.
+ *
+ * <p>
+ * {@code nowMicros} is the clock alone; {@code startManual_finish} is a span's start and finish timestamps, among
+ * the rest of its life.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClockBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Clocked {
+        @Param({"SYSTEM", "MONOTONIC", "COARSE"})
+        String clock;
+
+        MockTracer.Clock time;
+        MockTracer tracer;
+
+        @Setup
+        public void setup() throws Exception {
+            time = (MockTracer.Clock) MockTracer.Clock.class.getField(clock).get(null);
+            tracer = MockTracer.builder().withRetention(MockTracer.Retention.lastSpans(1024)).withClock(time).build();
+        }
+    }
+
+    @Benchmark
+    public long nowMicros(Clocked clocked) {
+        return clocked.time.nowMicros();
+    }
+
+    @Benchmark
+    public void startManual_finish(Clocked clocked) {
+        clocked.tracer.buildSpan("operation").startManual().finish();
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.mock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of recording finished spans in a {@link MockTracer} shared by all benchmark threads. Run with
+ * increasing thread counts ({@code -t 1}, {@code -t 4}, {@code -t max}) to see how it scales with cores.
+ *
+ * <p>
+ * {@code append} records a pre-built span, {@code appendSynchronized} does the same into a {@code synchronized}
+ * {@link ArrayList}, which is how {@link MockTracer} used to record them. {@code startManual_finish} is the whole
+ * life of a span, including span id generation. Both recorders are reset regularly to keep the heap bounded.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FinishedSpanContentionBenchmark {
+    private static final int RESET_INTERVAL = 1 << 16;
+
+    @State(Scope.Benchmark)
+    public static class Recorder {
+        final MockTracer tracer = new MockTracer();
+        final List<MockSpan> synchronizedSpans = new ArrayList<>();
+    }
+
+    @State(Scope.Thread)
+    public static class Recording {
+        MockSpan span;
+        int count;
+
+        @Setup
+        public void setup(Recorder recorder) {
+            span = recorder.tracer.buildSpan("operation").startManual();
+        }
+
+        boolean reset() {
+            return (++count & (RESET_INTERVAL - 1)) == 0;
+        }
+    }
+
+    @Benchmark
+    public void append(Recorder recorder, Recording recording) {
+        recorder.tracer.appendFinishedSpan(recording.span);
+        if (recording.reset()) {
+            recorder.tracer.reset();
+        }
+    }
+
+    @Benchmark
+    public void appendSynchronized(Recorder recorder, Recording recording) {
+        synchronized (recorder.synchronizedSpans) {
+            recorder.synchronizedSpans.add(recording.span);
+            if (recording.reset()) {
+                recorder.synchronizedSpans.clear();
+            }
+        }
+    }
+
+    @Benchmark
+    public void startManual_finish(Recorder recorder, Recording recording) {
+        recorder.tracer.buildSpan("operation").startManual().finish();
+        if (recording.reset()) {
+            recorder.tracer.reset();
+        }
+    }
+}
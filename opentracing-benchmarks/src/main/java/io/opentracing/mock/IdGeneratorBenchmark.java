@@ -0,0 +1,69 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.mock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@link MockTracer.IdGenerator}s shared by all benchmark threads. Run with increasing thread counts
+ * ({@code -t 1}, {@code -t 4}, {@code -t max}): {@code SEQUENTIAL} contends on a single counter, the others do not.
+ *
+ * <p>
+ * {@code nextId} is the generator alone, {@code startManual} starts a root span, which takes a trace id and a span
+ * id.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IdGeneratorBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Generator {
+        @Param({"SEQUENTIAL", "THREAD_LOCAL_BLOCKS", "RANDOM", "RANDOM_128"})
+        String generator;
+
+        MockTracer.IdGenerator ids;
+        MockTracer tracer;
+
+        @Setup
+        public void setup() throws Exception {
+            ids = (MockTracer.IdGenerator) MockTracer.IdGenerator.class.getField(generator).get(null);
+            tracer = MockTracer.builder().withIdGenerator(ids).build();
+        }
+    }
+
+    @Benchmark
+    public long nextId(Generator generator) {
+        return generator.ids.nextId();
+    }
+
+    @Benchmark
+    public MockSpan startManual(Generator generator) {
+        return generator.tracer.buildSpan("operation").startManual();
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.mock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of writing a {@link MockSpan} from the thread that started it, and of reading its context, with each
+ * {@link MockTracer.Concurrency}.
+ *
+ * <p>
+ * Each benchmark thread writes its own span, which it finishes and replaces every {@link #WRITES_PER_SPAN} writes
+ * to bound its tags and logs. On JDK 8, biased locking makes an uncontended monitor almost free for the thread that
+ * keeps taking it; {@code -jvmArgsAppend -XX:-UseBiasedLocking} shows what it costs on JDK 15 and later, where biased
+ * locking is gone.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MockSpanWriteBenchmark {
+    static final int WRITES_PER_SPAN = 1024;
+
+    @Param({"SYNCHRONIZED", "CONFINED"})
+    MockTracer.Concurrency concurrency;
+
+    MockTracer tracer;
+    MockSpan span;
+    int writes;
+
+    @Setup
+    public void setup() {
+        tracer = MockTracer.builder().withRetention(MockTracer.Retention.lastSpans(16)).withConcurrency(concurrency)
+                .build();
+        span = tracer.buildSpan("operation").startManual();
+    }
+
+    private MockSpan span() {
+        if (++writes == WRITES_PER_SPAN) {
+            writes = 0;
+            span.finish(1);
+            span = tracer.buildSpan("operation").withStartTimestamp(1).startManual();
+        }
+        return span;
+    }
+
+    @Benchmark
+    public MockSpan setTag() {
+        return span().setTag("key", "value");
+    }
+
+    @Benchmark
+    public MockSpan log() {
+        return span().log(1, "event");
+    }
+
+    @Benchmark
+    public MockSpan.MockContext context() {
+        return span.context();
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.mock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.opentracing.noop.NoopActiveSpanSource;
+
+/**
+ * Cost of an aggregation over recorded spans, the total duration of the spans with one operation name: over the
+ * {@link MockSpan}s of the default retention, and over the {@link SpanColumns} of a
+ * {@link MockTracer.Retention#columnar()} retention. Run with {@code -prof gc} to compare the garbage, and look at
+ * the heap after {@link #setup()} to compare the memory of the recorded spans.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SpanColumnsBenchmark {
+    private static final String[] OPERATION_NAMES = {"query", "update", "insert", "delete"};
+
+    @Param({"10000", "1000000"})
+    int spans;
+
+    MockTracer tracer;
+    MockTracer columnarTracer;
+
+    @Setup
+    public void setup() {
+        tracer = new MockTracer(NoopActiveSpanSource.INSTANCE, MockTracer.Propagator.PRINTER);
+        columnarTracer = MockTracer.builder().withRetention(MockTracer.Retention.columnar()).build();
+        for (MockTracer tracer : new MockTracer[] {tracer, columnarTracer}) {
+            for (int i = 0; i < spans; i++) {
+                MockSpan span = tracer.buildSpan(OPERATION_NAMES[i % OPERATION_NAMES.length])
+                        .withStartTimestamp(1000 + i)
+                        .withTag("db.instance", "shard-" + (i % 16))
+                        .withTag("rows", i % 100)
+                        .startManual();
+                span.finish(1000 + i + (i % 1000));
+            }
+        }
+    }
+
+    @Benchmark
+    public long finishedSpans() {
+        List<MockSpan> spans = tracer.finishedSpans();
+        long total = 0;
+        for (MockSpan span : spans) {
+            if ("query".equals(span.operationName())) {
+                total += span.finishMicros() - span.startMicros();
+            }
+        }
+        return total;
+    }
+
+    @Benchmark
+    public long finishedSpanColumns() {
+        SpanColumns columns = columnarTracer.finishedSpanColumns();
+        int query = columns.stringId("query");
+        long total = 0;
+        for (int row = 0; row < columns.size(); row++) {
+            if (columns.operationNameId(row) == query) {
+                total += columns.finishMicros(row) - columns.startMicros(row);
+            }
+        }
+        return total;
+    }
+}
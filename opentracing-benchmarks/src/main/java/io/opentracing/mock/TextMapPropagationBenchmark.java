@@ -0,0 +1,118 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.mock;
+
+import io.opentracing.SpanContext;
+import io.opentracing.propagation.Format;
+import io.opentracing.propagation.TextMapExtractAdapter;
+import io.opentracing.propagation.TextMapInjectAdapter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link MockTracer.Propagator#TEXT_MAP} inject and extract through the {@link TextMapInjectAdapter} and
+ * {@link TextMapExtractAdapter}, against carriers shaped like HTTP header maps.
+ *
+ * <p>
+ * The extracted carrier holds {@code headers} unrelated headers next to the trace and span id and
+ * {@code baggageItems} baggage entries. Run with {@code -prof gc} to see the allocation per operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TextMapPropagationBenchmark {
+    static final MockTracer TRACER = new MockTracer(MockTracer.Propagator.TEXT_MAP);
+
+    static Map<String, String> baggage(int size) {
+        Map<String, String> baggage = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            baggage.put("item-" + i, "value-" + i);
+        }
+        return baggage;
+    }
+
+    @State(Scope.Benchmark)
+    public static class Extract {
+        @Param({"5", "30", "100"})
+        public int headers;
+
+        @Param({"0", "4", "32"})
+        public int baggageItems;
+
+        Map<String, String> carrier;
+
+        @Setup
+        public void setup() {
+            carrier = new HashMap<>();
+            for (int i = 0; i < headers; i++) {
+                carrier.put("x-unrelated-header-" + i, "some moderately long header value " + i);
+            }
+            MockSpan.MockContext context = new MockSpan.MockContext(4242L, 4343L, baggage(baggageItems));
+            TRACER.inject(context, Format.Builtin.HTTP_HEADERS, new TextMapInjectAdapter(carrier));
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Inject {
+        @Param({"0", "4", "32"})
+        public int baggageItems;
+
+        MockSpan.MockContext context;
+        Map<String, String> carrier;
+
+        @Setup
+        public void setup() {
+            context = new MockSpan.MockContext(4242L, 4343L, baggage(baggageItems));
+            carrier = new HashMap<>();
+        }
+    }
+
+    @Benchmark
+    public SpanContext extract(Extract state) {
+        return TRACER.extract(Format.Builtin.HTTP_HEADERS, new TextMapExtractAdapter(state.carrier));
+    }
+
+    /**
+     * Baseline for {@link #extract}: only walks the carrier through the {@link TextMapExtractAdapter}.
+     */
+    @Benchmark
+    public void iterateCarrier(Extract state, Blackhole bh) {
+        for (Map.Entry<String, String> entry : new TextMapExtractAdapter(state.carrier)) {
+            bh.consume(entry);
+        }
+    }
+
+    @Benchmark
+    public Map<String, String> inject(Inject state) {
+        state.carrier.clear();
+        TRACER.inject(state.context, Format.Builtin.HTTP_HEADERS, new TextMapInjectAdapter(state.carrier));
+        return state.carrier;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.util;
+
+import io.opentracing.ActiveSpan;
+import io.opentracing.ActiveSpanSource;
+import io.opentracing.Span;
+import io.opentracing.noop.NoopSpan;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-thread cost of the {@link ActiveSpanSource} hot paths: activation, lookup and same-thread
+ * {@link ActiveSpan#capture() capture}, for the {@link ThreadLocalActiveSpanSource} and the
+ * {@link StackActiveSpanSource}.
+ *
+ * <p>
+ * The wrapped span is {@link NoopSpan#INSTANCE} so that only the {@link ActiveSpanSource} overhead is measured.
+ * Run with {@code -prof gc} to see the allocation rate per operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ActivationBenchmark {
+    @Param({"threadLocal", "threadLocalLazy", "stack"})
+    public String sourceType;
+
+    private ActiveSpanSource source;
+    private final Span span = NoopSpan.INSTANCE;
+
+    static ActiveSpanSource newSource(String sourceType) {
+        if ("stack".equals(sourceType)) {
+            return new StackActiveSpanSource();
+        }
+        if ("threadLocalLazy".equals(sourceType)) {
+            return new ThreadLocalActiveSpanSource(null, true);
+        }
+        return new ThreadLocalActiveSpanSource();
+    }
+
+    @Setup
+    public void setup() {
+        source = newSource(sourceType);
+    }
+
+    @Benchmark
+    public ActiveSpan activeSpan_none() {
+        return source.activeSpan();
+    }
+
+    @Benchmark
+    public ActiveSpan makeActive_deactivate() {
+        ActiveSpan activeSpan = source.makeActive(span);
+        activeSpan.deactivate();
+        return activeSpan;
+    }
+
+    @Benchmark
+    public ActiveSpan makeActive_activeSpan_deactivate() {
+        ActiveSpan activeSpan = source.makeActive(span);
+        try {
+            return source.activeSpan();
+        } finally {
+            activeSpan.deactivate();
+        }
+    }
+
+    @Benchmark
+    public ActiveSpan makeActive_capture_activate_deactivate() {
+        ActiveSpan activeSpan = source.makeActive(span);
+        ActiveSpan.Continuation continuation = activeSpan.capture();
+        activeSpan.deactivate();
+
+        ActiveSpan continued = continuation.activate();
+        continued.deactivate();
+        return continued;
+    }
+}
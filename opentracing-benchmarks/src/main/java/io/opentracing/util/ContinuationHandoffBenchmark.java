@@ -0,0 +1,125 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.util;
+
+import io.opentracing.ActiveSpan;
+import io.opentracing.ActiveSpanSource;
+import io.opentracing.Span;
+import io.opentracing.noop.NoopSpan;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Cross-thread {@link ActiveSpan.Continuation} handoff: one thread activates a span, captures it and deactivates,
+ * another thread picks the {@link ActiveSpan.Continuation} up and activates and deactivates it.
+ *
+ * <p>
+ * Continuations are exchanged through a single-producer/single-consumer ring so that the handoff itself neither
+ * locks nor allocates. Neither side ever waits for the other: when the ring is full the producer continues the span
+ * itself, and when it is empty the consumer reports an empty poll.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContinuationHandoffBenchmark {
+
+    @State(Scope.Group)
+    public static class Handoff {
+        private static final int CAPACITY = 1024;
+        private static final int MASK = CAPACITY - 1;
+
+        final ActiveSpanSource source = new ThreadLocalActiveSpanSource();
+        final Span span = NoopSpan.INSTANCE;
+
+        private final AtomicReferenceArray<ActiveSpan.Continuation> ring =
+                new AtomicReferenceArray<ActiveSpan.Continuation>(CAPACITY);
+        private long producerIndex; // only touched by the producer thread
+        private long consumerIndex; // only touched by the consumer thread
+
+        boolean offer(ActiveSpan.Continuation continuation) {
+            int i = (int) (producerIndex & MASK);
+            if (ring.get(i) != null) {
+                return false;
+            }
+            ring.lazySet(i, continuation);
+            producerIndex++;
+            return true;
+        }
+
+        ActiveSpan.Continuation poll() {
+            int i = (int) (consumerIndex & MASK);
+            ActiveSpan.Continuation continuation = ring.get(i);
+            if (continuation != null) {
+                ring.lazySet(i, null);
+                consumerIndex++;
+            }
+            return continuation;
+        }
+
+        @TearDown(Level.Iteration)
+        public void drain() {
+            for (int i = 0; i < CAPACITY; i++) {
+                ActiveSpan.Continuation continuation = ring.getAndSet(i, null);
+                if (continuation != null) {
+                    continuation.activate().deactivate();
+                }
+            }
+            producerIndex = 0;
+            consumerIndex = 0;
+        }
+    }
+
+    @Benchmark
+    @Group("handoff")
+    @GroupThreads(1)
+    public boolean capture(Handoff handoff) {
+        ActiveSpan activeSpan = handoff.source.makeActive(handoff.span);
+        ActiveSpan.Continuation continuation = activeSpan.capture();
+        activeSpan.deactivate();
+        if (handoff.offer(continuation)) {
+            return true;
+        }
+        continuation.activate().deactivate();
+        return false;
+    }
+
+    @Benchmark
+    @Group("handoff")
+    @GroupThreads(1)
+    public ActiveSpan activate(Handoff handoff) {
+        ActiveSpan.Continuation continuation = handoff.poll();
+        if (continuation == null) {
+            return null;
+        }
+        ActiveSpan activeSpan = continuation.activate();
+        activeSpan.deactivate();
+        return activeSpan;
+    }
+}
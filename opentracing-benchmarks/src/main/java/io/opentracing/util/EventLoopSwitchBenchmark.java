@@ -0,0 +1,104 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.util;
+
+import io.opentracing.ActiveSpan;
+import io.opentracing.noop.NoopSpan;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of switching an event loop thread from one connection to the next, each connection having a chain of
+ * {@code depth} active spans.
+ *
+ * <p>
+ * {@code swap} uses {@link EventLoopActiveSpanSource#swap(EventLoopActiveSpanSource.Snapshot)};
+ * {@code continuation} is what a loop has to do without it: keep a {@link ActiveSpan.Continuation} per connection,
+ * activate it for the event, and capture a new one before deactivating. The latter only restores the top of the
+ * chain, so it is cheaper than it should be for {@code depth > 1}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EventLoopSwitchBenchmark {
+    private static final int CONNECTIONS = 1024;
+
+    @Param({"1", "8"})
+    public int depth;
+
+    private EventLoopActiveSpanSource source;
+    private EventLoopActiveSpanSource.Snapshot[] snapshots;
+    private ActiveSpan.Continuation[] continuations;
+    private int next;
+
+    @Setup
+    public void setup() {
+        source = new EventLoopActiveSpanSource();
+        snapshots = new EventLoopActiveSpanSource.Snapshot[CONNECTIONS];
+        continuations = new ActiveSpan.Continuation[CONNECTIONS];
+        for (int i = 0; i < CONNECTIONS; i++) {
+            snapshots[i] = source.newSnapshot();
+            source.swap(snapshots[i]);
+            ActiveSpan top = null;
+            for (int j = 0; j < depth; j++) {
+                top = source.makeActive(NoopSpan.INSTANCE);
+            }
+            continuations[i] = top.capture();
+            source.swap(snapshots[i]);
+        }
+    }
+
+    private int nextConnection() {
+        int connection = next;
+        next = (connection + 1) & (CONNECTIONS - 1);
+        return connection;
+    }
+
+    @Benchmark
+    public ActiveSpan swap() {
+        EventLoopActiveSpanSource.Snapshot snapshot = snapshots[nextConnection()];
+        source.swap(snapshot);
+        try {
+            return source.activeSpan();
+        } finally {
+            source.swap(snapshot);
+        }
+    }
+
+    @Benchmark
+    public ActiveSpan continuation() {
+        int connection = nextConnection();
+        ActiveSpan activeSpan = continuations[connection].activate();
+        try {
+            return source.activeSpan();
+        } finally {
+            continuations[connection] = activeSpan.capture();
+            activeSpan.deactivate();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.util;
+
+import io.opentracing.ActiveSpan;
+import io.opentracing.Span;
+import io.opentracing.Tracer;
+import io.opentracing.mock.MockTracer;
+import io.opentracing.noop.NoopTracerFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of going through {@link GlobalTracer#get()} compared to calling a directly-held {@link Tracer}.
+ *
+ * <p>
+ * For {@code tracer=mock} a {@link MockTracer} is {@link GlobalTracer#register(Tracer) registered} as the global
+ * tracer, for {@code tracer=noop} nothing is registered and {@link GlobalTracer} falls back to the
+ * {@link io.opentracing.noop.NoopTracer}. Because registration cannot be undone, every parameter value needs its
+ * own fork; do not run this benchmark with {@code -f 0}.
+ *
+ * <p>
+ * The {@code globalVolatile_*} benchmarks fork with {@value GlobalTracer#DISABLE_CALL_SITE_PROPERTY} set, so that
+ * {@link GlobalTracer} reads its delegate from a volatile field instead of a
+ * {@link java.lang.invoke.MutableCallSite}. For {@code tracer=mock}, {@link GlobalTracer} is used with the noop
+ * tracer before registration, the way instrumentation running during application startup would.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GlobalTracerBenchmark {
+    static final MockTracer MOCK_TRACER = new MockTracer();
+
+    @Param({"noop", "mock"})
+    public String tracer;
+
+    private Tracer direct;
+    private Tracer global;
+
+    @Setup
+    public void setup() {
+        if ("mock".equals(tracer)) {
+            direct = MOCK_TRACER;
+            // Like instrumentation running before the application registers its tracer, which leaves the noop
+            // tracer in the type profile of the GlobalTracer methods.
+            for (int i = 0; i < 100000; i++) {
+                GlobalTracer.get().buildSpan("startup").startManual();
+                GlobalTracer.get().activeSpan();
+            }
+            GlobalTracer.register(MOCK_TRACER);
+        } else {
+            direct = NoopTracerFactory.create();
+        }
+        global = GlobalTracer.get();
+    }
+
+    @Benchmark
+    public Span direct_startManual() {
+        return direct.buildSpan("operation").startManual();
+    }
+
+    @Benchmark
+    public Span global_startManual() {
+        return GlobalTracer.get().buildSpan("operation").startManual();
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-D" + GlobalTracer.DISABLE_CALL_SITE_PROPERTY + "=true")
+    public Span globalVolatile_startManual() {
+        return GlobalTracer.get().buildSpan("operation").startManual();
+    }
+
+    @Benchmark
+    public Span globalField_startManual() {
+        return global.buildSpan("operation").startManual();
+    }
+
+    @Benchmark
+    public ActiveSpan direct_activeSpan() {
+        return direct.activeSpan();
+    }
+
+    @Benchmark
+    public ActiveSpan global_activeSpan() {
+        return GlobalTracer.get().activeSpan();
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-D" + GlobalTracer.DISABLE_CALL_SITE_PROPERTY + "=true")
+    public ActiveSpan globalVolatile_activeSpan() {
+        return GlobalTracer.get().activeSpan();
+    }
+}
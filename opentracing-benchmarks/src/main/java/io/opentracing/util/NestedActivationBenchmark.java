@@ -0,0 +1,75 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.util;
+
+import io.opentracing.ActiveSpan;
+import io.opentracing.ActiveSpanSource;
+import io.opentracing.Span;
+import io.opentracing.noop.NoopSpan;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Activates {@link #depth} spans on top of each other, reads the innermost one and unwinds the stack again.
+ *
+ * <p>
+ * The reported time is for the whole stack; divide by {@link #depth} for the per-activation cost.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NestedActivationBenchmark {
+    @Param({"1", "8", "64"})
+    public int depth;
+
+    @Param({"threadLocal", "threadLocalLazy", "stack"})
+    public String sourceType;
+
+    private ActiveSpanSource source;
+    private final Span span = NoopSpan.INSTANCE;
+    private ActiveSpan[] stack;
+
+    @Setup
+    public void setup() {
+        source = ActivationBenchmark.newSource(sourceType);
+        stack = new ActiveSpan[depth];
+    }
+
+    @Benchmark
+    public void nested(Blackhole bh) {
+        for (int i = 0; i < depth; i++) {
+            stack[i] = source.makeActive(span);
+        }
+        bh.consume(source.activeSpan());
+        for (int i = depth - 1; i >= 0; i--) {
+            stack[i].deactivate();
+            stack[i] = null;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.util;
+
+import io.opentracing.Span;
+import io.opentracing.Tracer;
+import io.opentracing.noop.NoopTracerFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@link GlobalTracerBenchmark} call sites only ever see one {@link Tracer} implementation, which lets the JIT
+ * inline the whole {@code buildSpan(...).startManual()} chain. Real call sites see the noop tracer, the registered
+ * tracer and the {@link GlobalTracer} wrapper; this benchmark rotates through {@link #receivers} of them at a single
+ * call site to measure the monomorphic (1), bimorphic (2) and megamorphic (3) dispatch cost.
+ *
+ * <p>
+ * The receivers are, in order, a {@link io.opentracing.noop.NoopTracer}, a registered
+ * {@link io.opentracing.mock.MockTracer} and {@link GlobalTracer#get()} forwarding to it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PollutedTracerBenchmark {
+    @Param({"1", "2", "3"})
+    public int receivers;
+
+    private Tracer[] tracers;
+    private int next;
+
+    @Setup
+    public void setup() {
+        GlobalTracer.register(GlobalTracerBenchmark.MOCK_TRACER);
+        Tracer[] all = {NoopTracerFactory.create(), GlobalTracerBenchmark.MOCK_TRACER, GlobalTracer.get()};
+        // Always cycle through four slots so that the loop overhead is the same for every receiver count.
+        tracers = new Tracer[4];
+        for (int i = 0; i < tracers.length; i++) {
+            tracers[i] = all[i % receivers];
+        }
+    }
+
+    @Benchmark
+    public Span startManual() {
+        Tracer tracer = tracers[next++ & 3];
+        return tracer.buildSpan("operation").startManual();
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.mock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * A lock-free, append-only list of finished {@link MockSpan}s, for any number of concurrently finishing threads.
+ *
+ * <p>
+ * Appending claims a slot with a single fetch-and-add, then stores the span in a chunk of {@link #CHUNK_SIZE}
+ * slots; chunks are linked and created on demand with a compare-and-set, so appenders never block each other nor
+ * wait for readers. The order of the list is the order in which slots were claimed, so a span that finished before
+ * another one started finishing comes first.
+ *
+ * <p>
+ * Readers copy the slots claimed so far. A slot that is claimed but not stored yet belongs to an append in progress,
+ * which readers wait for, yielding, without a bound: between claiming a slot and storing into it an append only
+ * walks to its chunk, creating it if needed, so the wait is a matter of a few instructions unless the appending
+ * thread is descheduled in between. The same holds for a chunk that is being created.
+ */
+final class AppendOnlySpanList implements FinishedSpanStore {
+    static final int CHUNK_SHIFT = 10;
+    static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+    private final SpanIndex index;
+    private final AtomicLong size = new AtomicLong();
+    private final Chunk head = new Chunk(null, 0);
+    // A recently used chunk, where the next appends most likely go.
+    private volatile Chunk tail = head;
+
+    AppendOnlySpanList() {
+        this(SpanIndex.NONE);
+    }
+
+    AppendOnlySpanList(SpanIndex index) {
+        this.index = index;
+    }
+
+    @Override
+    public void add(MockSpan span) {
+        index.add(span);
+        long slot = size.getAndIncrement();
+        Chunk chunk = chunkFor(slot);
+        chunk.slots.set((int) (slot - chunk.base), span);
+    }
+
+    /**
+     * @return the number of claimed slots, including appends in progress
+     */
+    long size() {
+        return size.get();
+    }
+
+    /**
+     * @return a copy of the list
+     */
+    @Override
+    public List<MockSpan> toList() {
+        int size = (int) Math.min(this.size.get(), Integer.MAX_VALUE);
+        List<MockSpan> list = new ArrayList<>(size);
+        Chunk chunk = head;
+        for (int position = 0; position < size; position++) {
+            int slot = position & (CHUNK_SIZE - 1);
+            if (slot == 0 && position > 0) {
+                chunk = awaitNext(chunk);
+            }
+            MockSpan span;
+            while ((span = chunk.slots.get(slot)) == null) {
+                // Claimed by an append in progress.
+                Thread.yield();
+            }
+            list.add(span);
+        }
+        return list;
+    }
+
+    /**
+     * @return 0, as the list is unbounded
+     */
+    @Override
+    public long overwritten() {
+        return 0;
+    }
+
+    @Override
+    public List<MockSpan> byTraceId(long traceId) {
+        return index.byTraceId(traceId, this);
+    }
+
+    @Override
+    public List<MockSpan> byOperationName(String operationName) {
+        return index.byOperationName(operationName, this);
+    }
+
+    @Override
+    public List<MockSpan> byTag(String key, Object value) {
+        return index.byTag(key, value, this);
+    }
+
+    private Chunk chunkFor(long slot) {
+        Chunk chunk = tail;
+        while (slot < chunk.base) {
+            // The tail moved on past our chunk already.
+            chunk = chunk.prev;
+        }
+        while (slot >= chunk.base + CHUNK_SIZE) {
+            Chunk next = chunk.next;
+            if (next == null) {
+                Chunk created = new Chunk(chunk, chunk.base + CHUNK_SIZE);
+                next = Chunk.NEXT.compareAndSet(chunk, null, created) ? created : chunk.next;
+            }
+            chunk = next;
+            tail = chunk;
+        }
+        return chunk;
+    }
+
+    private static Chunk awaitNext(Chunk chunk) {
+        Chunk next;
+        while ((next = chunk.next) == null) {
+            // The chunk is being created by an append in progress.
+            Thread.yield();
+        }
+        return next;
+    }
+
+    static final class Chunk {
+        static final AtomicReferenceFieldUpdater<Chunk, Chunk> NEXT =
+                AtomicReferenceFieldUpdater.newUpdater(Chunk.class, Chunk.class, "next");
+
+        final Chunk prev;
+        final long base;
+        final AtomicReferenceArray<MockSpan> slots = new AtomicReferenceArray<>(CHUNK_SIZE);
+        volatile Chunk next;
+
+        Chunk(Chunk prev, long base) {
+            this.prev = prev;
+            this.base = base;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.mock;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import io.opentracing.propagation.Format;
+
+/**
+ * The {@link MockTracer.Propagator#BINARY} codec, against {@link ByteBuffer} carriers, heap or direct.
+ *
+ * <p>
+ * Layout: the {@link #VERSION} byte, then the trace id high bits, trace id and span id as unsigned LEB128 varints,
+ * then the number of baggage items as a varint and each item as its key, a varint byte length and UTF-8 bytes, and
+ * its value, a varint of its byte length plus one, 0 for a null value, and UTF-8 bytes. Varints have no byte order, so
+ * the order of the carrier does not matter.
+ *
+ * <p>
+ * Inject writes at the position of the carrier and extract reads there, both advancing the position past the
+ * context, so that contexts can be framed with other data. Strings are encoded into and decoded from the carrier
+ * directly, without intermediate byte arrays.
+ */
+final class BinaryPropagator implements MockTracer.Propagator {
+    static final byte VERSION = 1;
+
+    @Override
+    public <C> void inject(MockSpan.MockContext ctx, Format<C> format, C carrier) {
+        if (!(carrier instanceof ByteBuffer)) {
+            throw new IllegalArgumentException("Unknown carrier");
+        }
+        ByteBuffer buffer = (ByteBuffer) carrier;
+        int start = buffer.position();
+        try {
+            buffer.put(VERSION);
+            Varints.put(buffer, ctx.traceIdHigh());
+            Varints.put(buffer, ctx.traceId());
+            Varints.put(buffer, ctx.spanId());
+            Varints.put(buffer, ctx.baggage().size());
+            for (Map.Entry<String, String> item : ctx.baggageItems()) {
+                putString(buffer, item.getKey());
+                putValue(buffer, item.getValue());
+            }
+        } catch (BufferOverflowException e) {
+            // Rather than sizing the context up front, which would walk the baggage twice.
+            buffer.position(start);
+            throw e;
+        }
+    }
+
+    /**
+     * @return the context at the position of the carrier, or null if the carrier has no bytes remaining
+     * @throws IllegalArgumentException if the carrier does not hold a well-formed context of a known version; its
+     * position is then left unchanged
+     */
+    @Override
+    public <C> MockSpan.MockContext extract(Format<C> format, C carrier) {
+        if (!(carrier instanceof ByteBuffer)) {
+            throw new IllegalArgumentException("Unknown carrier");
+        }
+        ByteBuffer buffer = (ByteBuffer) carrier;
+        if (!buffer.hasRemaining()) {
+            return null;
+        }
+        int start = buffer.position();
+        try {
+            byte version = buffer.get();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported BINARY version " + version);
+            }
+            long traceIdHigh = Varints.read(buffer);
+            long traceId = Varints.read(buffer);
+            long spanId = Varints.read(buffer);
+            long items = Varints.read(buffer);
+            PersistentBaggage baggage = PersistentBaggage.EMPTY;
+            for (long i = 0; i < items; i++) {
+                String key = readString(buffer);
+                baggage = baggage.with(key, readValue(buffer));
+            }
+            return new MockSpan.MockContext(traceIdHigh, traceId, spanId, baggage);
+        } catch (RuntimeException e) {
+            buffer.position(start);
+            if (e instanceof IllegalArgumentException) {
+                throw e;
+            }
+            // Truncated, or a malformed varint.
+            throw new IllegalArgumentException("Malformed BINARY carrier", e);
+        }
+    }
+
+    /**
+     * @return the number of bytes that inject() puts into the carrier for the given context
+     */
+    static int encodedSize(MockSpan.MockContext ctx) {
+        int size = 1 + Varints.size(ctx.traceIdHigh()) + Varints.size(ctx.traceId())
+                + Varints.size(ctx.spanId()) + Varints.size(ctx.baggage().size());
+        for (Map.Entry<String, String> item : ctx.baggageItems()) {
+            size += stringSize(item.getKey()) + valueSize(item.getValue());
+        }
+        return size;
+    }
+
+    private static int stringSize(String value) {
+        int length = Utf8.encodedLength(value);
+        return Varints.size(length) + length;
+    }
+
+    private static int valueSize(String value) {
+        if (value == null) {
+            return 1;
+        }
+        int length = Utf8.encodedLength(value);
+        return Varints.size(length + 1L) + length;
+    }
+
+    private static void putString(ByteBuffer buffer, String value) {
+        int length = Utf8.encodedLength(value);
+        Varints.put(buffer, length);
+        putUtf8(buffer, value, length);
+    }
+
+    private static void putValue(ByteBuffer buffer, String value) {
+        if (value == null) {
+            Varints.put(buffer, 0);
+            return;
+        }
+        int length = Utf8.encodedLength(value);
+        Varints.put(buffer, length + 1L);
+        putUtf8(buffer, value, length);
+    }
+
+    private static void putUtf8(ByteBuffer buffer, String value, int length) {
+        if (buffer.remaining() < length) {
+            throw new BufferOverflowException();
+        }
+        Utf8.encode(value, buffer);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        return readUtf8(buffer, Varints.read(buffer));
+    }
+
+    private static String readValue(ByteBuffer buffer) {
+        long lengthPlusOne = Varints.read(buffer);
+        return lengthPlusOne == 0 ? null : readUtf8(buffer, lengthPlusOne - 1);
+    }
+
+    private static String readUtf8(ByteBuffer buffer, long length) {
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Malformed BINARY carrier: string of " + length + " bytes");
+        }
+        return Utf8.decode(buffer, (int) length);
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.mock;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds {@link MockTracer.Clock#COARSE}: the time of {@link MockTracer.Clock#MONOTONIC}, updated by a daemon thread
+ * while MockTracers built with this clock are reachable. The first such tracer starts the thread; the thread stops
+ * once they have all been garbage collected. Without a thread, the clock reads MONOTONIC directly.
+ */
+final class CoarseClock implements Runnable {
+    static final long TICK_MICROS = 1000;
+
+    private static final ReferenceQueue<MockTracer> COLLECTED = new ReferenceQueue<>();
+    // The tracers using the clock, which keep the thread running. Guarded by CoarseClock.class.
+    private static final Set<Reference<MockTracer>> users = new HashSet<>();
+    private static volatile boolean ticking;
+    private static volatile long nowMicros;
+
+    private CoarseClock() {
+    }
+
+    static long nowMicros() {
+        return ticking ? nowMicros : MockTracer.Clock.MONOTONIC.nowMicros();
+    }
+
+    /**
+     * Keep the clock ticking for as long as the given tracer is reachable.
+     */
+    static synchronized void acquire(MockTracer tracer) {
+        users.add(new WeakReference<>(tracer, COLLECTED));
+        if (!ticking) {
+            nowMicros = MockTracer.Clock.MONOTONIC.nowMicros();
+            ticking = true;
+            Thread ticker = new Thread(new CoarseClock(), "MockTracer-coarse-clock");
+            ticker.setDaemon(true);
+            ticker.start();
+        }
+    }
+
+    static boolean isTicking() {
+        return ticking;
+    }
+
+    /**
+     * @return whether the last user is gone, and the thread stops
+     */
+    private static synchronized boolean release(Reference<?> collected) {
+        do {
+            users.remove(collected);
+        } while ((collected = COLLECTED.poll()) != null);
+        if (users.isEmpty()) {
+            ticking = false;
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void run() {
+        for (;;) {
+            try {
+                TimeUnit.MICROSECONDS.sleep(TICK_MICROS);
+            } catch (InterruptedException e) {
+                // Nobody else knows about this thread; keep ticking.
+            }
+            nowMicros = MockTracer.Clock.MONOTONIC.nowMicros();
+            Reference<?> collected = COLLECTED.poll();
+            if (collected != null && release(collected)) {
+                return;
+            }
+        }
+    }
+}
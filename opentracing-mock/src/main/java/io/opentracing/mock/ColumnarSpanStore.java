@@ -0,0 +1,422 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.mock;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * An unbounded store that decodes finished {@link MockSpan}s into columns, rather than keeping them.
+ *
+ * <p>
+ * Rows are claimed with a single fetch-and-add and stored in chunks of {@link #CHUNK_SIZE} rows, as in
+ * {@link AppendOnlySpanList}. A chunk has a primitive array per field of the span: the ids, the timestamps, and the
+ * operation name as an id in a dictionary of strings. Tags have a column per tag key, by the key's dictionary id, in
+ * each chunk that has the key, holding the type of the value and its bits: the value of a boolean or an integral
+ * number, or the bits of a floating-point number. Strings and other values are kept as they are, in an array of the
+ * column allocated for the first one. Only operation names and tag keys go into the dictionary, which is never
+ * cleared: they have few distinct values, unlike string tag values. Log entries and baggage are kept as they are;
+ * baggage is shared by the spans of a trace anyway.
+ *
+ * <p>
+ * Rows are published by a flag set after they are written, which readers wait for: a row claimed but not flagged
+ * yet belongs to an add in progress. Queries scan the columns and only rebuild the MockSpans that match.
+ */
+final class ColumnarSpanStore implements FinishedSpanStore {
+    static final int CHUNK_SHIFT = 10;
+    static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+    static final byte ABSENT = 0;
+    static final byte STRING = 1;
+    static final byte BOOLEAN = 2;
+    static final byte INTEGER = 3;
+    static final byte LONG = 4;
+    static final byte FLOAT = 5;
+    static final byte DOUBLE = 6;
+    static final byte OBJECT = 7;
+
+    private final MockTracer tracer;
+    private final Dictionary strings = new Dictionary();
+    private final AtomicInteger size = new AtomicInteger();
+    private final Chunk head = new Chunk(null, 0);
+    // A recently used chunk, where the next adds most likely go.
+    private volatile Chunk tail = head;
+
+    /**
+     * @param tracer the tracer of the MockSpans rebuilt from the columns
+     */
+    ColumnarSpanStore(MockTracer tracer) {
+        this.tracer = tracer;
+    }
+
+    /**
+     * @return the columns of the spans of the given store, which are decoded first unless it is columnar already
+     */
+    static SpanColumns columns(MockTracer tracer, FinishedSpanStore store) {
+        if (store instanceof ColumnarSpanStore) {
+            return ((ColumnarSpanStore) store).columns();
+        }
+        ColumnarSpanStore columnar = new ColumnarSpanStore(tracer);
+        for (MockSpan span : store.toList()) {
+            columnar.add(span);
+        }
+        return columnar.columns();
+    }
+
+    @Override
+    public void add(MockSpan span) {
+        int row = size.getAndIncrement();
+        if (row < 0) {
+            size.getAndDecrement();
+            throw new IllegalStateException("Too many spans for a columnar store");
+        }
+        Chunk chunk = chunkFor(row);
+        chunk.write(row - chunk.base, span, strings);
+    }
+
+    /**
+     * @return a snapshot of the rows added so far, after waiting for the adds in progress
+     */
+    SpanColumns columns() {
+        int size = this.size.get();
+        Chunk[] chunks = new Chunk[(size + CHUNK_SIZE - 1) >>> CHUNK_SHIFT];
+        Chunk chunk = head;
+        for (int i = 0; i < chunks.length; i++) {
+            if (i > 0) {
+                chunk = awaitNext(chunk);
+            }
+            chunks[i] = chunk;
+            int rows = Math.min(CHUNK_SIZE, size - chunk.base);
+            for (int row = 0; row < rows; row++) {
+                while (chunk.written.get(row) == 0) {
+                    // Claimed by an add in progress.
+                    Thread.yield();
+                }
+            }
+        }
+        return new SpanColumns(tracer, strings, chunks, size);
+    }
+
+    @Override
+    public List<MockSpan> toList() {
+        SpanColumns columns = columns();
+        List<MockSpan> spans = new ArrayList<>(columns.size());
+        for (int row = 0; row < columns.size(); row++) {
+            spans.add(columns.span(row));
+        }
+        return spans;
+    }
+
+    @Override
+    public List<MockSpan> byTraceId(long traceId) {
+        SpanColumns columns = columns();
+        List<MockSpan> spans = new ArrayList<>();
+        for (int row = 0; row < columns.size(); row++) {
+            if (columns.traceId(row) == traceId) {
+                spans.add(columns.span(row));
+            }
+        }
+        return spans;
+    }
+
+    @Override
+    public List<MockSpan> byOperationName(String operationName) {
+        List<MockSpan> spans = new ArrayList<>();
+        int id = operationName == null ? -1 : strings.id(operationName);
+        if (operationName != null && id < 0) {
+            return spans;
+        }
+        SpanColumns columns = columns();
+        for (int row = 0; row < columns.size(); row++) {
+            if (columns.operationNameId(row) == id) {
+                spans.add(columns.span(row));
+            }
+        }
+        return spans;
+    }
+
+    @Override
+    public List<MockSpan> byTag(String key, Object value) {
+        List<MockSpan> spans = new ArrayList<>();
+        if (key == null) {
+            return spans;
+        }
+        int keyId = strings.id(key);
+        if (keyId < 0 && value != null) {
+            return spans;
+        }
+        byte type = typeOf(value);
+        long bits = bitsOf(type, value);
+        SpanColumns columns = columns();
+        for (int row = 0; row < columns.size(); row++) {
+            TagColumn column = keyId < 0 ? null : columns.tagColumn(row, keyId);
+            int i = row & (CHUNK_SIZE - 1);
+            boolean matches;
+            if (value == null) {
+                // Like SpanIndex, a null value matches the spans without the tag.
+                matches = column == null || column.value(i) == null;
+            } else {
+                matches = column != null && column.types[i] == type
+                        && (isObject(type) ? value.equals(column.objects[i]) : column.values[i] == bits);
+            }
+            if (matches) {
+                spans.add(columns.span(row));
+            }
+        }
+        return spans;
+    }
+
+    /**
+     * @return 0, as the store is unbounded
+     */
+    @Override
+    public long overwritten() {
+        return 0;
+    }
+
+    private Chunk chunkFor(int row) {
+        Chunk chunk = tail;
+        while (row < chunk.base) {
+            // The tail moved on past our chunk already.
+            chunk = chunk.prev;
+        }
+        while (row >= chunk.base + CHUNK_SIZE) {
+            Chunk next = chunk.next;
+            if (next == null) {
+                Chunk created = new Chunk(chunk, chunk.base + CHUNK_SIZE);
+                next = Chunk.NEXT.compareAndSet(chunk, null, created) ? created : chunk.next;
+            }
+            chunk = next;
+            tail = chunk;
+        }
+        return chunk;
+    }
+
+    private static Chunk awaitNext(Chunk chunk) {
+        Chunk next;
+        while ((next = chunk.next) == null) {
+            // The chunk is being created by an add in progress.
+            Thread.yield();
+        }
+        return next;
+    }
+
+    static byte typeOf(Object value) {
+        if (value instanceof String) {
+            return STRING;
+        } else if (value instanceof Boolean) {
+            return BOOLEAN;
+        } else if (value instanceof Integer) {
+            return INTEGER;
+        } else if (value instanceof Long) {
+            return LONG;
+        } else if (value instanceof Float) {
+            return FLOAT;
+        } else if (value instanceof Double) {
+            return DOUBLE;
+        }
+        return OBJECT;
+    }
+
+    /**
+     * @return whether values of the given type are kept as they are, rather than as bits
+     */
+    static boolean isObject(byte type) {
+        return type == STRING || type == OBJECT;
+    }
+
+    /**
+     * @return the bits of a value that is not kept as it is: they are equal for values that are equal
+     */
+    static long bitsOf(byte type, Object value) {
+        switch (type) {
+            case BOOLEAN:
+                return ((Boolean) value) ? 1 : 0;
+            case INTEGER:
+            case LONG:
+                return ((Number) value).longValue();
+            case FLOAT:
+                return Float.floatToIntBits((Float) value);
+            case DOUBLE:
+                return Double.doubleToLongBits((Double) value);
+            default:
+                return 0;
+        }
+    }
+
+    static Object valueOf(byte type, long bits) {
+        switch (type) {
+            case BOOLEAN:
+                return bits != 0;
+            case INTEGER:
+                return (int) bits;
+            case LONG:
+                return bits;
+            case FLOAT:
+                return Float.intBitsToFloat((int) bits);
+            case DOUBLE:
+                return Double.longBitsToDouble(bits);
+            default:
+                throw new IllegalArgumentException("Not a primitive type: " + type);
+        }
+    }
+
+    static final class Chunk {
+        static final AtomicReferenceFieldUpdater<Chunk, Chunk> NEXT =
+                AtomicReferenceFieldUpdater.newUpdater(Chunk.class, Chunk.class, "next");
+
+        final Chunk prev;
+        final int base;
+        final long[] traceIdHigh = new long[CHUNK_SIZE];
+        final long[] traceId = new long[CHUNK_SIZE];
+        final long[] spanId = new long[CHUNK_SIZE];
+        final long[] parentId = new long[CHUNK_SIZE];
+        final long[] startMicros = new long[CHUNK_SIZE];
+        final long[] finishMicros = new long[CHUNK_SIZE];
+        final int[] operationName = new int[CHUNK_SIZE];
+        final ConcurrentMap<Integer, TagColumn> tags = new ConcurrentHashMap<>();
+        final MockSpan.LogEntry[][] logEntries = new MockSpan.LogEntry[CHUNK_SIZE][];
+        final PersistentBaggage[] baggage = new PersistentBaggage[CHUNK_SIZE];
+        final AtomicIntegerArray written = new AtomicIntegerArray(CHUNK_SIZE);
+        volatile Chunk next;
+
+        Chunk(Chunk prev, int base) {
+            this.prev = prev;
+            this.base = base;
+        }
+
+        void write(int i, MockSpan span, Dictionary strings) {
+            MockSpan.MockContext context = span.context();
+            traceIdHigh[i] = context.traceIdHigh();
+            traceId[i] = context.traceId();
+            spanId[i] = context.spanId();
+            parentId[i] = span.parentId();
+            startMicros[i] = span.startMicros();
+            finishMicros[i] = span.finishMicros();
+            operationName[i] = span.operationName() == null ? -1 : strings.define(span.operationName());
+            for (Map.Entry<String, Object> tag : span.finishedTags().entrySet()) {
+                tagColumn(strings.define(tag.getKey())).write(i, tag.getValue());
+            }
+            List<MockSpan.LogEntry> entries = span.finishedLogEntries();
+            if (!entries.isEmpty()) {
+                logEntries[i] = entries.toArray(new MockSpan.LogEntry[entries.size()]);
+            }
+            baggage[i] = context.baggage();
+            written.set(i, 1);
+        }
+
+        private TagColumn tagColumn(int keyId) {
+            TagColumn column = tags.get(keyId);
+            if (column == null) {
+                TagColumn created = new TagColumn();
+                column = tags.putIfAbsent(keyId, created);
+                if (column == null) {
+                    column = created;
+                }
+            }
+            return column;
+        }
+    }
+
+    static final class TagColumn {
+        private static final AtomicReferenceFieldUpdater<TagColumn, Object[]> OBJECTS =
+                AtomicReferenceFieldUpdater.newUpdater(TagColumn.class, Object[].class, "objects");
+
+        final byte[] types = new byte[CHUNK_SIZE];
+        final long[] values = new long[CHUNK_SIZE];
+        // Strings and values of other types, allocated with a compare-and-set for the first one. Like the other
+        // arrays, each element is written by the add of its row only, and published with the row.
+        volatile Object[] objects;
+
+        void write(int i, Object value) {
+            byte type = typeOf(value);
+            if (isObject(type)) {
+                Object[] objects = this.objects;
+                if (objects == null) {
+                    OBJECTS.compareAndSet(this, null, new Object[CHUNK_SIZE]);
+                    objects = this.objects;
+                }
+                objects[i] = value;
+            } else {
+                values[i] = bitsOf(type, value);
+            }
+            types[i] = type;
+        }
+
+        Object value(int i) {
+            byte type = types[i];
+            if (type == ABSENT) {
+                return null;
+            }
+            return isObject(type) ? objects[i] : valueOf(type, values[i]);
+        }
+    }
+
+    /**
+     * Assigns ids to operation names and tag keys, in the order they are defined. Lookups do not lock.
+     */
+    static final class Dictionary {
+        private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<>();
+        private volatile String[] strings = new String[64];
+        // Guarded by this.
+        private int size;
+
+        /**
+         * @return the id of the string, or -1 if it is not defined
+         */
+        int id(String value) {
+            if (value == null) {
+                return -1;
+            }
+            Integer id = ids.get(value);
+            return id == null ? -1 : id;
+        }
+
+        int define(String value) {
+            Integer id = ids.get(value);
+            if (id != null) {
+                return id;
+            }
+            synchronized (this) {
+                id = ids.get(value);
+                if (id != null) {
+                    return id;
+                }
+                String[] strings = this.strings;
+                if (size == strings.length) {
+                    strings = Arrays.copyOf(strings, 2 * size);
+                }
+                strings[size] = value;
+                // Published before its id, so that whoever sees the id sees the string.
+                this.strings = strings;
+                ids.put(value, size);
+                return size++;
+            }
+        }
+
+        /**
+         * @return the string with the given id, or null for -1
+         */
+        String string(int id) {
+            return id < 0 ? null : strings[id];
+        }
+    }
+}
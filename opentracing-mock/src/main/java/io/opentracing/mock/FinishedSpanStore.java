@@ -0,0 +1,54 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.mock;
+
+import java.util.List;
+
+/**
+ * Where a {@link MockTracer} records its finished {@link MockSpan}s.
+ *
+ * Implementations are called by any number of concurrently finishing threads and must not block them on each other.
+ * Stores of MockSpans add every span to their {@link SpanIndex} before it can be evicted, and remove evicted spans
+ * from it.
+ *
+ * @see MockTracer.Retention
+ */
+interface FinishedSpanStore {
+    void add(MockSpan span);
+
+    /**
+     * @return a copy of the retained spans, in the order they were added
+     */
+    List<MockSpan> toList();
+
+    /**
+     * @return the retained spans of the given trace, in the order they were added
+     */
+    List<MockSpan> byTraceId(long traceId);
+
+    /**
+     * @return the retained spans with the given operation name, in the order they were added
+     */
+    List<MockSpan> byOperationName(String operationName);
+
+    /**
+     * @return the retained spans with the given tag value, as compared with equals(), in the order they were added
+     */
+    List<MockSpan> byTag(String key, Object value);
+
+    /**
+     * @return the number of spans dropped to stay within the store's bounds
+     */
+    long overwritten();
+}
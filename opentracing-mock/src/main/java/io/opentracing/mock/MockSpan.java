@@ -19,6 +19,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import io.opentracing.Span;
 import io.opentracing.SpanContext;
@@ -31,9 +32,17 @@ import io.opentracing.SpanContext;
  */
 public final class MockSpan implements Span {
     // A simple-as-possible (consecutive for repeatability) id generator.
+    // See MockTracer.IdGenerator.SEQUENTIAL.
     private static AtomicLong nextId = new AtomicLong(0);
 
+    private static final AtomicReferenceFieldUpdater<MockSpan, Thread> OWNER =
+            AtomicReferenceFieldUpdater.newUpdater(MockSpan.class, Thread.class, "owner");
+
     private final MockTracer mockTracer;
+    // Whether one thread at a time writes this span without its monitor, rather than any thread under the monitor.
+    private final boolean confined;
+    // The thread that last wrote this confined span, which another thread takes it over from.
+    private volatile Thread owner;
     private MockContext context;
     private final long parentId; // 0 if there's no parent.
     private final long startMicros;
@@ -51,7 +60,21 @@ public final class MockSpan implements Span {
 
     @Override
     public MockSpan setOperationName(String operationName) {
-        finishedCheck("Setting operationName {%s} on already finished span", operationName);
+        if (confined) {
+            Thread writer = takeOver();
+            doSetOperationName(operationName);
+            checkNotTakenOver(writer);
+            return this;
+        }
+        synchronized (this) {
+            return doSetOperationName(operationName);
+        }
+    }
+
+    private MockSpan doSetOperationName(String operationName) {
+        if (finished) {
+            throw finishedError("Setting operationName {%s} on already finished span", operationName);
+        }
         this.operationName = operationName;
         return this;
     }
@@ -83,6 +106,13 @@ public final class MockSpan implements Span {
     public Map<String, Object> tags() {
         return new HashMap<>(this.tags);
     }
+    /**
+     * @return the value of the given tag, without copying all tags
+     */
+    synchronized Object tag(String key) {
+        return this.tags.get(key);
+    }
+
     /**
      * @return a copy of all log entries added to this Span.
      */
@@ -90,6 +120,20 @@ public final class MockSpan implements Span {
         return new ArrayList<>(this.logEntries);
     }
 
+    /**
+     * @return the tags of this Span, not a copy: only for finished Spans, which no longer change
+     */
+    Map<String, Object> finishedTags() {
+        return this.tags;
+    }
+
+    /**
+     * @return the log entries of this Span, not a copy: only for finished Spans, which no longer change
+     */
+    List<LogEntry> finishedLogEntries() {
+        return this.logEntries;
+    }
+
     /**
      * @return a copy of exceptions thrown by this class (e.g. adding a tag after span is finished).
      */
@@ -98,18 +142,37 @@ public final class MockSpan implements Span {
     }
 
     @Override
-    public synchronized MockContext context() {
-        return this.context;
+    public MockContext context() {
+        if (confined) {
+            return this.context;
+        }
+        synchronized (this) {
+            return this.context;
+        }
     }
 
     @Override
     public void finish() {
-        this.finish(nowMicros());
+        this.finish(mockTracer.clock().nowMicros());
     }
 
     @Override
-    public synchronized void finish(long finishMicros) {
-        finishedCheck("Finishing already finished span");
+    public void finish(long finishMicros) {
+        if (confined) {
+            Thread writer = takeOver();
+            doFinish(finishMicros);
+            checkNotTakenOver(writer);
+            return;
+        }
+        synchronized (this) {
+            doFinish(finishMicros);
+        }
+    }
+
+    private void doFinish(long finishMicros) {
+        if (finished) {
+            throw finishedError("Finishing already finished span");
+        }
         this.finishMicros = finishMicros;
         this.mockTracer.appendFinishedSpan(this);
         this.finished = true;
@@ -130,27 +193,55 @@ public final class MockSpan implements Span {
         return setObjectTag(key, value);
     }
 
-    private synchronized MockSpan setObjectTag(String key, Object value) {
-        finishedCheck("Adding tag {%s:%s} to already finished span", key, value);
+    private MockSpan setObjectTag(String key, Object value) {
+        if (confined) {
+            Thread writer = takeOver();
+            doSetObjectTag(key, value);
+            checkNotTakenOver(writer);
+            return this;
+        }
+        synchronized (this) {
+            return doSetObjectTag(key, value);
+        }
+    }
+
+    private MockSpan doSetObjectTag(String key, Object value) {
+        if (finished) {
+            throw finishedError("Adding tag {%s:%s} to already finished span", key, value);
+        }
         tags.put(key, value);
         return this;
     }
 
     @Override
     public final Span log(Map<String, ?> fields) {
-        return log(nowMicros(), fields);
+        return log(mockTracer.clock().nowMicros(), fields);
     }
 
     @Override
-    public final synchronized MockSpan log(long timestampMicros, Map<String, ?> fields) {
-        finishedCheck("Adding logs %s at %d to already finished span", fields, timestampMicros);
+    public final MockSpan log(long timestampMicros, Map<String, ?> fields) {
+        if (confined) {
+            Thread writer = takeOver();
+            doLog(timestampMicros, fields);
+            checkNotTakenOver(writer);
+            return this;
+        }
+        synchronized (this) {
+            return doLog(timestampMicros, fields);
+        }
+    }
+
+    private MockSpan doLog(long timestampMicros, Map<String, ?> fields) {
+        if (finished) {
+            throw finishedError("Adding logs %s at %d to already finished span", fields, timestampMicros);
+        }
         this.logEntries.add(new LogEntry(timestampMicros, fields));
         return this;
     }
 
     @Override
     public MockSpan log(String event) {
-        return this.log(nowMicros(), event);
+        return this.log(mockTracer.clock().nowMicros(), event);
     }
 
     @Override
@@ -159,15 +250,29 @@ public final class MockSpan implements Span {
     }
 
     @Override
-    public synchronized Span setBaggageItem(String key, String value) {
-        finishedCheck("Adding baggage {%s:%s} to already finished span", key, value);
+    public Span setBaggageItem(String key, String value) {
+        if (confined) {
+            Thread writer = takeOver();
+            doSetBaggageItem(key, value);
+            checkNotTakenOver(writer);
+            return this;
+        }
+        synchronized (this) {
+            return doSetBaggageItem(key, value);
+        }
+    }
+
+    private Span doSetBaggageItem(String key, String value) {
+        if (finished) {
+            throw finishedError("Adding baggage {%s:%s} to already finished span", key, value);
+        }
         this.context = this.context.withBaggageItem(key, value);
         return this;
     }
 
     @Override
-    public synchronized String getBaggageItem(String key) {
-        return this.context.getBaggageItem(key);
+    public String getBaggageItem(String key) {
+        return context().getBaggageItem(key);
     }
 
     /**
@@ -177,20 +282,36 @@ public final class MockSpan implements Span {
      * between processes).
      */
     public static final class MockContext implements SpanContext {
+        private final long traceIdHigh;
         private final long traceId;
-        private final Map<String, String> baggage;
+        private final PersistentBaggage baggage;
         private final long spanId;
 
         /**
          * A package-protected constructor to create a new MockContext. This should only be called by MockSpan and/or
          * MockTracer.
          *
-         * @param baggage the MockContext takes ownership of the baggage parameter
+         * @param baggage the baggage items, which the MockContext copies
          *
          * @see MockContext#withBaggageItem(String, String)
          */
         public MockContext(long traceId, long spanId, Map<String, String> baggage) {
+            this(0, traceId, spanId, baggage);
+        }
+
+        /**
+         * @param traceIdHigh the high 64 bits of a 128-bit trace id, or 0 for a 64-bit trace id
+         * @param traceId the (low 64 bits of the) trace id
+         *
+         * @see MockContext#MockContext(long, long, Map)
+         */
+        public MockContext(long traceIdHigh, long traceId, long spanId, Map<String, String> baggage) {
+            this(traceIdHigh, traceId, spanId, PersistentBaggage.of(baggage));
+        }
+
+        MockContext(long traceIdHigh, long traceId, long spanId, PersistentBaggage baggage) {
             this.baggage = baggage;
+            this.traceIdHigh = traceIdHigh;
             this.traceId = traceId;
             this.spanId = spanId;
         }
@@ -200,17 +321,30 @@ public final class MockSpan implements Span {
         public long spanId() { return spanId; }
 
         /**
-         * Create and return a new (immutable) MockContext with the added baggage item.
+         * Trace ids are 64-bit unless the IdGenerator of the MockTracer makes 128-bit ones; then traceId() is their
+         * low 64 bits, which is what {@link MockTracer#finishedSpansOfTrace(long)} and {@link TraceTree} go by.
+         *
+         * @return the high 64 bits of a 128-bit trace id, or 0 for a 64-bit trace id
+         *
+         * @see MockTracer.IdGenerator#RANDOM_128
+         */
+        public long traceIdHigh() { return traceIdHigh; }
+
+        /**
+         * Create and return a new (immutable) MockContext with the added baggage item. The baggage of the new
+         * MockContext shares most of its structure with this one's, rather than copying it.
          */
         public MockContext withBaggageItem(String key, String val) {
-            Map<String, String> newBaggage = new HashMap<>(this.baggage);
-            newBaggage.put(key, val);
-            return new MockContext(this.traceId, this.spanId, newBaggage);
+            return new MockContext(this.traceIdHigh, this.traceId, this.spanId, this.baggage.with(key, val));
         }
 
         @Override
         public Iterable<Map.Entry<String, String>> baggageItems() {
-            return baggage.entrySet();
+            return baggage;
+        }
+
+        PersistentBaggage baggage() {
+            return baggage;
         }
     }
 
@@ -234,6 +368,8 @@ public final class MockSpan implements Span {
 
     MockSpan(MockTracer tracer, String operationName, long startMicros, Map<String, Object> initialTags, MockContext parent) {
         this.mockTracer = tracer;
+        this.confined = tracer.concurrency() == MockTracer.Concurrency.CONFINED;
+        this.owner = confined ? Thread.currentThread() : null;
         this.operationName = operationName;
         this.startMicros = startMicros;
         if (initialTags == null) {
@@ -243,31 +379,117 @@ public final class MockSpan implements Span {
         }
         if (parent == null) {
             // We're a root Span.
-            this.context = new MockContext(nextId(), nextId(), new HashMap<String, String>());
+            MockTracer.IdGenerator ids = tracer.idGenerator();
+            this.context = new MockContext(ids.nextTraceIdHigh(), ids.nextId(), ids.nextId(),
+                    PersistentBaggage.EMPTY);
             this.parentId = 0;
         } else {
             // We're a child Span.
-            this.context = new MockContext(parent.traceId, nextId(), parent.baggage);
+            this.context = new MockContext(parent.traceIdHigh, parent.traceId, tracer.idGenerator().nextId(),
+                    parent.baggage);
             this.parentId = parent.spanId;
         }
     }
 
+    /**
+     * @return a rough estimate of the heap retained by this Span: its fields, tags, log entries and baggage
+     *
+     * @see MockTracer.Retention#byteBudget(long, int)
+     */
+    synchronized long estimatedBytes() {
+        // The span, its context and their collections.
+        long bytes = 256 + estimatedBytes(operationName);
+        for (Map.Entry<String, Object> tag : tags.entrySet()) {
+            bytes += 32 + estimatedBytes(tag.getKey()) + estimatedBytes(tag.getValue());
+        }
+        for (LogEntry entry : logEntries) {
+            bytes += 64;
+            for (Map.Entry<String, ?> field : entry.fields.entrySet()) {
+                bytes += 32 + estimatedBytes(field.getKey()) + estimatedBytes(field.getValue());
+            }
+        }
+        for (Map.Entry<String, String> item : context.baggage) {
+            bytes += 32 + estimatedBytes(item.getKey()) + estimatedBytes(item.getValue());
+        }
+        return bytes;
+    }
+
+    private static long estimatedBytes(Object value) {
+        if (value instanceof String) {
+            return 40 + 2 * ((String) value).length();
+        }
+        // A boxed primitive, or a reference to an object shared with the application.
+        return value == null ? 0 : 16;
+    }
+
+    /**
+     * A finished span, as replayed from a journal.
+     *
+     * @see SpanJournalReader
+     */
+    MockSpan(MockTracer tracer, MockContext context, long parentId, String operationName, long startMicros,
+             long finishMicros, Map<String, Object> tags, List<LogEntry> logEntries) {
+        this.mockTracer = tracer;
+        this.confined = false;
+        this.context = context;
+        this.parentId = parentId;
+        this.operationName = operationName;
+        this.startMicros = startMicros;
+        this.finishMicros = finishMicros;
+        this.tags = tags;
+        this.logEntries.addAll(logEntries);
+        this.finished = true;
+    }
+
     static long nextId() {
         return nextId.addAndGet(1);
     }
 
-    static long nowMicros() {
-        return System.currentTimeMillis() * 1000;
+    /**
+     * @return the last of count consecutive ids, taken from the same sequence as nextId()
+     */
+    static long reserveIds(int count) {
+        return nextId.addAndGet(count);
     }
 
-    private synchronized void finishedCheck(String format, Object... args) {
-        if (finished) {
-            RuntimeException ex = new IllegalStateException(String.format(format, args));
-            errors.add(ex);
-            throw ex;
+    /**
+     * Called by the writer of this span, with the span's monitor held unless it is confined.
+     */
+    private RuntimeException finishedError(String format, Object... args) {
+        RuntimeException ex = new IllegalStateException(String.format(format, args));
+        errors.add(ex);
+        return ex;
+    }
+
+    /**
+     * Makes the current thread the owner of this confined span, taking it over from the thread that wrote it last.
+     *
+     * @return the current thread
+     */
+    private Thread takeOver() {
+        Thread current = Thread.currentThread();
+        Thread previous = owner;
+        if (previous != current && !OWNER.compareAndSet(this, previous, current)) {
+            throw concurrentWriteError(current, owner);
+        }
+        return current;
+    }
+
+    /**
+     * Catches, after the fact, another thread that took this confined span over while the writer was writing it.
+     */
+    private void checkNotTakenOver(Thread writer) {
+        Thread current = owner;
+        if (current != writer) {
+            throw concurrentWriteError(writer, current);
         }
     }
 
+    private static IllegalStateException concurrentWriteError(Thread writer, Thread other) {
+        return new IllegalStateException("Confined span written concurrently by threads " + writer.getName()
+                + " and " + other.getName());
+    }
+
     @Override
     public String toString() {
         return "{" +
@@ -24,10 +24,13 @@ import io.opentracing.Tracer;
 import io.opentracing.propagation.Format;
 import io.opentracing.propagation.TextMap;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * MockTracer makes it easy to test the semantics of OpenTracing instrumentation.
@@ -38,7 +41,11 @@ import java.util.Map;
  * The MockTracerTest has simple usage examples.
  */
 public class MockTracer implements Tracer {
-    private List<MockSpan> finishedSpans = new ArrayList<>();
+    private final Retention retention;
+    private final IdGenerator idGenerator;
+    private final Clock clock;
+    private final Concurrency concurrency;
+    private volatile FinishedSpanStore finishedSpans;
     private final Propagator propagator;
     private ActiveSpanSource spanSource;
 
@@ -51,8 +58,26 @@ public class MockTracer implements Tracer {
     }
 
     public MockTracer(ActiveSpanSource spanSource, Propagator propagator) {
-        this.propagator = propagator;
-        this.spanSource = spanSource;
+        this(builder().withSpanSource(spanSource).withPropagator(propagator));
+    }
+
+    /**
+     * Create a new MockTracer configured by the given Builder, for subclasses that override
+     * {@link #onSpanFinished(MockSpan)}.
+     *
+     * @see MockTracer#builder()
+     */
+    protected MockTracer(Builder builder) {
+        this.propagator = builder.propagator;
+        this.spanSource = builder.spanSource;
+        this.retention = builder.retention;
+        this.idGenerator = builder.idGenerator;
+        this.clock = builder.clock;
+        this.concurrency = builder.concurrency;
+        this.finishedSpans = retention.newStore(this);
+        if (clock == Clock.COARSE) {
+            CoarseClock.acquire(this);
+        }
     }
 
     /**
@@ -62,32 +87,190 @@ public class MockTracer implements Tracer {
         this(NoopActiveSpanSource.INSTANCE, propagator);
     }
 
+    /**
+     * @return a Builder for a MockTracer with a retention, IdGenerator, Clock or Concurrency other than the defaults
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Builds a MockTracer. Unless set otherwise, it has no ActiveSpanSource, prints inject() and extract() calls,
+     * keeps every finished Span, generates sequential ids, timestamps with the system clock and lets any thread write
+     * its MockSpans, like new MockTracer() does.
+     */
+    public static final class Builder {
+        private ActiveSpanSource spanSource = NoopActiveSpanSource.INSTANCE;
+        private Propagator propagator = Propagator.PRINTER;
+        private Retention retention = Retention.unbounded();
+        private IdGenerator idGenerator = IdGenerator.SEQUENTIAL;
+        private Clock clock = Clock.SYSTEM;
+        private Concurrency concurrency = Concurrency.SYNCHRONIZED;
+
+        private Builder() {
+        }
+
+        public Builder withSpanSource(ActiveSpanSource spanSource) {
+            this.spanSource = spanSource;
+            return this;
+        }
+
+        public Builder withPropagator(Propagator propagator) {
+            this.propagator = propagator;
+            return this;
+        }
+
+        /**
+         * Retain only the finished Spans allowed by the given retention.
+         *
+         * @see Retention#lastSpans(int)
+         * @see Retention#byteBudget(long, int)
+         */
+        public Builder withRetention(Retention retention) {
+            if (retention == null) {
+                throw new NullPointerException("retention");
+            }
+            this.retention = retention;
+            return this;
+        }
+
+        /**
+         * Generate trace and span ids with the given IdGenerator.
+         *
+         * @see IdGenerator#RANDOM
+         * @see IdGenerator#THREAD_LOCAL_BLOCKS
+         */
+        public Builder withIdGenerator(IdGenerator idGenerator) {
+            if (idGenerator == null) {
+                throw new NullPointerException("idGenerator");
+            }
+            this.idGenerator = idGenerator;
+            return this;
+        }
+
+        /**
+         * Timestamp Spans and log entries with the given Clock, unless the instrumentation passes explicit
+         * timestamps.
+         *
+         * @see Clock#MONOTONIC
+         * @see Clock#COARSE
+         */
+        public Builder withClock(Clock clock) {
+            if (clock == null) {
+                throw new NullPointerException("clock");
+            }
+            this.clock = clock;
+            return this;
+        }
+
+        /**
+         * Let MockSpans be written by any thread, or only by the thread that owns them.
+         *
+         * @see Concurrency#CONFINED
+         */
+        public Builder withConcurrency(Concurrency concurrency) {
+            if (concurrency == null) {
+                throw new NullPointerException("concurrency");
+            }
+            this.concurrency = concurrency;
+            return this;
+        }
+
+        public MockTracer build() {
+            return new MockTracer(this);
+        }
+    }
+
     /**
      * Clear the finishedSpans() queue.
      *
      * Note that this does *not* have any effect on Spans created by MockTracer that have not finish()ed yet; those
-     * will still be enqueued in finishedSpans() when they finish().
+     * will still be enqueued in finishedSpans() when they finish(). Spans that finish() concurrently with reset() may
+     * or may not be cleared.
      */
-    public synchronized void reset() {
-        this.finishedSpans.clear();
+    public void reset() {
+        this.finishedSpans = retention.newStore(this);
     }
 
     /**
      * @return a copy of all finish()ed MockSpans started by this MockTracer (since construction or the last call to
-     * MockTracer.reset()).
+     * MockTracer.reset()), in the order they finished. With a bounded {@link Retention}, only the most recently
+     * finished Spans are returned.
+     *
+     * Spans are recorded without locking, so neither finishing spans nor calling this method block each other.
      *
      * @see MockTracer#reset()
      */
-    public synchronized List<MockSpan> finishedSpans() {
-        return new ArrayList<>(this.finishedSpans);
+    public List<MockSpan> finishedSpans() {
+        return this.finishedSpans.toList();
+    }
+
+    /**
+     * @return the finish()ed MockSpans of the given trace, in the order they finished: from an index with
+     * {@link Retention#withIndexes()}, or else from a copy of all finishedSpans()
+     *
+     * @see MockSpan.MockContext#traceId()
+     */
+    public List<MockSpan> finishedSpansOfTrace(long traceId) {
+        return this.finishedSpans.byTraceId(traceId);
+    }
+
+    /**
+     * @return the finish()ed MockSpans with the given operation name, in the order they finished: from an index with
+     * {@link Retention#withIndexes()}, or else from a copy of all finishedSpans()
+     */
+    public List<MockSpan> finishedSpansWithOperationName(String operationName) {
+        return this.finishedSpans.byOperationName(operationName);
+    }
+
+    /**
+     * Tag values are compared with equals(), so an Integer tag value does not match a Long value. A null value
+     * matches the Spans without the tag.
+     *
+     * @return the finish()ed MockSpans with the given tag value, in the order they finished. Only tag keys selected
+     * with {@link Retention#withIndexedTags(String...)} are indexed; other keys are looked up in all finishedSpans().
+     */
+    public List<MockSpan> finishedSpansWithTag(String key, Object value) {
+        return this.finishedSpans.byTag(key, value);
+    }
+
+    /**
+     * @return the finish()ed Spans started by this MockTracer (since construction or the last call to
+     * MockTracer.reset()), in columns: without copying with a {@link Retention#columnar()} retention, or else decoded
+     * from a copy of finishedSpans()
+     */
+    public SpanColumns finishedSpanColumns() {
+        return ColumnarSpanStore.columns(this, this.finishedSpans);
+    }
+
+    /**
+     * @return the number of finished Spans dropped by a bounded {@link Retention} since construction or the last
+     * call to MockTracer.reset(); always 0 with the default, unbounded retention.
+     */
+    public long overwrittenSpans() {
+        return this.finishedSpans.overwritten();
     }
 
     /**
      * Noop method called on {@link Span#finish()}.
+     *
+     * Spans finish() concurrently, so this method may be called by several threads at the same time.
      */
     protected void onSpanFinished(MockSpan mockSpan) {
     }
 
+    IdGenerator idGenerator() {
+        return idGenerator;
+    }
+
+    Clock clock() {
+        return clock;
+    }
+
+    Concurrency concurrency() {
+        return concurrency;
+    }
+
     @Override
     public ActiveSpan activeSpan() {
         return spanSource.activeSpan();
@@ -125,6 +308,7 @@ public class MockTracer implements Tracer {
         Propagator TEXT_MAP = new Propagator() {
             public static final String SPAN_ID_KEY = "spanid";
             public static final String TRACE_ID_KEY = "traceid";
+            public static final String TRACE_ID_HIGH_KEY = "traceidhigh";
             public static final String BAGGAGE_KEY_PREFIX = "baggage-";
 
             @Override
@@ -136,6 +320,9 @@ public class MockTracer implements Tracer {
                     }
                     textMap.put(SPAN_ID_KEY, String.valueOf(ctx.spanId()));
                     textMap.put(TRACE_ID_KEY, String.valueOf(ctx.traceId()));
+                    if (ctx.traceIdHigh() != 0) {
+                        textMap.put(TRACE_ID_HIGH_KEY, String.valueOf(ctx.traceIdHigh()));
+                    }
                 } else {
                     throw new IllegalArgumentException("Unknown carrier");
                 }
@@ -143,6 +330,7 @@ public class MockTracer implements Tracer {
 
             @Override
             public <C> MockSpan.MockContext extract(Format<C> format, C carrier) {
+                long traceIdHigh = 0;
                 Long traceId = null;
                 Long spanId = null;
                 Map<String, String> baggage = new HashMap<>();
@@ -152,6 +340,8 @@ public class MockTracer implements Tracer {
                     for (Map.Entry<String, String> entry : textMap) {
                         if (TRACE_ID_KEY.equals(entry.getKey())) {
                             traceId = Long.valueOf(entry.getValue());
+                        } else if (TRACE_ID_HIGH_KEY.equals(entry.getKey())) {
+                            traceIdHigh = Long.parseLong(entry.getValue());
                         } else if (SPAN_ID_KEY.equals(entry.getKey())) {
                             spanId = Long.valueOf(entry.getValue());
                         } else if (entry.getKey().startsWith(BAGGAGE_KEY_PREFIX)){
@@ -164,12 +354,324 @@ public class MockTracer implements Tracer {
                 }
 
                 if (traceId != null && spanId != null) {
-                    return new MockSpan.MockContext(traceId, spanId, baggage);
+                    return new MockSpan.MockContext(traceIdHigh, traceId, spanId, baggage);
                 }
 
                 return null;
             }
         };
+
+        /**
+         * Propagates through ByteBuffer carriers, heap or direct, in a compact versioned encoding: varint ids and
+         * length-prefixed UTF-8 baggage, written and read in place without intermediate Strings or byte arrays.
+         * inject() writes at the position of the buffer and extract() reads there, both advancing it past the
+         * context, so that the context can be framed with other data of a message. inject() throws a
+         * BufferOverflowException, leaving the position of the buffer unchanged, if it has too little room; extract()
+         * returns null for an empty buffer and throws an IllegalArgumentException for a malformed one.
+         */
+        Propagator BINARY = new BinaryPropagator();
+    }
+
+    /**
+     * IdGenerator makes the trace and span ids of the MockSpans started by a MockTracer.
+     *
+     * By default, MockTracer uses IdGenerator.SEQUENTIAL, whose consecutive ids are repeatable from one test run to
+     * the next but come from a single counter that all threads contend on. Load tests and benchmarks that start
+     * Spans from many threads should prefer IdGenerator.RANDOM or IdGenerator.THREAD_LOCAL_BLOCKS.
+     *
+     * @see Builder#withIdGenerator(IdGenerator)
+     */
+    public interface IdGenerator {
+        /**
+         * @return a new non-zero id, for a span or (the low 64 bits of) a trace
+         */
+        long nextId();
+
+        /**
+         * @return the high 64 bits of a new 128-bit trace id, or 0 for 64-bit trace ids
+         */
+        long nextTraceIdHigh();
+
+        /**
+         * Consecutive ids from a counter shared by all threads and all MockTracers; 64-bit trace ids.
+         */
+        IdGenerator SEQUENTIAL = new IdGenerator() {
+            @Override
+            public long nextId() {
+                return MockSpan.nextId();
+            }
+
+            @Override
+            public long nextTraceIdHigh() {
+                return 0;
+            }
+        };
+
+        /**
+         * Ids from the same counter as SEQUENTIAL, which each thread reserves by blocks of 1024: ids are unique and
+         * increase within a thread, and threads touch the shared counter once per block. 64-bit trace ids.
+         */
+        IdGenerator THREAD_LOCAL_BLOCKS = new IdGenerator() {
+            private static final int BLOCK_SIZE = 1024;
+
+            // The last id handed out and the last id of the block, per thread.
+            private final ThreadLocal<long[]> blocks = new ThreadLocal<long[]>() {
+                @Override
+                protected long[] initialValue() {
+                    return new long[2];
+                }
+            };
+
+            @Override
+            public long nextId() {
+                long[] block = blocks.get();
+                if (block[0] == block[1]) {
+                    block[1] = MockSpan.reserveIds(BLOCK_SIZE);
+                    block[0] = block[1] - BLOCK_SIZE;
+                }
+                return ++block[0];
+            }
+
+            @Override
+            public long nextTraceIdHigh() {
+                return 0;
+            }
+        };
+
+        /**
+         * Random ids from each thread's {@link ThreadLocalRandom}; 64-bit trace ids.
+         */
+        IdGenerator RANDOM = new IdGenerator() {
+            @Override
+            public long nextId() {
+                return nonZeroRandom();
+            }
+
+            @Override
+            public long nextTraceIdHigh() {
+                return 0;
+            }
+        };
+
+        /**
+         * Random ids from each thread's {@link ThreadLocalRandom}; 128-bit trace ids.
+         */
+        IdGenerator RANDOM_128 = new IdGenerator() {
+            @Override
+            public long nextId() {
+                return nonZeroRandom();
+            }
+
+            @Override
+            public long nextTraceIdHigh() {
+                return nonZeroRandom();
+            }
+        };
+    }
+
+    private static long nonZeroRandom() {
+        long id;
+        do {
+            id = ThreadLocalRandom.current().nextLong();
+        } while (id == 0);
+        return id;
+    }
+
+    /**
+     * Clock makes the timestamps of MockSpans and their log entries, in microseconds since the epoch.
+     *
+     * By default, MockTracer uses Clock.SYSTEM, which is only precise to the millisecond: Spans shorter than that
+     * often have a duration of 0, and the system clock may jump backwards. Clock.MONOTONIC is precise to the
+     * microsecond and never goes backwards.
+     *
+     * @see Builder#withClock(Clock)
+     */
+    public interface Clock {
+        long nowMicros();
+
+        /**
+         * The system clock, {@link System#currentTimeMillis()}, in microseconds.
+         */
+        Clock SYSTEM = new Clock() {
+            @Override
+            public long nowMicros() {
+                return System.currentTimeMillis() * 1000;
+            }
+        };
+
+        /**
+         * The system clock read once, when this class is initialized, plus the time elapsed since as measured by
+         * {@link System#nanoTime()}. Timestamps are precise to the microsecond and never go backwards, but they do
+         * not follow adjustments of the system clock, and may be behind it by up to a millisecond.
+         */
+        Clock MONOTONIC = new Clock() {
+            private final long anchorNanos = System.nanoTime();
+            private final long anchorMicros = System.currentTimeMillis() * 1000;
+
+            @Override
+            public long nowMicros() {
+                return anchorMicros + (System.nanoTime() - anchorNanos) / 1000;
+            }
+        };
+
+        /**
+         * MONOTONIC, as cached by a daemon thread that updates it about every millisecond: reading it costs no more
+         * than a volatile read, for very high Span rates that can do with millisecond precision. The thread runs
+         * while MockTracers built with this clock are reachable, and is shared by them; without any, this clock reads
+         * MONOTONIC.
+         */
+        Clock COARSE = new Clock() {
+            @Override
+            public long nowMicros() {
+                return CoarseClock.nowMicros();
+            }
+        };
+    }
+
+    /**
+     * Concurrency decides which threads may write the MockSpans started by a MockTracer: set their tags, log, set their
+     * baggage or operation name, and finish them.
+     *
+     * @see Builder#withConcurrency(Concurrency)
+     */
+    public enum Concurrency {
+        /**
+         * Any thread may write a MockSpan, at any time: every write holds the span's monitor. This is the default.
+         */
+        SYNCHRONIZED,
+
+        /**
+         * One thread at a time writes a MockSpan, which spares the monitor. The span belongs to the thread that last
+         * wrote it, starting with the one that started it; another thread takes it over with its first write, once
+         * the span was handed over to it safely, e.g. by ActiveSpan.Continuation.activate() or through a concurrent
+         * queue. Writes of two threads that overlap throw an IllegalStateException, if they are caught: this is a
+         * best-effort check, not a lock. Other threads may read the span once it is finished or handed over.
+         */
+        CONFINED
+    }
+
+    /**
+     * Retention decides which finished Spans a MockTracer keeps for {@link MockTracer#finishedSpans()}, and whether
+     * they are indexed, by trace id, operation name and selected tags.
+     *
+     * By default, MockTracer keeps every finished Span until reset(), which is what unittests want. Long-running
+     * tests and benchmarks that finish many Spans can instead keep only the most recent ones in a ring buffer that
+     * is allocated up front; {@link MockTracer#overwrittenSpans()} counts the Spans that were dropped.
+     *
+     * @see Builder#withRetention(Retention)
+     */
+    public static final class Retention {
+        private static final Retention UNBOUNDED =
+                new Retention(0, Long.MAX_VALUE, false, false, Collections.<String>emptySet());
+        private static final Retention COLUMNAR =
+                new Retention(0, Long.MAX_VALUE, true, false, Collections.<String>emptySet());
+
+        private final int maxSpans;
+        private final long maxBytes;
+        private final boolean columnar;
+        private final boolean indexed;
+        private final Set<String> indexedTags;
+
+        private Retention(int maxSpans, long maxBytes, boolean columnar, boolean indexed, Set<String> indexedTags) {
+            this.maxSpans = maxSpans;
+            this.maxBytes = maxBytes;
+            this.columnar = columnar;
+            this.indexed = indexed;
+            this.indexedTags = indexedTags;
+        }
+
+        /**
+         * @return a Retention that keeps every finished Span
+         */
+        public static Retention unbounded() {
+            return UNBOUNDED;
+        }
+
+        /**
+         * @return a Retention that keeps the last maxSpans finished Spans
+         */
+        public static Retention lastSpans(int maxSpans) {
+            if (maxSpans <= 0) {
+                throw new IllegalArgumentException("maxSpans must be positive: " + maxSpans);
+            }
+            return new Retention(maxSpans, Long.MAX_VALUE, false, false, Collections.<String>emptySet());
+        }
+
+        /**
+         * The size of a Span is a rough estimate of the heap it retains, from the length of its operation name and of
+         * its tags, log fields and baggage. The most recently finished Span is always kept, even if it alone is over
+         * the budget.
+         *
+         * @param maxBytes the maximum estimated size of the kept Spans
+         * @param maxSpans the maximum number of kept Spans, which is the number of slots allocated up front
+         * @return a Retention that keeps the last finished Spans that fit in maxBytes, up to maxSpans of them
+         */
+        public static Retention byteBudget(long maxBytes, int maxSpans) {
+            if (maxBytes <= 0) {
+                throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+            }
+            if (maxSpans <= 0) {
+                throw new IllegalArgumentException("maxSpans must be positive: " + maxSpans);
+            }
+            return new Retention(maxSpans, maxBytes, false, false, Collections.<String>emptySet());
+        }
+
+        /**
+         * Keep every finished Span, decoded into columns of primitive values rather than as a MockSpan with its
+         * HashMap of boxed tags: recording many Spans takes a fraction of the memory, and
+         * {@link MockTracer#finishedSpanColumns()} reads them without copying. finishedSpans() and the other queries
+         * rebuild MockSpans from the columns, so they return a new MockSpan for the same Span on every call; they
+         * scan the columns instead of using indexes.
+         *
+         * @return a Retention that keeps every finished Span, in columns
+         */
+        public static Retention columnar() {
+            return COLUMNAR;
+        }
+
+        /**
+         * Index finished Spans by trace id and operation name as they finish, for
+         * {@link MockTracer#finishedSpansOfTrace(long)} and {@link MockTracer#finishedSpansWithOperationName(String)}.
+         * Without indexes, these queries scan all finishedSpans(), and finishing a Span only records it. A columnar
+         * Retention ignores indexes.
+         *
+         * @return a Retention like this one that indexes finished Spans
+         */
+        public Retention withIndexes() {
+            return new Retention(maxSpans, maxBytes, columnar, true, indexedTags);
+        }
+
+        /**
+         * Index finished Spans by the values of the given tag keys, for
+         * {@link MockTracer#finishedSpansWithTag(String, Object)}, besides their trace id and operation name as with
+         * {@link #withIndexes()}. A columnar Retention ignores them.
+         *
+         * @return a Retention like this one that also indexes the given tag keys
+         */
+        public Retention withIndexedTags(String... keys) {
+            Set<String> indexedTags = new LinkedHashSet<>(this.indexedTags);
+            Collections.addAll(indexedTags, keys);
+            return new Retention(maxSpans, maxBytes, columnar, true, Collections.unmodifiableSet(indexedTags));
+        }
+
+        FinishedSpanStore newStore(MockTracer tracer) {
+            if (columnar) {
+                return new ColumnarSpanStore(tracer);
+            }
+            SpanIndex index = indexed ? new SpanIndex(indexedTags) : SpanIndex.NONE;
+            if (maxSpans == 0) {
+                return new AppendOnlySpanList(index);
+            }
+            return new RingSpanBuffer(maxSpans, maxBytes, index);
+        }
+
+        @Override
+        public String toString() {
+            String bounds = columnar ? "columnar" : maxSpans == 0 ? "unbounded"
+                    : "maxSpans=" + maxSpans + (maxBytes == Long.MAX_VALUE ? "" : ", maxBytes=" + maxBytes);
+            String indexes = !indexed ? "" : indexedTags.isEmpty() ? ", indexed" : ", indexedTags=" + indexedTags;
+            return "Retention{" + bounds + indexes + "}";
+        }
     }
 
     @Override
@@ -196,7 +698,7 @@ public class MockTracer implements Tracer {
         return this.propagator.extract(format, carrier);
     }
 
-    synchronized void appendFinishedSpan(MockSpan mockSpan) {
+    void appendFinishedSpan(MockSpan mockSpan) {
         this.finishedSpans.add(mockSpan);
         this.onSpanFinished(mockSpan);
     }
@@ -275,7 +777,7 @@ public class MockTracer implements Tracer {
         @Override
         public MockSpan startManual() {
             if (this.startMicros == 0) {
-                this.startMicros = MockSpan.nowMicros();
+                this.startMicros = clock.nowMicros();
             }
             if (firstParent == null && !ignoringActiveSpan) {
                 firstParent = (MockSpan.MockContext) activeSpanContext();
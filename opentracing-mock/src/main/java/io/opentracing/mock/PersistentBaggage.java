@@ -0,0 +1,322 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.mock;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable map of baggage items, which {@link MockSpan.MockContext}s and their children share.
+ *
+ * <p>
+ * Adding an item returns a new map and leaves this one as it is, sharing most of its structure: up to
+ * {@link #MAX_ARRAY_SIZE} items are kept in arrays sorted by key, which are small enough to copy; beyond that, items
+ * are kept in a hash array mapped trie, where adding an item copies only the nodes on the path to it, of at most 32
+ * slots each. Both get() and with() are O(log n).
+ *
+ * <p>
+ * Keys must not be null; values may be.
+ */
+final class PersistentBaggage implements Iterable<Map.Entry<String, String>> {
+    static final int MAX_ARRAY_SIZE = 8;
+
+    static final PersistentBaggage EMPTY = new PersistentBaggage(new String[0], new String[0], null, 0);
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    // Sorted by key, when small.
+    private final String[] keys;
+    private final String[] values;
+    // The trie, when large.
+    private final Node root;
+    private final int size;
+
+    private PersistentBaggage(String[] keys, String[] values, Node root, int size) {
+        this.keys = keys;
+        this.values = values;
+        this.root = root;
+        this.size = size;
+    }
+
+    static PersistentBaggage of(Map<String, String> items) {
+        PersistentBaggage baggage = EMPTY;
+        for (Map.Entry<String, String> item : items.entrySet()) {
+            baggage = baggage.with(item.getKey(), item.getValue());
+        }
+        return baggage;
+    }
+
+    int size() {
+        return size;
+    }
+
+    String get(String key) {
+        if (root != null) {
+            return root.get(key, hash(key), 0);
+        }
+        int index = Arrays.binarySearch(keys, key);
+        return index < 0 ? null : values[index];
+    }
+
+    /**
+     * @return a map with the given item added or replaced, sharing structure with this one
+     */
+    PersistentBaggage with(String key, String value) {
+        if (key == null) {
+            throw new NullPointerException("key");
+        }
+        if (root != null) {
+            Added added = new Added();
+            Node newRoot = root.with(key, hash(key), value, 0, added);
+            return newRoot == root ? this : new PersistentBaggage(null, null, newRoot, added.value ? size + 1 : size);
+        }
+
+        int index = Arrays.binarySearch(keys, key);
+        if (index >= 0) {
+            if (equal(values[index], value)) {
+                return this;
+            }
+            String[] newValues = values.clone();
+            newValues[index] = value;
+            return new PersistentBaggage(keys, newValues, null, size);
+        }
+        if (size == MAX_ARRAY_SIZE) {
+            Node newRoot = BitmapNode.EMPTY;
+            Added added = new Added();
+            for (int i = 0; i < size; i++) {
+                newRoot = newRoot.with(keys[i], hash(keys[i]), values[i], 0, added);
+            }
+            newRoot = newRoot.with(key, hash(key), value, 0, added);
+            return new PersistentBaggage(null, null, newRoot, size + 1);
+        }
+        int insertion = -index - 1;
+        return new PersistentBaggage(insert(keys, insertion, key), insert(values, insertion, value), null, size + 1);
+    }
+
+    @Override
+    public Iterator<Map.Entry<String, String>> iterator() {
+        List<Map.Entry<String, String>> entries = new ArrayList<>(size);
+        if (root != null) {
+            root.addEntries(entries);
+        } else {
+            for (int i = 0; i < size; i++) {
+                entries.add(new AbstractMap.SimpleImmutableEntry<>(keys[i], values[i]));
+            }
+        }
+        return Collections.unmodifiableList(entries).iterator();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("{");
+        for (Map.Entry<String, String> entry : this) {
+            if (builder.length() > 1) {
+                builder.append(", ");
+            }
+            builder.append(entry.getKey()).append('=').append(entry.getValue());
+        }
+        return builder.append('}').toString();
+    }
+
+    private static int hash(String key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static String[] insert(String[] array, int index, String element) {
+        String[] copy = new String[array.length + 1];
+        System.arraycopy(array, 0, copy, 0, index);
+        copy[index] = element;
+        System.arraycopy(array, index, copy, index + 1, array.length - index);
+        return copy;
+    }
+
+    private static final class Added {
+        boolean value;
+    }
+
+    private abstract static class Node {
+        abstract String get(String key, int hash, int shift);
+
+        /**
+         * @return this node if the item is already there, or a copy with the item added or replaced
+         */
+        abstract Node with(String key, int hash, String value, int shift, Added added);
+
+        abstract void addEntries(List<Map.Entry<String, String>> entries);
+    }
+
+    /**
+     * Up to 32 slots, one per value of the hash bits at this node's depth, of which only the used ones are allocated.
+     * A slot holds either an item, as a key and a value, or a node for the items whose hash bits collide at this
+     * depth, as null and the node.
+     */
+    private static final class BitmapNode extends Node {
+        static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+        private final int bitmap;
+        private final Object[] slots;
+
+        BitmapNode(int bitmap, Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+
+        @Override
+        String get(String key, int hash, int shift) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0) {
+                return null;
+            }
+            int index = 2 * Integer.bitCount(bitmap & (bit - 1));
+            Object slotKey = slots[index];
+            if (slotKey == null) {
+                return ((Node) slots[index + 1]).get(key, hash, shift + BITS);
+            }
+            return key.equals(slotKey) ? (String) slots[index + 1] : null;
+        }
+
+        @Override
+        Node with(String key, int hash, String value, int shift, Added added) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            int index = 2 * Integer.bitCount(bitmap & (bit - 1));
+            if ((bitmap & bit) == 0) {
+                Object[] newSlots = new Object[slots.length + 2];
+                System.arraycopy(slots, 0, newSlots, 0, index);
+                newSlots[index] = key;
+                newSlots[index + 1] = value;
+                System.arraycopy(slots, index, newSlots, index + 2, slots.length - index);
+                added.value = true;
+                return new BitmapNode(bitmap | bit, newSlots);
+            }
+
+            Object slotKey = slots[index];
+            Object slotValue = slots[index + 1];
+            Object newSlotKey;
+            Object newSlotValue;
+            if (slotKey == null) {
+                Node child = (Node) slotValue;
+                Node newChild = child.with(key, hash, value, shift + BITS, added);
+                if (newChild == child) {
+                    return this;
+                }
+                newSlotKey = null;
+                newSlotValue = newChild;
+            } else if (key.equals(slotKey)) {
+                if (equal((String) slotValue, value)) {
+                    return this;
+                }
+                newSlotKey = key;
+                newSlotValue = value;
+            } else {
+                String existingKey = (String) slotKey;
+                newSlotKey = null;
+                newSlotValue = pair(existingKey, hash(existingKey), (String) slotValue, key, hash, value,
+                        shift + BITS);
+                added.value = true;
+            }
+            Object[] newSlots = slots.clone();
+            newSlots[index] = newSlotKey;
+            newSlots[index + 1] = newSlotValue;
+            return new BitmapNode(bitmap, newSlots);
+        }
+
+        private static Node pair(String key1, int hash1, String value1, String key2, int hash2, String value2,
+                                 int shift) {
+            if (hash1 == hash2) {
+                return new CollisionNode(hash1, new String[] {key1, key2}, new String[] {value1, value2});
+            }
+            Added ignored = new Added();
+            return EMPTY.with(key1, hash1, value1, shift, ignored).with(key2, hash2, value2, shift, ignored);
+        }
+
+        @Override
+        void addEntries(List<Map.Entry<String, String>> entries) {
+            for (int index = 0; index < slots.length; index += 2) {
+                if (slots[index] == null) {
+                    ((Node) slots[index + 1]).addEntries(entries);
+                } else {
+                    entries.add(new AbstractMap.SimpleImmutableEntry<>((String) slots[index], (String) slots[index + 1]));
+                }
+            }
+        }
+    }
+
+    /**
+     * The items of keys with the same hash.
+     */
+    private static final class CollisionNode extends Node {
+        private final int hash;
+        private final String[] keys;
+        private final String[] values;
+
+        CollisionNode(int hash, String[] keys, String[] values) {
+            this.hash = hash;
+            this.keys = keys;
+            this.values = values;
+        }
+
+        @Override
+        String get(String key, int hash, int shift) {
+            int index = indexOf(key);
+            return index < 0 ? null : values[index];
+        }
+
+        @Override
+        Node with(String key, int hash, String value, int shift, Added added) {
+            if (hash != this.hash) {
+                // Nest this node under a bitmap node that tells the hashes apart.
+                int bit = 1 << ((this.hash >>> shift) & MASK);
+                return new BitmapNode(bit, new Object[] {null, this}).with(key, hash, value, shift, added);
+            }
+            int index = indexOf(key);
+            if (index >= 0) {
+                if (equal(values[index], value)) {
+                    return this;
+                }
+                String[] newValues = values.clone();
+                newValues[index] = value;
+                return new CollisionNode(hash, keys, newValues);
+            }
+            added.value = true;
+            return new CollisionNode(hash, insert(keys, keys.length, key), insert(values, values.length, value));
+        }
+
+        private int indexOf(String key) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i].equals(key)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        void addEntries(List<Map.Entry<String, String>> entries) {
+            for (int i = 0; i < keys.length; i++) {
+                entries.add(new AbstractMap.SimpleImmutableEntry<>(keys[i], values[i]));
+            }
+        }
+    }
+}
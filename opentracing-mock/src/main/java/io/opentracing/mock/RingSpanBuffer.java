@@ -0,0 +1,200 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.mock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A lock-free ring buffer that retains the most recently finished {@link MockSpan}s, bounded by a number of spans
+ * and optionally by an estimate of their size in bytes.
+ *
+ * <p>
+ * All slots are allocated up front. Like {@link AppendOnlySpanList}, appending claims a position with a single
+ * fetch-and-add; a position that wraps around to a slot still holding a retained span first evicts the oldest
+ * span, and so does an append that takes the retained spans over the byte budget. Evicted spans are counted in
+ * {@link #overwritten()}.
+ *
+ * <p>
+ * Each slot carries the position it was last written for, which readers check before and after reading the span,
+ * so a copy never contains a span that was overwritten while copying.
+ */
+final class RingSpanBuffer implements FinishedSpanStore {
+    private final SpanIndex index;
+    private final int capacity;
+    private final long maxBytes;
+    private final AtomicReferenceArray<MockSpan> spans;
+    private final AtomicLongArray positions;
+    // Only allocated with a byte budget.
+    private final AtomicLongArray sizes;
+
+    // The next position to claim.
+    private final AtomicLong tail = new AtomicLong();
+    // The oldest retained position.
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong overwritten = new AtomicLong();
+
+    /**
+     * @param capacity the maximum number of spans to retain
+     * @param maxBytes the maximum estimated size of the retained spans, or Long.MAX_VALUE for no byte budget
+     */
+    RingSpanBuffer(int capacity, long maxBytes) {
+        this(capacity, maxBytes, SpanIndex.NONE);
+    }
+
+    RingSpanBuffer(int capacity, long maxBytes, SpanIndex index) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+        }
+        this.index = index;
+        this.capacity = capacity;
+        this.maxBytes = maxBytes;
+        this.spans = new AtomicReferenceArray<>(capacity);
+        this.positions = new AtomicLongArray(capacity);
+        for (int slot = 0; slot < capacity; slot++) {
+            // No position yet.
+            positions.set(slot, -1);
+        }
+        this.sizes = maxBytes == Long.MAX_VALUE ? null : new AtomicLongArray(capacity);
+    }
+
+    @Override
+    public void add(MockSpan span) {
+        // Indexed before it is published, so before it can be evicted and removed from the index.
+        index.add(span);
+        long position = tail.getAndIncrement();
+        // Free the slot of the span from the previous lap, if it is still retained.
+        long previous = position - capacity;
+        while (head.get() <= previous) {
+            evictOldest(position);
+        }
+
+        int slot = slot(position);
+        positions.set(slot, -1);
+        spans.set(slot, span);
+        if (sizes != null) {
+            long size = span.estimatedBytes();
+            sizes.set(slot, size);
+            bytes.addAndGet(size);
+        }
+        positions.set(slot, position);
+
+        if (sizes != null) {
+            // Always retain the newest span, even if it alone is over the budget.
+            boolean evicted = true;
+            while (evicted && bytes.get() > maxBytes) {
+                evicted = evictOldest(position);
+            }
+        }
+    }
+
+    /**
+     * Evicts the oldest retained span, unless it is at or after the given position.
+     *
+     * @return false if there was nothing to evict before the given position
+     */
+    private boolean evictOldest(long before) {
+        long oldest = head.get();
+        if (oldest >= before) {
+            return false;
+        }
+        int slot = slot(oldest);
+        while (positions.get(slot) != oldest) {
+            if (head.get() != oldest) {
+                // Evicted by another thread.
+                return true;
+            }
+            // Written by an append in progress.
+            Thread.yield();
+        }
+        MockSpan span = spans.get(slot);
+        long size = sizes == null ? 0 : sizes.get(slot);
+        if (head.compareAndSet(oldest, oldest + 1)) {
+            // Let the span be collected even if no new span takes its slot, unless one already did.
+            if (span != null) {
+                spans.compareAndSet(slot, span, null);
+                index.remove(span);
+            }
+            if (sizes != null) {
+                bytes.addAndGet(-size);
+            }
+            overwritten.incrementAndGet();
+        }
+        return true;
+    }
+
+    @Override
+    public List<MockSpan> toList() {
+        // The head is read first: it never passes the tail, so start <= end.
+        long first = head.get();
+        long end = tail.get();
+        long start = Math.max(first, end - capacity);
+        List<MockSpan> list = new ArrayList<>((int) (end - start));
+        for (long position = start; position < end; position++) {
+            int slot = slot(position);
+            long written;
+            while ((written = positions.get(slot)) < position && head.get() <= position) {
+                // Written by an append in progress.
+                Thread.yield();
+            }
+            if (written != position) {
+                // Evicted meanwhile.
+                continue;
+            }
+            MockSpan span = spans.get(slot);
+            if (span != null && positions.get(slot) == position) {
+                list.add(span);
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public long overwritten() {
+        return overwritten.get();
+    }
+
+    @Override
+    public List<MockSpan> byTraceId(long traceId) {
+        return index.byTraceId(traceId, this);
+    }
+
+    @Override
+    public List<MockSpan> byOperationName(String operationName) {
+        return index.byOperationName(operationName, this);
+    }
+
+    @Override
+    public List<MockSpan> byTag(String key, Object value) {
+        return index.byTag(key, value, this);
+    }
+
+    /**
+     * @return the estimated size of the retained spans, or 0 without a byte budget
+     */
+    long bytes() {
+        return bytes.get();
+    }
+
+    private int slot(long position) {
+        return (int) (position % capacity);
+    }
+}
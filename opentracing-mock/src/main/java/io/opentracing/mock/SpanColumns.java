@@ -0,0 +1,162 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.mock;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.opentracing.mock.ColumnarSpanStore.Chunk;
+import io.opentracing.mock.ColumnarSpanStore.TagColumn;
+
+/**
+ * SpanColumns is a snapshot of finished Spans, by row, in columns of primitive values: aggregations that only read
+ * a few fields of many Spans go through arrays instead of a MockSpan, its tags HashMap and boxed values per Span.
+ *
+ * <p>
+ * Operation names are ids in a dictionary, so that they can be compared without comparing strings:
+ *
+ * <pre>{@code
+ * SpanColumns columns = tracer.finishedSpanColumns();
+ * int query = columns.stringId("query");
+ * long total = 0;
+ * for (int row = 0; row < columns.size(); row++) {
+ *     if (columns.operationNameId(row) == query) {
+ *         total += columns.finishMicros(row) - columns.startMicros(row);
+ *     }
+ * }
+ * }</pre>
+ *
+ * @see MockTracer#finishedSpanColumns()
+ * @see MockTracer.Retention#columnar()
+ */
+public final class SpanColumns {
+    private static final int MASK = ColumnarSpanStore.CHUNK_SIZE - 1;
+
+    private final MockTracer tracer;
+    private final ColumnarSpanStore.Dictionary strings;
+    private final Chunk[] chunks;
+    private final int size;
+
+    SpanColumns(MockTracer tracer, ColumnarSpanStore.Dictionary strings, Chunk[] chunks, int size) {
+        this.tracer = tracer;
+        this.strings = strings;
+        this.chunks = chunks;
+        this.size = size;
+    }
+
+    /**
+     * @return the number of rows, one per finished Span, in the order they finished
+     */
+    public int size() {
+        return size;
+    }
+
+    public long traceIdHigh(int row) {
+        return chunk(row).traceIdHigh[row & MASK];
+    }
+
+    public long traceId(int row) {
+        return chunk(row).traceId[row & MASK];
+    }
+
+    public long spanId(int row) {
+        return chunk(row).spanId[row & MASK];
+    }
+
+    public long parentId(int row) {
+        return chunk(row).parentId[row & MASK];
+    }
+
+    public long startMicros(int row) {
+        return chunk(row).startMicros[row & MASK];
+    }
+
+    public long finishMicros(int row) {
+        return chunk(row).finishMicros[row & MASK];
+    }
+
+    /**
+     * @return the dictionary id of the operation name, or -1 for a null operation name
+     * @see #stringId(String)
+     */
+    public int operationNameId(int row) {
+        return chunk(row).operationName[row & MASK];
+    }
+
+    public String operationName(int row) {
+        return strings.string(operationNameId(row));
+    }
+
+    /**
+     * Only operation names and tag keys are in the dictionary; string tag values are kept as they are.
+     *
+     * @return the dictionary id of the given string, or -1 if no operation name or tag key of the recorded Spans is
+     * equal to it
+     */
+    public int stringId(String value) {
+        return strings.id(value);
+    }
+
+    /**
+     * @return the value of the given tag of the Span of the given row, or null if it has no such tag
+     */
+    public Object tag(int row, String key) {
+        int keyId = strings.id(key);
+        if (keyId < 0) {
+            chunk(row);
+            return null;
+        }
+        TagColumn column = tagColumn(row, keyId);
+        return column == null ? null : column.value(row & MASK);
+    }
+
+    /**
+     * @return a MockSpan rebuilt from the given row; a new one on every call
+     */
+    public MockSpan span(int row) {
+        Chunk chunk = chunk(row);
+        int i = row & MASK;
+        Map<String, Object> tags = new HashMap<>();
+        for (Map.Entry<Integer, TagColumn> column : chunk.tags.entrySet()) {
+            if (column.getValue().types[i] != ColumnarSpanStore.ABSENT) {
+                tags.put(strings.string(column.getKey()), column.getValue().value(i));
+            }
+        }
+        MockSpan.LogEntry[] entries = chunk.logEntries[i];
+        List<MockSpan.LogEntry> logEntries = entries == null
+                ? Collections.<MockSpan.LogEntry>emptyList()
+                : Arrays.asList(entries);
+        MockSpan.MockContext context = new MockSpan.MockContext(chunk.traceIdHigh[i], chunk.traceId[i],
+                chunk.spanId[i], chunk.baggage[i]);
+        return new MockSpan(tracer, context, chunk.parentId[i], strings.string(chunk.operationName[i]),
+                chunk.startMicros[i], chunk.finishMicros[i], tags, logEntries);
+    }
+
+    /**
+     * @return the column of the given tag key that holds the given row, or null if no Span of its chunk has the tag
+     */
+    TagColumn tagColumn(int row, int keyId) {
+        return chunk(row).tags.get(keyId);
+    }
+
+    private Chunk chunk(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("row " + row + " of " + size);
+        }
+        return chunks[row >>> ColumnarSpanStore.CHUNK_SHIFT];
+    }
+}
@@ -0,0 +1,440 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.mock;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SpanFileExporter streams finished {@link MockSpan}s to a local file, from a background writer thread, so that long
+ * runs can keep every span without holding them on the heap.
+ *
+ * Finishing threads hand spans over through a bounded queue, and block while it is full; the writer thread drains the
+ * queue, encodes spans in batches and writes each batch to a {@link FileChannel} at once. Together with a bounded
+ * {@link MockTracer.Retention}, heap use stays constant however many spans a run produces:
+ *
+ * <pre>{@code
+ * final SpanFileExporter exporter = new SpanFileExporter(path, SpanFileExporter.Format.NDJSON, 4096,
+ *         SpanFileExporter.Fsync.ON_CLOSE);
+ * MockTracer tracer = new MockTracer(MockTracer.builder().withSpanSource(spanSource)
+ *         .withRetention(MockTracer.Retention.lastSpans(1024))) {
+ *     protected void onSpanFinished(MockSpan span) {
+ *         exporter.export(span);
+ *     }
+ * };
+ * ...
+ * exporter.close();
+ * }</pre>
+ */
+public final class SpanFileExporter implements Closeable {
+    // Batches are written once they reach this size, or once the queue is drained.
+    static final int BATCH_BYTES = 64 * 1024;
+
+    private static final long POLL_MILLIS = 100;
+
+    private final BlockingQueue<MockSpan> queue;
+    private final FileChannel channel;
+    private final Format format;
+    private final Fsync fsync;
+    private final Thread writer;
+    private final AtomicLong exported = new AtomicLong();
+    private volatile boolean closed;
+    private volatile Throwable failure;
+
+    /**
+     * Create a new SpanFileExporter writing to the given file, which is created or truncated, and start its writer
+     * thread.
+     *
+     * @param queueCapacity the number of finished spans that may wait for the writer thread
+     */
+    public SpanFileExporter(Path file, Format format, int queueCapacity, Fsync fsync) throws IOException {
+        if (format == null) {
+            throw new NullPointerException("format");
+        }
+        if (fsync == null) {
+            throw new NullPointerException("fsync");
+        }
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.format = format;
+        this.fsync = fsync;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        this.writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                write();
+            }
+        }, "MockTracer-span-exporter");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Hand a finished span over to the writer thread, waiting for room in the queue if needed.
+     *
+     * @throws IllegalStateException if this exporter is closed or its writer thread failed
+     */
+    public void export(MockSpan span) {
+        if (closed) {
+            throw new IllegalStateException("SpanFileExporter is closed");
+        }
+        checkFailure();
+        try {
+            while (!queue.offer(span, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                checkFailure();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while exporting " + span, e);
+        }
+        // The writer thread may have failed while the span was waiting for room, and will not write it.
+        checkFailure();
+    }
+
+    /**
+     * @return the number of spans written to the file so far
+     */
+    public long exportedSpans() {
+        return exported.get();
+    }
+
+    /**
+     * Write the spans exported so far, stop the writer thread and close the file. Spans exported concurrently with
+     * close() may or may not be written.
+     *
+     * @throws IOException if writing failed, now or earlier on the writer thread
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while closing", e);
+        } finally {
+            try {
+                if (failure == null && fsync != Fsync.NEVER) {
+                    channel.force(false);
+                }
+            } finally {
+                channel.close();
+            }
+        }
+        if (failure != null) {
+            throw new IOException("Exporting spans failed", failure);
+        }
+    }
+
+    private void checkFailure() {
+        if (failure != null) {
+            throw new IllegalStateException("Exporting spans failed", failure);
+        }
+    }
+
+    private void write() {
+        List<MockSpan> batch = new ArrayList<>();
+        Output output = new Output();
+        try {
+            for (;;) {
+                MockSpan first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    if (closed && queue.isEmpty()) {
+                        return;
+                    }
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch);
+                for (MockSpan span : batch) {
+                    format.encode(span, output);
+                    if (output.size() >= BATCH_BYTES) {
+                        output.writeTo(channel);
+                    }
+                }
+                output.writeTo(channel);
+                if (fsync == Fsync.EVERY_BATCH) {
+                    channel.force(false);
+                }
+                exported.addAndGet(batch.size());
+                batch.clear();
+            }
+        } catch (Throwable t) {
+            // Finishing threads waiting for room see the failure within POLL_MILLIS, and later ones right away.
+            failure = t;
+        }
+    }
+
+    /**
+     * When SpanFileExporter asks the operating system to write its file to the storage device.
+     */
+    public enum Fsync {
+        /**
+         * Never: the file is as durable as the operating system makes it.
+         */
+        NEVER,
+        /**
+         * On close().
+         */
+        ON_CLOSE,
+        /**
+         * After each batch written by the writer thread, and on close(). Batches get smaller as the writer keeps up,
+         * so this can cost a device flush per span.
+         */
+        EVERY_BATCH
+    }
+
+    /**
+     * The encoding of spans in the file.
+     */
+    public enum Format {
+        /**
+         * One JSON object per line, e.g.
+         * <pre>{@code
+         * {"traceId":1,"spanId":2,"parentId":0,"operationName":"foo","startMicros":1000,"finishMicros":2000,
+         * "tags":{"k":"v"},"logs":[{"timestampMicros":1500,"fields":{"event":"e"}}],"baggage":{}}
+         * }</pre>
+         * The line is on a single line in the file. "traceIdHigh" comes first for 128-bit trace ids.
+         */
+        NDJSON {
+            @Override
+            void encode(MockSpan span, Output output) {
+                MockSpan.MockContext context = span.context();
+                StringBuilder json = output.json;
+                json.setLength(0);
+                json.append('{');
+                if (context.traceIdHigh() != 0) {
+                    json.append("\"traceIdHigh\":").append(context.traceIdHigh()).append(',');
+                }
+                json.append("\"traceId\":").append(context.traceId())
+                        .append(",\"spanId\":").append(context.spanId())
+                        .append(",\"parentId\":").append(span.parentId())
+                        .append(",\"operationName\":");
+                appendString(json, span.operationName());
+                json.append(",\"startMicros\":").append(span.startMicros())
+                        .append(",\"finishMicros\":").append(span.finishMicros())
+                        .append(",\"tags\":");
+                appendObject(json, span.tags().entrySet());
+                json.append(",\"logs\":[");
+                boolean first = true;
+                for (MockSpan.LogEntry entry : span.logEntries()) {
+                    if (!first) {
+                        json.append(',');
+                    }
+                    first = false;
+                    json.append("{\"timestampMicros\":").append(entry.timestampMicros()).append(",\"fields\":");
+                    appendObject(json, entry.fields().entrySet());
+                    json.append('}');
+                }
+                json.append("],\"baggage\":");
+                appendObject(json, context.baggageItems());
+                json.append("}\n");
+                output.write(json.toString().getBytes(StandardCharsets.UTF_8));
+            }
+        },
+
+        /**
+         * Length-prefixed binary records: a fixed 4-byte big-endian length, then the span's ids and timestamps as
+         * unsigned LEB128 varints (traceIdHigh, traceId, spanId, parentId, startMicros, finishMicros), its operation
+         * name as a value, then counted tags (key string and value), log entries (timestampMicros and counted fields,
+         * as key string and value) and baggage items (key string and value). Strings, varints and values are encoded
+         * as in a {@link SpanJournal} record, so a null operation name or value is a null value, as in NDJSON.
+         */
+        BINARY {
+            @Override
+            void encode(MockSpan span, Output output) {
+                MockSpan.MockContext context = span.context();
+                Map<String, Object> tags = span.finishedTags();
+                List<MockSpan.LogEntry> logEntries = span.finishedLogEntries();
+                PersistentBaggage baggage = context.baggage();
+
+                int size = Varints.size(context.traceIdHigh()) + Varints.size(context.traceId())
+                        + Varints.size(context.spanId()) + Varints.size(span.parentId())
+                        + Varints.size(span.startMicros()) + Varints.size(span.finishMicros())
+                        + SpanJournal.valueSize(span.operationName());
+                size += Varints.size(tags.size());
+                for (Map.Entry<String, Object> tag : tags.entrySet()) {
+                    size += SpanJournal.stringSize(tag.getKey()) + SpanJournal.valueSize(tag.getValue());
+                }
+                size += Varints.size(logEntries.size());
+                for (MockSpan.LogEntry entry : logEntries) {
+                    size += Varints.size(entry.timestampMicros())
+                            + Varints.size(entry.fields().size());
+                    for (Map.Entry<String, ?> field : entry.fields().entrySet()) {
+                        size += SpanJournal.stringSize(field.getKey()) + SpanJournal.valueSize(field.getValue());
+                    }
+                }
+                size += Varints.size(baggage.size());
+                for (Map.Entry<String, String> item : baggage) {
+                    size += SpanJournal.stringSize(item.getKey()) + SpanJournal.valueSize(item.getValue());
+                }
+
+                ByteBuffer buffer = output.reserve(4 + size);
+                buffer.putInt(size);
+                Varints.put(buffer, context.traceIdHigh());
+                Varints.put(buffer, context.traceId());
+                Varints.put(buffer, context.spanId());
+                Varints.put(buffer, span.parentId());
+                Varints.put(buffer, span.startMicros());
+                Varints.put(buffer, span.finishMicros());
+                SpanJournal.putValue(buffer, span.operationName());
+                Varints.put(buffer, tags.size());
+                for (Map.Entry<String, Object> tag : tags.entrySet()) {
+                    SpanJournal.putString(buffer, tag.getKey());
+                    SpanJournal.putValue(buffer, tag.getValue());
+                }
+                Varints.put(buffer, logEntries.size());
+                for (MockSpan.LogEntry entry : logEntries) {
+                    Varints.put(buffer, entry.timestampMicros());
+                    Varints.put(buffer, entry.fields().size());
+                    for (Map.Entry<String, ?> field : entry.fields().entrySet()) {
+                        SpanJournal.putString(buffer, field.getKey());
+                        SpanJournal.putValue(buffer, field.getValue());
+                    }
+                }
+                Varints.put(buffer, baggage.size());
+                for (Map.Entry<String, String> item : baggage) {
+                    SpanJournal.putString(buffer, item.getKey());
+                    SpanJournal.putValue(buffer, item.getValue());
+                }
+            }
+        };
+
+        abstract void encode(MockSpan span, Output output);
+
+        private static void appendObject(StringBuilder json, Iterable<? extends Map.Entry<String, ?>> entries) {
+            json.append('{');
+            boolean first = true;
+            for (Map.Entry<String, ?> entry : entries) {
+                if (!first) {
+                    json.append(',');
+                }
+                first = false;
+                appendString(json, entry.getKey());
+                json.append(':');
+                appendValue(json, entry.getValue());
+            }
+            json.append('}');
+        }
+
+        private static void appendValue(StringBuilder json, Object value) {
+            if (value == null) {
+                json.append("null");
+            } else if (value instanceof Boolean) {
+                json.append(value);
+            } else if (value instanceof Number && isFinite((Number) value)) {
+                json.append(value);
+            } else {
+                appendString(json, String.valueOf(value));
+            }
+        }
+
+        private static boolean isFinite(Number number) {
+            double value = number.doubleValue();
+            return !Double.isNaN(value) && !Double.isInfinite(value);
+        }
+
+        private static void appendString(StringBuilder json, String value) {
+            if (value == null) {
+                json.append("null");
+                return;
+            }
+            json.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '"':
+                        json.append("\\\"");
+                        break;
+                    case '\\':
+                        json.append("\\\\");
+                        break;
+                    case '\n':
+                        json.append("\\n");
+                        break;
+                    case '\r':
+                        json.append("\\r");
+                        break;
+                    case '\t':
+                        json.append("\\t");
+                        break;
+                    default:
+                        if (c < 0x20) {
+                            json.append(String.format("\\u%04x", (int) c));
+                        } else {
+                            json.append(c);
+                        }
+                }
+            }
+            json.append('"');
+        }
+    }
+
+    /**
+     * The batch being encoded by the writer thread.
+     */
+    static final class Output {
+        final StringBuilder json = new StringBuilder();
+        ByteBuffer buffer = ByteBuffer.allocate(BATCH_BYTES);
+
+        /**
+         * @return the buffer, with room for the given number of bytes at its position
+         */
+        ByteBuffer reserve(int bytes) {
+            if (buffer.remaining() < bytes) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(2 * buffer.capacity(), buffer.position() + bytes));
+                buffer.flip();
+                grown.put(buffer);
+                buffer = grown;
+            }
+            return buffer;
+        }
+
+        void write(byte[] data) {
+            reserve(data.length).put(data);
+        }
+
+        int size() {
+            return buffer.position();
+        }
+
+        void writeTo(FileChannel channel) throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            if (buffer.capacity() > BATCH_BYTES) {
+                // Shrink back after a large span.
+                buffer = ByteBuffer.allocate(BATCH_BYTES);
+            } else {
+                buffer.clear();
+            }
+        }
+    }
+}
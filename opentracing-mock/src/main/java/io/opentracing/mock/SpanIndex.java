@@ -0,0 +1,284 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.mock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Secondary indexes over the finished {@link MockSpan}s of a {@link FinishedSpanStore}: by trace id, by operation
+ * name and by the values of selected tag keys. {@link #NONE} indexes nothing, and its queries scan all the spans of
+ * the store instead.
+ *
+ * <p>
+ * Each index maps a key to a bucket of spans in the order they were added. Buckets are linked lists that are
+ * appended to without locking, the same way as an {@link AppendOnlySpanList}: an append swaps itself in as the last
+ * node, then links the previous last node to it, and readers wait for appends in progress. Removing a span clears
+ * its node, which is unlinked once it is at the front. A bucket emptied by evictions is marked dead and removed from
+ * its index, and adders that find a dead bucket retry with a new one: a bounded store does not leak the keys of
+ * evicted spans.
+ */
+final class SpanIndex {
+    /**
+     * Indexes nothing.
+     */
+    static final SpanIndex NONE = new SpanIndex();
+
+    // The key of spans without an operation name, which a ConcurrentHashMap does not take.
+    private static final Object NULL_OPERATION_NAME = new Object();
+
+    private final ConcurrentMap<Long, Bucket> byTraceId;
+    private final ConcurrentMap<Object, Bucket> byOperationName;
+    private final Map<String, ConcurrentMap<Object, Bucket>> byTag;
+
+    private SpanIndex() {
+        this.byTraceId = null;
+        this.byOperationName = null;
+        this.byTag = Collections.emptyMap();
+    }
+
+    SpanIndex(Set<String> tagKeys) {
+        this.byTraceId = new ConcurrentHashMap<>();
+        this.byOperationName = new ConcurrentHashMap<>();
+        if (tagKeys.isEmpty()) {
+            this.byTag = Collections.emptyMap();
+        } else {
+            Map<String, ConcurrentMap<Object, Bucket>> byTag = new HashMap<>();
+            for (String key : tagKeys) {
+                byTag.put(key, new ConcurrentHashMap<Object, Bucket>());
+            }
+            this.byTag = byTag;
+        }
+    }
+
+    /**
+     * Called once per span, by the thread that finished it.
+     */
+    void add(MockSpan span) {
+        if (byTraceId == null) {
+            return;
+        }
+        add(byTraceId, span.context().traceId(), span);
+        add(byOperationName, operationNameKey(span.operationName()), span);
+        for (Map.Entry<String, ConcurrentMap<Object, Bucket>> index : byTag.entrySet()) {
+            Object value = span.tag(index.getKey());
+            if (value != null) {
+                add(index.getValue(), value, span);
+            }
+        }
+    }
+
+    void remove(MockSpan span) {
+        if (byTraceId == null) {
+            return;
+        }
+        remove(byTraceId, span.context().traceId(), span);
+        remove(byOperationName, operationNameKey(span.operationName()), span);
+        for (Map.Entry<String, ConcurrentMap<Object, Bucket>> index : byTag.entrySet()) {
+            Object value = span.tag(index.getKey());
+            if (value != null) {
+                remove(index.getValue(), value, span);
+            }
+        }
+    }
+
+    /**
+     * @return the spans of the given trace, from the index, or else from all the spans of the store
+     */
+    List<MockSpan> byTraceId(long traceId, FinishedSpanStore store) {
+        if (byTraceId != null) {
+            return copy(byTraceId.get(traceId));
+        }
+        List<MockSpan> spans = new ArrayList<>();
+        for (MockSpan span : store.toList()) {
+            if (span.context().traceId() == traceId) {
+                spans.add(span);
+            }
+        }
+        return spans;
+    }
+
+    /**
+     * @return the spans with the given operation name, from the index, or else from all the spans of the store
+     */
+    List<MockSpan> byOperationName(String operationName, FinishedSpanStore store) {
+        if (byOperationName != null) {
+            return copy(byOperationName.get(operationNameKey(operationName)));
+        }
+        List<MockSpan> spans = new ArrayList<>();
+        for (MockSpan span : store.toList()) {
+            String name = span.operationName();
+            if (operationName == null ? name == null : operationName.equals(name)) {
+                spans.add(span);
+            }
+        }
+        return spans;
+    }
+
+    /**
+     * @return the spans with the given tag value, from the index if the tag key is indexed, or else from all the
+     * spans of the store. A null value matches the spans without the tag, which are never indexed.
+     */
+    List<MockSpan> byTag(String key, Object value, FinishedSpanStore store) {
+        ConcurrentMap<Object, Bucket> index = value == null ? null : byTag.get(key);
+        if (index != null) {
+            return copy(index.get(value));
+        }
+        List<MockSpan> spans = new ArrayList<>();
+        for (MockSpan span : store.toList()) {
+            Object tag = span.tag(key);
+            if (value == null ? tag == null : value.equals(tag)) {
+                spans.add(span);
+            }
+        }
+        return spans;
+    }
+
+    private static Object operationNameKey(String operationName) {
+        return operationName == null ? NULL_OPERATION_NAME : operationName;
+    }
+
+    private static <K> void add(ConcurrentMap<K, Bucket> index, K key, MockSpan span) {
+        for (;;) {
+            Bucket bucket = index.get(key);
+            if (bucket == null) {
+                Bucket created = new Bucket();
+                bucket = index.putIfAbsent(key, created);
+                if (bucket == null) {
+                    bucket = created;
+                }
+            }
+            if (bucket.add(span)) {
+                return;
+            }
+            // Emptied and being removed; make sure it is gone before retrying.
+            index.remove(key, bucket);
+        }
+    }
+
+    private static <K> void remove(ConcurrentMap<K, Bucket> index, K key, MockSpan span) {
+        Bucket bucket = index.get(key);
+        if (bucket != null && bucket.remove(span)) {
+            index.remove(key, bucket);
+        }
+    }
+
+    private static List<MockSpan> copy(Bucket bucket) {
+        return bucket == null ? new ArrayList<MockSpan>() : bucket.toList();
+    }
+
+    private static final class Bucket {
+        private static final AtomicIntegerFieldUpdater<Bucket> LIVE =
+                AtomicIntegerFieldUpdater.newUpdater(Bucket.class, "live");
+        private static final AtomicReferenceFieldUpdater<Bucket, Node> HEAD =
+                AtomicReferenceFieldUpdater.newUpdater(Bucket.class, Node.class, "head");
+        private static final AtomicReferenceFieldUpdater<Bucket, Node> TAIL =
+                AtomicReferenceFieldUpdater.newUpdater(Bucket.class, Node.class, "tail");
+
+        // The number of spans added and not removed, or -1 once the bucket is dead.
+        private volatile int live;
+        // Precedes the first node; its span is always null.
+        private volatile Node head = new Node(null);
+        private volatile Node tail = head;
+
+        /**
+         * @return false if the bucket is dead
+         */
+        boolean add(MockSpan span) {
+            int count;
+            do {
+                count = live;
+                if (count < 0) {
+                    return false;
+                }
+            } while (!LIVE.compareAndSet(this, count, count + 1));
+            Node node = new Node(span);
+            Node previous = TAIL.getAndSet(this, node);
+            previous.next = node;
+            return true;
+        }
+
+        /**
+         * @return true if the bucket died, being left empty
+         */
+        boolean remove(MockSpan span) {
+            // The head is read first: it never passes the tail.
+            Node node = head;
+            Node last = tail;
+            // Evictions remove the oldest spans, which are at the front.
+            while (node != last) {
+                node = awaitNext(node);
+                if (node.span == span && Node.SPAN.compareAndSet(node, span, null)) {
+                    unlinkRemoved();
+                    return LIVE.decrementAndGet(this) == 0 && LIVE.compareAndSet(this, 0, -1);
+                }
+            }
+            return false;
+        }
+
+        private void unlinkRemoved() {
+            Node first;
+            Node next;
+            while ((next = (first = head).next) != null && next.span == null) {
+                // The removed node takes the place of the one before the first.
+                HEAD.compareAndSet(this, first, next);
+            }
+        }
+
+        List<MockSpan> toList() {
+            // The head is read first: it never passes the tail.
+            Node node = head;
+            Node last = tail;
+            List<MockSpan> spans = new ArrayList<>();
+            while (node != last) {
+                node = awaitNext(node);
+                MockSpan span = node.span;
+                if (span != null) {
+                    spans.add(span);
+                }
+            }
+            return spans;
+        }
+
+        private static Node awaitNext(Node node) {
+            Node next;
+            while ((next = node.next) == null) {
+                // Linked by an append in progress.
+                Thread.yield();
+            }
+            return next;
+        }
+    }
+
+    private static final class Node {
+        static final AtomicReferenceFieldUpdater<Node, MockSpan> SPAN =
+                AtomicReferenceFieldUpdater.newUpdater(Node.class, MockSpan.class, "span");
+
+        // Null once removed.
+        volatile MockSpan span;
+        volatile Node next;
+
+        Node(MockSpan span) {
+            this.span = span;
+        }
+    }
+}
@@ -0,0 +1,438 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.mock;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SpanJournal records finished {@link MockSpan}s at very high rates by serializing them straight into memory-mapped
+ * segment files, which the operating system writes out on its own.
+ *
+ * <p>
+ * Any number of threads append concurrently: each reserves the space of its record in the current segment with a
+ * compare-and-set, then writes it there without further coordination. When a record does not fit, the segment is
+ * rolled over to a new file of the same size. Hook it into {@link MockTracer#onSpanFinished(MockSpan)} like
+ * {@link SpanFileExporter}.
+ *
+ * <p>
+ * Segment layout: the int {@link #MAGIC} and the int {@link #VERSION}, then records until the first zero length. A
+ * record is an int payload length, a type byte and the payload. The length is written as soon as the record's space
+ * is reserved, and the type byte is written last: it stays {@link #UNCOMMITTED} for a record whose writer did not
+ * complete, e.g. in a crash, which readers skip to get to the records after it. Integers in payloads are unsigned
+ * LEB128 varints, and strings a varint byte length and UTF-8 bytes.
+ * <ul>
+ * <li>{@link #STRING} records define the strings of the segment's string table, which holds operation names, tag
+ * keys and log field keys: the string's varint id, then the string. A string is always defined before the records
+ * that refer to it, in the same segment. Id {@link #NULL_STRING_ID} is never defined: it stands for a null operation
+ * name.</li>
+ * <li>{@link #SPAN} records hold traceIdHigh, traceId, spanId, parentId, startMicros and finishMicros, the id of the
+ * operation name, counted tags (key id and value), counted log entries (timestampMicros and counted fields, as key id
+ * and value) and counted baggage items (key string and value). Values start with a type byte: {@link #STRING_VALUE}
+ * then a string, {@link #BOOLEAN_VALUE} then 0 or 1, {@link #INT_VALUE} for Integers and {@link #LONG_VALUE} for
+ * other integral numbers then a varint, {@link #FLOAT_VALUE} then 4 big-endian bytes, {@link #DOUBLE_VALUE} for
+ * other numbers then 8 big-endian bytes, {@link #NULL_VALUE} alone.</li>
+ * </ul>
+ * Records of different threads are in the order they reserved their space, and a thread that rolled over may append
+ * to the new segment while others still complete records in the previous one.
+ */
+public final class SpanJournal implements Closeable {
+    static final int MAGIC = 0x4f544a4c; // "OTJL"
+    static final int VERSION = 1;
+    static final int SEGMENT_HEADER_BYTES = 8;
+    static final int RECORD_HEADER_BYTES = 5;
+
+    static final byte UNCOMMITTED = 0;
+    static final byte SPAN = 1;
+    static final byte STRING = 2;
+
+    static final int NULL_STRING_ID = 0;
+
+    static final byte STRING_VALUE = 0;
+    static final byte BOOLEAN_VALUE = 1;
+    static final byte LONG_VALUE = 2;
+    static final byte DOUBLE_VALUE = 3;
+    static final byte NULL_VALUE = 4;
+    static final byte INT_VALUE = 5;
+    static final byte FLOAT_VALUE = 6;
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final AtomicLong appended = new AtomicLong();
+    // Guarded by this.
+    private final List<Path> segmentFiles = new ArrayList<>();
+    private volatile Segment segment;
+    private volatile boolean closed;
+
+    /**
+     * Create a new SpanJournal writing segment files of segmentBytes bytes each into the given directory, starting
+     * with spans-000000.journal. Existing segment files are overwritten.
+     */
+    public SpanJournal(Path directory, int segmentBytes) throws IOException {
+        if (segmentBytes < 1024) {
+            throw new IllegalArgumentException("segmentBytes must be at least 1024: " + segmentBytes);
+        }
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.segment = newSegment();
+    }
+
+    /**
+     * @throws IllegalArgumentException if the span, with the definitions of its strings, does not fit in an empty
+     * segment
+     * @throws IllegalStateException if this journal is closed, or a new segment could not be created
+     */
+    public void append(MockSpan span) {
+        boolean fits = false;
+        for (;;) {
+            if (closed) {
+                throw new IllegalStateException("SpanJournal is closed");
+            }
+            Segment current = segment;
+            int size = current.spanPayloadSize(span);
+            int offset = size < 0 ? -1 : current.reserve(RECORD_HEADER_BYTES + size);
+            if (offset >= 0) {
+                current.writeSpan(offset, size, span);
+                appended.incrementAndGet();
+                return;
+            }
+            // No room left for the span's strings or record. Other threads may fill new segments before this one
+            // gets to them, but a span that fits in an empty segment eventually gets one to itself.
+            if (!fits) {
+                if (maxBytesInEmptySegment(span) > segmentBytes - SEGMENT_HEADER_BYTES) {
+                    throw new IllegalArgumentException("Span too large for a journal segment: " + span);
+                }
+                fits = true;
+            }
+            roll(current);
+        }
+    }
+
+    /**
+     * @return the number of spans appended so far
+     */
+    public long appendedSpans() {
+        return appended.get();
+    }
+
+    /**
+     * @return the segment files written so far, in the order they were created
+     */
+    public synchronized List<Path> segmentFiles() {
+        return Collections.unmodifiableList(new ArrayList<>(segmentFiles));
+    }
+
+    /**
+     * Asks the operating system to write the current segment to the storage device, and stops accepting spans. Spans
+     * appended concurrently with close() may or may not be recorded.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        segment.buffer.force();
+    }
+
+    private synchronized void roll(Segment full) {
+        if (segment != full || closed) {
+            return;
+        }
+        try {
+            segment = newSegment();
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not create a new journal segment", e);
+        }
+        // Appends still in progress in the full segment may miss this; close() does not.
+        full.buffer.force();
+    }
+
+    private synchronized Segment newSegment() throws IOException {
+        Path file = directory.resolve(String.format("spans-%06d.journal", segmentFiles.size()));
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            // The mapping stays valid after the channel is closed.
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        }
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        segmentFiles.add(file);
+        return new Segment(buffer);
+    }
+
+    /**
+     * @return an upper bound of the bytes the span takes in an empty segment: its record, and the definitions of its
+     * strings, whatever their ids
+     */
+    private static int maxBytesInEmptySegment(MockSpan span) {
+        int maxIdSize = Varints.size(Integer.MAX_VALUE);
+        MockSpan.MockContext context = span.context();
+        Set<String> strings = new HashSet<>();
+        if (span.operationName() != null) {
+            strings.add(span.operationName());
+        }
+        int size = RECORD_HEADER_BYTES + Varints.size(context.traceIdHigh()) + Varints.size(context.traceId())
+                + Varints.size(context.spanId()) + Varints.size(span.parentId()) + Varints.size(span.startMicros())
+                + Varints.size(span.finishMicros()) + maxIdSize;
+        Map<String, Object> tags = span.finishedTags();
+        size += Varints.size(tags.size());
+        for (Map.Entry<String, Object> tag : tags.entrySet()) {
+            strings.add(tag.getKey());
+            size += maxIdSize + valueSize(tag.getValue());
+        }
+        List<MockSpan.LogEntry> logEntries = span.finishedLogEntries();
+        size += Varints.size(logEntries.size());
+        for (MockSpan.LogEntry entry : logEntries) {
+            size += Varints.size(entry.timestampMicros()) + Varints.size(entry.fields().size());
+            for (Map.Entry<String, ?> field : entry.fields().entrySet()) {
+                strings.add(field.getKey());
+                size += maxIdSize + valueSize(field.getValue());
+            }
+        }
+        PersistentBaggage baggage = context.baggage();
+        size += Varints.size(baggage.size());
+        for (Map.Entry<String, String> item : baggage) {
+            size += stringSize(item.getKey()) + valueSize(item.getValue());
+        }
+        for (String string : strings) {
+            size += RECORD_HEADER_BYTES + maxIdSize + stringSize(string);
+        }
+        return size;
+    }
+
+    static int stringSize(String value) {
+        int length = Utf8.encodedLength(value);
+        return Varints.size(length) + length;
+    }
+
+    static void putString(ByteBuffer buffer, String value) {
+        Varints.put(buffer, Utf8.encodedLength(value));
+        Utf8.encode(value, buffer);
+    }
+
+    private static boolean isIntegral(Object value) {
+        return value instanceof Long || value instanceof Short || value instanceof Byte;
+    }
+
+    static int valueSize(Object value) {
+        if (value == null) {
+            return 1;
+        } else if (value instanceof Boolean) {
+            return 2;
+        } else if (value instanceof Integer || isIntegral(value)) {
+            return 1 + Varints.size(((Number) value).longValue());
+        } else if (value instanceof Float) {
+            return 5;
+        } else if (value instanceof Number) {
+            return 9;
+        }
+        return 1 + stringSize(String.valueOf(value));
+    }
+
+    static void putValue(ByteBuffer buffer, Object value) {
+        if (value == null) {
+            buffer.put(NULL_VALUE);
+        } else if (value instanceof Boolean) {
+            buffer.put(BOOLEAN_VALUE);
+            buffer.put((byte) (((Boolean) value) ? 1 : 0));
+        } else if (value instanceof Integer) {
+            buffer.put(INT_VALUE);
+            Varints.put(buffer, (Integer) value);
+        } else if (isIntegral(value)) {
+            buffer.put(LONG_VALUE);
+            Varints.put(buffer, ((Number) value).longValue());
+        } else if (value instanceof Float) {
+            buffer.put(FLOAT_VALUE);
+            buffer.putFloat((Float) value);
+        } else if (value instanceof Number) {
+            buffer.put(DOUBLE_VALUE);
+            buffer.putDouble(((Number) value).doubleValue());
+        } else {
+            buffer.put(STRING_VALUE);
+            putString(buffer, String.valueOf(value));
+        }
+    }
+
+    private static final class Segment {
+        final MappedByteBuffer buffer;
+        final AtomicInteger position = new AtomicInteger(SEGMENT_HEADER_BYTES);
+        final ConcurrentMap<String, Integer> strings = new ConcurrentHashMap<>();
+        // Guarded by strings.
+        int nextStringId = NULL_STRING_ID + 1;
+
+        Segment(MappedByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        /**
+         * Reserves a record, and writes its length right away, so that readers can skip it should it never be
+         * committed.
+         *
+         * @return the offset of the reserved record, or -1 if it does not fit
+         */
+        int reserve(int bytes) {
+            for (;;) {
+                int offset = position.get();
+                if (offset + bytes > buffer.capacity()) {
+                    return -1;
+                }
+                if (position.compareAndSet(offset, offset + bytes)) {
+                    buffer.putInt(offset, bytes - RECORD_HEADER_BYTES);
+                    return offset;
+                }
+            }
+        }
+
+        /**
+         * @return the id of value in the string table, which is defined first if needed, or -1 if there is no room
+         * left for its definition
+         */
+        int stringId(String value) {
+            Integer id = strings.get(value);
+            if (id != null) {
+                return id;
+            }
+            synchronized (strings) {
+                id = strings.get(value);
+                if (id != null) {
+                    return id;
+                }
+                int newId = nextStringId;
+                int size = Varints.size(newId) + stringSize(value);
+                int offset = reserve(RECORD_HEADER_BYTES + size);
+                if (offset < 0) {
+                    return -1;
+                }
+                ByteBuffer record = record(offset, size);
+                Varints.put(record, newId);
+                putString(record, value);
+                buffer.put(offset + 4, STRING);
+                nextStringId++;
+                // Published after its definition is reserved, so that records using it come after it.
+                strings.put(value, newId);
+                return newId;
+            }
+        }
+
+        /**
+         * @return the id of the operation name in the string table, or -1 if there is no room left for its definition
+         */
+        int operationNameId(String operationName) {
+            return operationName == null ? NULL_STRING_ID : stringId(operationName);
+        }
+
+        /**
+         * Defines the strings of the span as needed.
+         *
+         * @return the payload size of the span's record, or -1 if there is no room left for its strings
+         */
+        int spanPayloadSize(MockSpan span) {
+            MockSpan.MockContext context = span.context();
+            int id = operationNameId(span.operationName());
+            if (id < 0) {
+                return -1;
+            }
+            int size = Varints.size(context.traceIdHigh()) + Varints.size(context.traceId())
+                    + Varints.size(context.spanId()) + Varints.size(span.parentId())
+                    + Varints.size(span.startMicros()) + Varints.size(span.finishMicros()) + Varints.size(id);
+            Map<String, Object> tags = span.finishedTags();
+            size += Varints.size(tags.size());
+            for (Map.Entry<String, Object> tag : tags.entrySet()) {
+                if ((id = stringId(tag.getKey())) < 0) {
+                    return -1;
+                }
+                size += Varints.size(id) + valueSize(tag.getValue());
+            }
+            List<MockSpan.LogEntry> logEntries = span.finishedLogEntries();
+            size += Varints.size(logEntries.size());
+            for (MockSpan.LogEntry entry : logEntries) {
+                size += Varints.size(entry.timestampMicros()) + Varints.size(entry.fields().size());
+                for (Map.Entry<String, ?> field : entry.fields().entrySet()) {
+                    if ((id = stringId(field.getKey())) < 0) {
+                        return -1;
+                    }
+                    size += Varints.size(id) + valueSize(field.getValue());
+                }
+            }
+            PersistentBaggage baggage = context.baggage();
+            size += Varints.size(baggage.size());
+            for (Map.Entry<String, String> item : baggage) {
+                size += stringSize(item.getKey()) + valueSize(item.getValue());
+            }
+            return size;
+        }
+
+        void writeSpan(int offset, int size, MockSpan span) {
+            MockSpan.MockContext context = span.context();
+            ByteBuffer record = record(offset, size);
+            Varints.put(record, context.traceIdHigh());
+            Varints.put(record, context.traceId());
+            Varints.put(record, context.spanId());
+            Varints.put(record, span.parentId());
+            Varints.put(record, span.startMicros());
+            Varints.put(record, span.finishMicros());
+            Varints.put(record, operationNameId(span.operationName()));
+            Map<String, Object> tags = span.finishedTags();
+            Varints.put(record, tags.size());
+            for (Map.Entry<String, Object> tag : tags.entrySet()) {
+                Varints.put(record, strings.get(tag.getKey()));
+                putValue(record, tag.getValue());
+            }
+            List<MockSpan.LogEntry> logEntries = span.finishedLogEntries();
+            Varints.put(record, logEntries.size());
+            for (MockSpan.LogEntry entry : logEntries) {
+                Varints.put(record, entry.timestampMicros());
+                Varints.put(record, entry.fields().size());
+                for (Map.Entry<String, ?> field : entry.fields().entrySet()) {
+                    Varints.put(record, strings.get(field.getKey()));
+                    putValue(record, field.getValue());
+                }
+            }
+            PersistentBaggage baggage = context.baggage();
+            Varints.put(record, baggage.size());
+            for (Map.Entry<String, String> item : baggage) {
+                putString(record, item.getKey());
+                putValue(record, item.getValue());
+            }
+            buffer.put(offset + 4, SPAN);
+        }
+
+        /**
+         * @return a view of the reserved record, positioned at its payload
+         */
+        private ByteBuffer record(int offset, int size) {
+            ByteBuffer record = buffer.duplicate();
+            record.position(offset + RECORD_HEADER_BYTES);
+            record.limit(offset + RECORD_HEADER_BYTES + size);
+            return record;
+        }
+    }
+}
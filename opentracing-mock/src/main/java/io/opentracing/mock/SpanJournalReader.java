@@ -0,0 +1,243 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.mock;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * SpanJournalReader replays the segments recorded by a {@link SpanJournal} into a {@link MockTracer}, so that
+ * {@link MockTracer#finishedSpans()}, its indexed queries and {@link TraceTree} can analyze a capture offline.
+ *
+ * <p>
+ * Each segment has its own string table, so segments are decoded independently, by several threads. A segment is
+ * memory-mapped and decoded record by record, which lets the operating system stream it in; replayed spans are
+ * recorded as they are decoded, in the order of their segment but interleaved across segments. The MockTracer's
+ * {@link MockTracer.Retention} and {@link MockTracer#onSpanFinished(MockSpan)} apply to replayed spans as to any
+ * finished span, so a tracer that journals its spans must not replay into itself.
+ *
+ * <p>
+ * Replay stops at the end of a segment's records; records that were not completely written are skipped.
+ */
+public final class SpanJournalReader {
+    private SpanJournalReader() {
+    }
+
+    /**
+     * Replay the segment files of a journal directory, in the order of their names.
+     *
+     * @return the number of replayed spans
+     * @see #replay(List, MockTracer, int)
+     */
+    public static long replay(Path directory, MockTracer tracer, int threads) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "spans-*.journal")) {
+            for (Path file : files) {
+                segments.add(file);
+            }
+        }
+        Collections.sort(segments);
+        return replay(segments, tracer, threads);
+    }
+
+    /**
+     * Tag and log field values are replayed with the type they were recorded with if they were Strings, Booleans,
+     * Integers, Longs, Floats or Doubles. Other integral numbers are replayed as Longs, other numbers as Doubles,
+     * and other values as the strings they were recorded as.
+     *
+     * @param threads the number of segments to decode at the same time
+     * @return the number of replayed spans
+     * @throws IOException if a segment could not be read, or is not a well-formed journal segment
+     */
+    public static long replay(List<Path> segments, final MockTracer tracer, int threads) throws IOException {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+        if (threads == 1 || segments.size() <= 1) {
+            long spans = 0;
+            for (Path segment : segments) {
+                spans += replaySegment(segment, tracer);
+            }
+            return spans;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, segments.size()));
+        try {
+            List<Future<Long>> replays = new ArrayList<>(segments.size());
+            for (final Path segment : segments) {
+                replays.add(executor.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() throws IOException {
+                        return replaySegment(segment, tracer);
+                    }
+                }));
+            }
+            long spans = 0;
+            for (Future<Long> replay : replays) {
+                spans += replay.get();
+            }
+            return spans;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while replaying", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Replaying failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the number of replayed spans
+     */
+    static long replaySegment(Path segment, MockTracer tracer) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            return replay(buffer, tracer);
+        } catch (RuntimeException e) {
+            // Out of bounds, malformed UTF-8 or undefined strings.
+            throw new IOException("Malformed journal segment " + segment, e);
+        }
+    }
+
+    private static long replay(ByteBuffer buffer, MockTracer tracer) throws IOException {
+        if (buffer.remaining() < SpanJournal.SEGMENT_HEADER_BYTES || buffer.getInt() != SpanJournal.MAGIC) {
+            throw new IOException("Not a journal segment");
+        }
+        int version = buffer.getInt();
+        if (version != SpanJournal.VERSION) {
+            throw new IOException("Unsupported journal version " + version);
+        }
+        List<String> strings = new ArrayList<>();
+        long spans = 0;
+        while (buffer.remaining() >= SpanJournal.RECORD_HEADER_BYTES) {
+            int length = buffer.getInt();
+            if (length == 0) {
+                break;
+            }
+            byte type = buffer.get();
+            int end = buffer.position() + length;
+            if (type == SpanJournal.STRING) {
+                int id = (int) Varints.read(buffer);
+                String value = readString(buffer);
+                while (strings.size() <= id) {
+                    strings.add(null);
+                }
+                strings.set(id, value);
+            } else if (type == SpanJournal.SPAN) {
+                tracer.appendFinishedSpan(readSpan(buffer, strings, tracer));
+                spans++;
+            }
+            buffer.position(end);
+        }
+        return spans;
+    }
+
+    private static MockSpan readSpan(ByteBuffer buffer, List<String> strings, MockTracer tracer) {
+        long traceIdHigh = Varints.read(buffer);
+        long traceId = Varints.read(buffer);
+        long spanId = Varints.read(buffer);
+        long parentId = Varints.read(buffer);
+        long startMicros = Varints.read(buffer);
+        long finishMicros = Varints.read(buffer);
+        long operationNameId = Varints.read(buffer);
+        String operationName = operationNameId == SpanJournal.NULL_STRING_ID ? null : string(strings, operationNameId);
+
+        int tagCount = (int) Varints.read(buffer);
+        Map<String, Object> tags = new HashMap<>(2 * tagCount);
+        for (int i = 0; i < tagCount; i++) {
+            String key = string(strings, Varints.read(buffer));
+            tags.put(key, readValue(buffer));
+        }
+
+        int logCount = (int) Varints.read(buffer);
+        List<MockSpan.LogEntry> logEntries = new ArrayList<>(logCount);
+        for (int i = 0; i < logCount; i++) {
+            long timestampMicros = Varints.read(buffer);
+            int fieldCount = (int) Varints.read(buffer);
+            Map<String, Object> fields = new HashMap<>(2 * fieldCount);
+            for (int j = 0; j < fieldCount; j++) {
+                String key = string(strings, Varints.read(buffer));
+                fields.put(key, readValue(buffer));
+            }
+            logEntries.add(new MockSpan.LogEntry(timestampMicros, fields));
+        }
+
+        int baggageCount = (int) Varints.read(buffer);
+        PersistentBaggage baggage = PersistentBaggage.EMPTY;
+        for (int i = 0; i < baggageCount; i++) {
+            String key = readString(buffer);
+            baggage = baggage.with(key, (String) readValue(buffer));
+        }
+
+        MockSpan.MockContext context = new MockSpan.MockContext(traceIdHigh, traceId, spanId, baggage);
+        return new MockSpan(tracer, context, parentId, operationName, startMicros, finishMicros, tags, logEntries);
+    }
+
+    private static String string(List<String> strings, long id) {
+        String value = id < strings.size() ? strings.get((int) id) : null;
+        if (value == null) {
+            throw new IllegalStateException("Undefined string " + id);
+        }
+        return value;
+    }
+
+    static Object readValue(ByteBuffer buffer) {
+        byte type = buffer.get();
+        switch (type) {
+            case SpanJournal.STRING_VALUE:
+                return readString(buffer);
+            case SpanJournal.BOOLEAN_VALUE:
+                return buffer.get() != 0;
+            case SpanJournal.LONG_VALUE:
+                return Varints.read(buffer);
+            case SpanJournal.DOUBLE_VALUE:
+                return buffer.getDouble();
+            case SpanJournal.NULL_VALUE:
+                return null;
+            case SpanJournal.INT_VALUE:
+                return (int) Varints.read(buffer);
+            case SpanJournal.FLOAT_VALUE:
+                return buffer.getFloat();
+            default:
+                throw new IllegalStateException("Unknown value type " + type);
+        }
+    }
+
+    static String readString(ByteBuffer buffer) {
+        return Utf8.decode(buffer, (int) Varints.read(buffer));
+    }
+}
@@ -0,0 +1,376 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.mock;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * TraceTree turns finished {@link MockSpan}s back into the trees of their traces, and analyzes where the time of
+ * each span went: its critical path, its self time and the parallelism of its children.
+ *
+ * Trees are built in linear time from the spans' trace ids and parent ids. A span whose parent is not among the
+ * given spans (because it has not finished, or was dropped by a bounded {@link MockTracer.Retention}) is a root, so a
+ * tree may have several roots.
+ *
+ * Children that start before or finish after their parent, e.g. due to clock skew, are clipped to the parent.
+ *
+ * <pre>{@code
+ * for (TraceTree trace : TraceTree.build(tracer.finishedSpans())) {
+ *     for (TraceTree.Segment segment : trace.roots().get(0).criticalPath()) {
+ *         ...
+ *     }
+ * }
+ * }</pre>
+ *
+ * @see MockTracer#finishedSpansOfTrace(long)
+ */
+public final class TraceTree {
+    private static final Comparator<Node> BY_START = new Comparator<Node>() {
+        @Override
+        public int compare(Node a, Node b) {
+            return compareLongs(a.startMicros, b.startMicros);
+        }
+    };
+
+    private static final Comparator<Node> BY_FINISH_DESCENDING = new Comparator<Node>() {
+        @Override
+        public int compare(Node a, Node b) {
+            return compareLongs(b.finishMicros, a.finishMicros);
+        }
+    };
+
+    private final long traceId;
+    private final Map<Long, Node> nodes = new LinkedHashMap<>();
+    private final List<Node> roots = new ArrayList<>();
+    // Guarded by this.
+    private boolean criticalPathsComputed;
+
+    private TraceTree(long traceId) {
+        this.traceId = traceId;
+    }
+
+    /**
+     * @param spans finished spans, of any number of traces
+     * @return one tree per trace, in the order the traces first appear in spans
+     */
+    public static List<TraceTree> build(Iterable<MockSpan> spans) {
+        Map<Long, TraceTree> trees = new LinkedHashMap<>();
+        for (MockSpan span : spans) {
+            long traceId = span.context().traceId();
+            TraceTree tree = trees.get(traceId);
+            if (tree == null) {
+                tree = new TraceTree(traceId);
+                trees.put(traceId, tree);
+            }
+            tree.nodes.put(span.context().spanId(), new Node(tree, span));
+        }
+        for (TraceTree tree : trees.values()) {
+            tree.link();
+        }
+        return new ArrayList<>(trees.values());
+    }
+
+    private void link() {
+        for (Node node : nodes.values()) {
+            Node parent = node.span.parentId() == 0 ? null : nodes.get(node.span.parentId());
+            if (parent == null) {
+                roots.add(node);
+            } else {
+                node.parent = parent;
+                parent.children.add(node);
+            }
+        }
+    }
+
+    public long traceId() {
+        return traceId;
+    }
+
+    /**
+     * @return the spans without a parent in this tree, in the order they were given
+     */
+    public List<Node> roots() {
+        return Collections.unmodifiableList(roots);
+    }
+
+    /**
+     * @return the node of the given span, or null if it is not in this tree
+     */
+    public Node node(long spanId) {
+        return nodes.get(spanId);
+    }
+
+    /**
+     * @return all nodes of this tree, in the order their spans were given
+     */
+    public List<Node> nodes() {
+        return Collections.unmodifiableList(new ArrayList<>(nodes.values()));
+    }
+
+    /**
+     * Computes the critical paths of all roots once, and records the time each node spends on them.
+     */
+    private synchronized void computeCriticalPaths() {
+        if (criticalPathsComputed) {
+            return;
+        }
+        for (Node root : roots) {
+            for (Segment segment : root.criticalPath()) {
+                segment.node.criticalPathMicros += segment.durationMicros();
+            }
+        }
+        criticalPathsComputed = true;
+    }
+
+    /**
+     * A span in a {@link TraceTree}.
+     */
+    public static final class Node {
+        private final TraceTree tree;
+        private final MockSpan span;
+        private final long startMicros;
+        private final long finishMicros;
+        private Node parent;
+        private final List<Node> children = new ArrayList<>();
+        // Guarded by tree, see computeCriticalPaths().
+        private long criticalPathMicros;
+
+        private Node(TraceTree tree, MockSpan span) {
+            this.tree = tree;
+            this.span = span;
+            this.startMicros = span.startMicros();
+            this.finishMicros = Math.max(span.startMicros(), span.finishMicros());
+        }
+
+        public MockSpan span() {
+            return span;
+        }
+
+        /**
+         * @return the parent of this node, or null for a root
+         */
+        public Node parent() {
+            return parent;
+        }
+
+        /**
+         * @return the children of this node, in the order their spans were given
+         */
+        public List<Node> children() {
+            return Collections.unmodifiableList(children);
+        }
+
+        public long durationMicros() {
+            return finishMicros - startMicros;
+        }
+
+        /**
+         * @return the time during which this span ran but none of its children did
+         */
+        public long selfMicros() {
+            return durationMicros() - coveredMicros();
+        }
+
+        /**
+         * Parallelism is the total time of the children divided by the time during which at least one of them ran:
+         * 1.0 for children that run one after the other, 2.0 for two children that run side by side, and 0 without
+         * children.
+         *
+         * @return the average number of children running at the same time, while any runs
+         */
+        public double parallelism() {
+            long covered = coveredMicros();
+            if (covered == 0) {
+                return 0;
+            }
+            long total = 0;
+            for (Node child : children) {
+                total += clippedFinish(child) - clippedStart(child);
+            }
+            return (double) total / covered;
+        }
+
+        /**
+         * The critical path is the chain of spans that bounds the latency of this span: going back from its finish,
+         * it descends into the child that finished last, then into the child that finished last before that one
+         * started, and so on; time not covered by such a child is spent in this span itself. Shortening any other
+         * span would not make this one finish earlier.
+         *
+         * @return the segments of the critical path of this span's subtree, in chronological order; they cover the
+         * span's duration without overlapping
+         */
+        public List<Segment> criticalPath() {
+            List<Segment> path = new ArrayList<>();
+            addCriticalPath(this, startMicros, finishMicros, path);
+            Collections.reverse(path);
+            return path;
+        }
+
+        /**
+         * The critical paths of all roots are computed on the first call for any node of the tree, so asking every
+         * node takes linear time overall.
+         *
+         * @return the time spent in this span itself on the critical path of its tree's root
+         */
+        public long criticalPathMicros() {
+            synchronized (tree) {
+                tree.computeCriticalPaths();
+                return criticalPathMicros;
+            }
+        }
+
+        private long coveredMicros() {
+            List<Node> sorted = new ArrayList<>(children);
+            Collections.sort(sorted, BY_START);
+            long covered = 0;
+            long end = startMicros;
+            for (Node child : sorted) {
+                long start = Math.max(clippedStart(child), end);
+                long finish = clippedFinish(child);
+                if (finish > start) {
+                    covered += finish - start;
+                    end = finish;
+                }
+            }
+            return covered;
+        }
+
+        private long clippedStart(Node child) {
+            return Math.min(Math.max(child.startMicros, startMicros), finishMicros);
+        }
+
+        private long clippedFinish(Node child) {
+            return Math.max(Math.min(child.finishMicros, finishMicros), startMicros);
+        }
+
+        @Override
+        public String toString() {
+            return span.toString();
+        }
+    }
+
+    /**
+     * Adds the critical path of node between from and to, latest segment first. Descends into children with an
+     * explicit stack rather than recursion, so that deep traces do not overflow the thread's stack.
+     */
+    private static void addCriticalPath(Node node, long from, long to, List<Segment> path) {
+        Deque<PathStep> steps = new ArrayDeque<>();
+        steps.push(new PathStep(node, from, to));
+        while (!steps.isEmpty()) {
+            PathStep step = steps.peek();
+            Node child = step.nextChild();
+            if (child == null) {
+                if (step.end > step.from) {
+                    path.add(new Segment(step.node, step.from, step.end));
+                }
+                steps.pop();
+                continue;
+            }
+            long childFinish = Math.min(child.finishMicros, step.end);
+            long childStart = Math.max(child.startMicros, step.from);
+            if (childFinish < step.end) {
+                path.add(new Segment(step.node, childFinish, step.end));
+            }
+            step.end = childStart;
+            steps.push(new PathStep(child, childStart, childFinish));
+        }
+    }
+
+    /**
+     * The part of the critical path of a node that is left to add: between from and end, going back from end.
+     */
+    private static final class PathStep {
+        final Node node;
+        final long from;
+        long end;
+        private final List<Node> children;
+        private int next;
+
+        PathStep(Node node, long from, long end) {
+            this.node = node;
+            this.from = from;
+            this.end = end;
+            this.children = new ArrayList<>(node.children);
+            Collections.sort(children, BY_FINISH_DESCENDING);
+        }
+
+        /**
+         * @return the next child on the critical path, or null if the rest of it is spent in the node itself
+         */
+        Node nextChild() {
+            while (next < children.size()) {
+                Node child = children.get(next++);
+                if (end <= from || child.finishMicros <= from) {
+                    next = children.size();
+                    return null;
+                }
+                if (child.startMicros >= end) {
+                    // Ran entirely after the part of the path that is left.
+                    continue;
+                }
+                return child;
+            }
+            return null;
+        }
+    }
+
+    private static int compareLongs(long a, long b) {
+        return a < b ? -1 : (a == b ? 0 : 1);
+    }
+
+    /**
+     * A part of a critical path, during which it is bounded by a span itself rather than by any of its children.
+     *
+     * @see Node#criticalPath()
+     */
+    public static final class Segment {
+        private final Node node;
+        private final long startMicros;
+        private final long finishMicros;
+
+        private Segment(Node node, long startMicros, long finishMicros) {
+            this.node = node;
+            this.startMicros = startMicros;
+            this.finishMicros = finishMicros;
+        }
+
+        public Node node() {
+            return node;
+        }
+
+        public long startMicros() {
+            return startMicros;
+        }
+
+        public long finishMicros() {
+            return finishMicros;
+        }
+
+        public long durationMicros() {
+            return finishMicros - startMicros;
+        }
+
+        @Override
+        public String toString() {
+            return "{" + node.span.operationName() + ": " + startMicros + "-" + finishMicros + "}";
+        }
+    }
+}
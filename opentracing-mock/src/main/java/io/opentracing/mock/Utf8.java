@@ -0,0 +1,126 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.mock;
+
+import java.nio.ByteBuffer;
+
+/**
+ * UTF-8 encoding of strings straight into and out of {@link ByteBuffer}s, heap or direct, without intermediate byte
+ * arrays. Unpaired surrogates are encoded as '?', like {@link String#getBytes(java.nio.charset.Charset)} does.
+ */
+final class Utf8 {
+    private Utf8() {
+    }
+
+    /**
+     * @return the number of bytes of the UTF-8 encoding of value
+     */
+    static int encodedLength(String value) {
+        int length = value.length();
+        int bytes = length;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                if (c < 0x800) {
+                    bytes += 1;
+                } else if (Character.isHighSurrogate(c) && i + 1 < length
+                        && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    // Four bytes for two chars.
+                    bytes += 2;
+                    i++;
+                } else if (Character.isSurrogate(c)) {
+                    // Unpaired: '?'.
+                } else {
+                    bytes += 2;
+                }
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Puts the UTF-8 encoding of value at the position of buffer, which must have encodedLength(value) bytes
+     * remaining.
+     */
+    static void encode(String value, ByteBuffer buffer) {
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer.put((byte) (0xF0 | (codePoint >> 18)));
+                buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                buffer.put((byte) '?');
+            } else {
+                buffer.put((byte) (0xE0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    /**
+     * Reads length bytes of UTF-8 at the position of buffer.
+     *
+     * @throws IllegalArgumentException if the bytes are not well-formed UTF-8
+     */
+    static String decode(ByteBuffer buffer, int length) {
+        char[] chars = new char[length];
+        int count = 0;
+        int end = buffer.position() + length;
+        while (buffer.position() < end) {
+            int b = buffer.get() & 0xFF;
+            if (b < 0x80) {
+                chars[count++] = (char) b;
+            } else if ((b & 0xE0) == 0xC0) {
+                chars[count++] = (char) (((b & 0x1F) << 6) | continuation(buffer, end));
+            } else if ((b & 0xF0) == 0xE0) {
+                int c = ((b & 0x0F) << 12) | (continuation(buffer, end) << 6);
+                chars[count++] = (char) (c | continuation(buffer, end));
+            } else if ((b & 0xF8) == 0xF0) {
+                int codePoint = ((b & 0x07) << 18) | (continuation(buffer, end) << 12);
+                codePoint |= continuation(buffer, end) << 6;
+                codePoint |= continuation(buffer, end);
+                if (!Character.isSupplementaryCodePoint(codePoint)) {
+                    throw new IllegalArgumentException("Malformed UTF-8");
+                }
+                chars[count++] = Character.highSurrogate(codePoint);
+                chars[count++] = Character.lowSurrogate(codePoint);
+            } else {
+                throw new IllegalArgumentException("Malformed UTF-8");
+            }
+        }
+        return new String(chars, 0, count);
+    }
+
+    private static int continuation(ByteBuffer buffer, int end) {
+        if (buffer.position() >= end) {
+            throw new IllegalArgumentException("Truncated UTF-8");
+        }
+        int b = buffer.get() & 0xFF;
+        if ((b & 0xC0) != 0x80) {
+            throw new IllegalArgumentException("Malformed UTF-8");
+        }
+        return b & 0x3F;
+    }
+}
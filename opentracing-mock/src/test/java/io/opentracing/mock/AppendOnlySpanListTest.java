@@ -0,0 +1,106 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.mock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import org.junit.Test;
+
+public class AppendOnlySpanListTest {
+    private final MockTracer tracer = new MockTracer();
+
+    private List<MockSpan> newSpans(String operationName, int count) {
+        List<MockSpan> spans = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            spans.add(tracer.buildSpan(operationName).startManual());
+        }
+        return spans;
+    }
+
+    @Test
+    public void appendAcrossChunks() {
+        AppendOnlySpanList list = new AppendOnlySpanList();
+        List<MockSpan> spans = newSpans("span", 3 * AppendOnlySpanList.CHUNK_SIZE + 1);
+        for (MockSpan span : spans) {
+            list.add(span);
+        }
+
+        assertEquals(spans.size(), list.size());
+        assertEquals(spans, list.toList());
+    }
+
+    @Test
+    public void emptyList() {
+        AppendOnlySpanList list = new AppendOnlySpanList();
+        assertEquals(0, list.size());
+        assertTrue(list.toList().isEmpty());
+    }
+
+    @Test
+    public void concurrentAppends() throws InterruptedException {
+        final int threadCount = 8;
+        final int perThread = 5 * AppendOnlySpanList.CHUNK_SIZE;
+        final AppendOnlySpanList list = new AppendOnlySpanList();
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        Map<String, List<MockSpan>> spansByThread = new HashMap<>();
+        for (int t = 0; t < threadCount; t++) {
+            final List<MockSpan> spans = newSpans("thread-" + t, perThread);
+            spansByThread.put("thread-" + t, spans);
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                    for (MockSpan span : spans) {
+                        list.add(span);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        start.countDown();
+        // Readers may copy while appends are in progress.
+        while (list.size() < threadCount * perThread) {
+            list.toList();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        List<MockSpan> all = list.toList();
+        assertEquals(threadCount * perThread, all.size());
+        // Every span is there, and the spans of each thread are in the order they were appended.
+        Map<String, Integer> nextByThread = new HashMap<>();
+        for (MockSpan span : all) {
+            String operationName = span.operationName();
+            Integer next = nextByThread.get(operationName);
+            next = next == null ? 0 : next;
+            assertSame(spansByThread.get(operationName).get(next), span);
+            nextByThread.put(operationName, next + 1);
+        }
+    }
+}
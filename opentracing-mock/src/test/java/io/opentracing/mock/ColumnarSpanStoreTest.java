@@ -0,0 +1,208 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.mock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import org.junit.Test;
+
+public class ColumnarSpanStoreTest {
+    private final MockTracer tracer = MockTracer.builder().withRetention(MockTracer.Retention.columnar()).build();
+
+    @Test
+    public void rebuildsSpans() {
+        MockSpan parent = tracer.buildSpan("parent").withStartTimestamp(1000).startManual();
+        parent.setBaggageItem("user", "alice");
+        MockSpan child = tracer.buildSpan("child").asChildOf(parent).withStartTimestamp(1001)
+                .withTag("string", "value")
+                .withTag("boolean", true)
+                .withTag("integer", 7)
+                .startManual();
+        child.setTag("long", 7L);
+        child.setTag("double", 1.5);
+        child.setTag("float", 2.5f);
+        child.setTag("decimal", new BigDecimal("3.25"));
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("event", "done");
+        child.log(1002, fields);
+        child.finish(1003);
+        parent.finish(1004);
+
+        List<MockSpan> spans = tracer.finishedSpans();
+        assertEquals(2, spans.size());
+        MockSpan replayed = spans.get(0);
+        assertNotSame(child, replayed);
+        assertEquals(child.context().traceId(), replayed.context().traceId());
+        assertEquals(child.context().spanId(), replayed.context().spanId());
+        assertEquals(child.parentId(), replayed.parentId());
+        assertEquals("child", replayed.operationName());
+        assertEquals(1001, replayed.startMicros());
+        assertEquals(1003, replayed.finishMicros());
+        assertEquals(child.tags(), replayed.tags());
+        assertEquals(Integer.class, replayed.tags().get("integer").getClass());
+        assertEquals(Float.class, replayed.tags().get("float").getClass());
+        assertEquals("alice", replayed.getBaggageItem("user"));
+        assertEquals(1, replayed.logEntries().size());
+        assertEquals(1002, replayed.logEntries().get(0).timestampMicros());
+        assertEquals(fields, replayed.logEntries().get(0).fields());
+        assertEquals("parent", spans.get(1).operationName());
+        assertTrue(spans.get(1).tags().isEmpty());
+    }
+
+    @Test
+    public void queries() {
+        for (int i = 0; i < 3000; i++) {
+            MockSpan span = tracer.buildSpan(i % 3 == 0 ? "query" : "update").startManual();
+            span.setTag("shard", i % 10);
+            if (i % 100 == 0) {
+                span.setTag("slow", true);
+            }
+            span.finish();
+        }
+        List<MockSpan> spans = tracer.finishedSpans();
+        assertEquals(3000, spans.size());
+
+        assertEquals(1000, tracer.finishedSpansWithOperationName("query").size());
+        assertEquals(0, tracer.finishedSpansWithOperationName("delete").size());
+        assertEquals(300, tracer.finishedSpansWithTag("shard", 4).size());
+        assertEquals(0, tracer.finishedSpansWithTag("shard", 4L).size());
+        assertEquals(30, tracer.finishedSpansWithTag("slow", true).size());
+        assertEquals(0, tracer.finishedSpansWithTag("missing", true).size());
+        assertEquals(2970, tracer.finishedSpansWithTag("slow", null).size());
+        assertEquals(3000, tracer.finishedSpansWithTag("missing", null).size());
+        assertEquals(0, tracer.finishedSpansWithTag(null, true).size());
+
+        MockSpan span = spans.get(1234);
+        List<MockSpan> trace = tracer.finishedSpansOfTrace(span.context().traceId());
+        assertEquals(1, trace.size());
+        assertEquals(span.context().spanId(), trace.get(0).context().spanId());
+
+        tracer.reset();
+        assertEquals(0, tracer.finishedSpans().size());
+    }
+
+    @Test
+    public void columns() {
+        for (int i = 0; i < 2000; i++) {
+            MockSpan span = tracer.buildSpan(i % 2 == 0 ? "even" : "odd").withStartTimestamp(1000 + i).startManual();
+            span.setTag("index", i);
+            span.finish(1000 + 2 * i);
+        }
+        SpanColumns columns = tracer.finishedSpanColumns();
+        assertEquals(2000, columns.size());
+        int even = columns.stringId("even");
+        long evenMicros = 0;
+        for (int row = 0; row < columns.size(); row++) {
+            if (columns.operationNameId(row) == even) {
+                evenMicros += columns.finishMicros(row) - columns.startMicros(row);
+            }
+        }
+        // The even indexes of 0..1998 sum up to 999000.
+        assertEquals(999000, evenMicros);
+        assertEquals(1999, columns.tag(1999, "index"));
+        assertNull(columns.tag(1999, "missing"));
+        assertEquals(-1, columns.stringId("missing"));
+
+        // Other retentions are decoded into columns on demand.
+        MockTracer tracer = new MockTracer();
+        MockSpan span = tracer.buildSpan("span").withTag("key", "value").startManual();
+        span.finish();
+        columns = tracer.finishedSpanColumns();
+        assertEquals(1, columns.size());
+        assertEquals(span.context().spanId(), columns.spanId(0));
+        assertEquals("span", columns.operationName(0));
+        assertEquals("value", columns.tag(0, "key"));
+    }
+
+    @Test
+    public void stringTagValuesStayOutOfTheDictionary() {
+        for (int i = 0; i < 100; i++) {
+            tracer.buildSpan("span").withTag("user", "user-" + i).startManual().finish();
+        }
+        SpanColumns columns = tracer.finishedSpanColumns();
+        assertEquals("user-42", columns.tag(42, "user"));
+        assertEquals(-1, columns.stringId("user-42"));
+        assertEquals(0, columns.stringId("span"));
+
+        List<MockSpan> spans = tracer.finishedSpansWithTag("user", "user-42");
+        assertEquals(1, spans.size());
+        assertEquals("user-42", spans.get(0).tags().get("user"));
+        assertEquals(0, tracer.finishedSpansWithTag("user", "user-100").size());
+    }
+
+    @Test
+    public void concurrentAdds() throws InterruptedException {
+        final ColumnarSpanStore store = new ColumnarSpanStore(tracer);
+        MockTracer spanTracer = MockTracer.builder().withRetention(MockTracer.Retention.lastSpans(1)).build();
+        int threadCount = 4;
+        int perThread = 3 * ColumnarSpanStore.CHUNK_SIZE + 5;
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        Set<Long> spanIds = new HashSet<>();
+        for (int t = 0; t < threadCount; t++) {
+            final List<MockSpan> spans = new ArrayList<>(perThread);
+            for (int i = 0; i < perThread; i++) {
+                MockSpan span = spanTracer.buildSpan("span-" + (i % 50)).withTag("thread", t).startManual();
+                span.finish();
+                spans.add(span);
+                spanIds.add(span.context().spanId());
+            }
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                    for (MockSpan span : spans) {
+                        store.add(span);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        start.countDown();
+        // Readers may scan while adds are in progress.
+        for (int i = 0; i < 100; i++) {
+            assertTrue(store.columns().size() <= threadCount * perThread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        SpanColumns columns = store.columns();
+        assertEquals(threadCount * perThread, columns.size());
+        Set<Long> stored = new HashSet<>();
+        for (int row = 0; row < columns.size(); row++) {
+            stored.add(columns.spanId(row));
+            assertTrue(columns.operationName(row).startsWith("span-"));
+        }
+        assertEquals(spanIds, stored);
+        assertEquals(perThread, store.byTag("thread", 2).size());
+    }
+}
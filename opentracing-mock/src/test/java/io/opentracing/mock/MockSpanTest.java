@@ -17,6 +17,7 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import io.opentracing.Span;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * @author Pavol Loffay
@@ -78,4 +79,87 @@ public class MockSpanTest {
         }
         Assert.assertEquals(1, tracer.finishedSpans().get(0).generatedErrors().size());
     }
+
+    private static MockTracer confinedTracer() {
+        return MockTracer.builder().withConcurrency(MockTracer.Concurrency.CONFINED).build();
+    }
+
+    @Test
+    public void testConfinedSpan() {
+        MockTracer tracer = confinedTracer();
+        MockSpan span = tracer.buildSpan("foo").startManual();
+        span.setOperationName("bar");
+        span.setTag("tag", "value");
+        span.log("event");
+        span.setBaggageItem("baggage", "item");
+        span.finish();
+
+        MockSpan finished = tracer.finishedSpans().get(0);
+        Assert.assertEquals("bar", finished.operationName());
+        Assert.assertEquals("value", finished.tags().get("tag"));
+        Assert.assertEquals(1, finished.logEntries().size());
+        Assert.assertEquals("item", finished.getBaggageItem("baggage"));
+
+        try {
+            span.setTag("bar", "foo");
+            Assert.fail();
+        } catch (IllegalStateException ex) {
+        }
+        Assert.assertEquals(1, finished.generatedErrors().size());
+    }
+
+    @Test
+    public void testConfinedSpanHandedOver() throws InterruptedException {
+        MockTracer tracer = confinedTracer();
+        final MockSpan span = tracer.buildSpan("foo").startManual();
+        span.setTag("starter", true);
+        final AtomicReference<RuntimeException> error = new AtomicReference<>();
+        // Starting the thread hands the span over, and joining it hands the span back.
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    span.setTag("worker", true);
+                } catch (IllegalStateException ex) {
+                    error.set(ex);
+                }
+            }
+        });
+        thread.start();
+        thread.join();
+
+        Assert.assertNull(error.get());
+        span.finish();
+        Assert.assertEquals(2, tracer.finishedSpans().get(0).tags().size());
+    }
+
+    @Test
+    public void testConfinedSpanWrittenConcurrently() {
+        final AtomicReference<RuntimeException> error = new AtomicReference<>();
+        MockTracer tracer = new MockTracer(MockTracer.builder().withConcurrency(MockTracer.Concurrency.CONFINED)) {
+            @Override
+            protected void onSpanFinished(final MockSpan span) {
+                // Another thread writes the span while finish() is still in progress.
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        span.setTag("tag", "value");
+                    }
+                });
+                thread.start();
+                try {
+                    thread.join();
+                } catch (InterruptedException ex) {
+                    throw new AssertionError(ex);
+                }
+            }
+        };
+        MockSpan span = tracer.buildSpan("foo").startManual();
+        try {
+            span.finish();
+            Assert.fail();
+        } catch (IllegalStateException ex) {
+            Assert.assertTrue(ex.getMessage().contains("concurrently"));
+        }
+    }
 }
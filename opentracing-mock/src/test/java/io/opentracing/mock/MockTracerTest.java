@@ -22,9 +22,18 @@ import io.opentracing.Tracer;
 import io.opentracing.propagation.Format;
 import io.opentracing.propagation.TextMapExtractAdapter;
 import io.opentracing.propagation.TextMapInjectAdapter;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -209,4 +218,216 @@ public class MockTracerTest {
         mockTracer.reset();
         assertEquals(0, mockTracer.finishedSpans().size());
     }
+
+    @Test
+    public void testSequentialIds() {
+        MockTracer tracer = new MockTracer();
+        MockSpan first = tracer.buildSpan("first").startManual();
+        MockSpan second = tracer.buildSpan("second").startManual();
+        assertEquals(first.context().spanId() + 2, second.context().spanId());
+        assertEquals(0, first.context().traceIdHigh());
+    }
+
+    @Test
+    public void testThreadLocalBlockIds() throws InterruptedException {
+        final MockTracer tracer = MockTracer.builder().withIdGenerator(MockTracer.IdGenerator.THREAD_LOCAL_BLOCKS)
+                .build();
+        final int perThread = 3000;
+        final Set<Long> ids = Collections.synchronizedSet(new HashSet<Long>());
+        final AtomicInteger decreasing = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    long previous = 0;
+                    for (int i = 0; i < perThread; i++) {
+                        long spanId = tracer.buildSpan("span").startManual().context().spanId();
+                        if (spanId <= previous) {
+                            decreasing.incrementAndGet();
+                        }
+                        ids.add(spanId);
+                        previous = spanId;
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        // Unique across threads, increasing within each thread.
+        assertEquals(4 * perThread, ids.size());
+        assertEquals(0, decreasing.get());
+    }
+
+    @Test
+    public void testRandom128BitTraceIds() {
+        MockTracer tracer = MockTracer.builder().withPropagator(MockTracer.Propagator.TEXT_MAP)
+                .withIdGenerator(MockTracer.IdGenerator.RANDOM_128).build();
+        MockSpan parent = tracer.buildSpan("parent").startManual();
+        MockSpan.MockContext context = parent.context();
+        assertNotEquals(0, context.traceIdHigh());
+        assertNotEquals(0, context.spanId());
+        MockSpan child = tracer.buildSpan("child").asChildOf(parent).startManual();
+        assertEquals(context.traceIdHigh(), child.context().traceIdHigh());
+        assertEquals(context.traceId(), child.context().traceId());
+
+        Map<String, String> carrier = new HashMap<>();
+        tracer.inject(context, Format.Builtin.TEXT_MAP, new TextMapInjectAdapter(carrier));
+        MockSpan.MockContext extracted = (MockSpan.MockContext) tracer.extract(Format.Builtin.TEXT_MAP,
+                new TextMapExtractAdapter(carrier));
+        assertEquals(context.traceIdHigh(), extracted.traceIdHigh());
+        assertEquals(context.traceId(), extracted.traceId());
+        assertEquals(context.spanId(), extracted.spanId());
+    }
+
+    private static MockTracer newTracer(MockTracer.Clock clock) {
+        return MockTracer.builder().withClock(clock).build();
+    }
+
+    @Test
+    public void testClock() {
+        final AtomicLong nowMicros = new AtomicLong(1000);
+        MockTracer tracer = newTracer(new MockTracer.Clock() {
+            @Override
+            public long nowMicros() {
+                return nowMicros.getAndAdd(10);
+            }
+        });
+        MockSpan span = tracer.buildSpan("foo").startManual();
+        span.log("event");
+        span.finish();
+
+        assertEquals(1000, span.startMicros());
+        assertEquals(1010, span.logEntries().get(0).timestampMicros());
+        assertEquals(1020, span.finishMicros());
+    }
+
+    @Test
+    public void testMonotonicClock() {
+        MockTracer tracer = newTracer(MockTracer.Clock.MONOTONIC);
+        MockSpan span = tracer.buildSpan("foo").startManual();
+        long deadline = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(200);
+        while (System.nanoTime() < deadline) {
+            // A sub-millisecond span.
+        }
+        span.finish();
+        Assert.assertTrue(span.finishMicros() - span.startMicros() >= 200);
+
+        long previous = 0;
+        for (int i = 0; i < 10000; i++) {
+            long now = MockTracer.Clock.MONOTONIC.nowMicros();
+            Assert.assertTrue(now >= previous);
+            previous = now;
+        }
+    }
+
+    @Test
+    public void testCoarseClock() throws InterruptedException {
+        MockTracer tracer = MockTracer.builder().withClock(MockTracer.Clock.COARSE).build();
+        Assert.assertTrue(CoarseClock.isTicking());
+        long start = MockTracer.Clock.COARSE.nowMicros();
+        Assert.assertTrue(Math.abs(MockTracer.Clock.MONOTONIC.nowMicros() - start) < TimeUnit.SECONDS.toMicros(1));
+        Thread.sleep(50);
+        Assert.assertTrue(MockTracer.Clock.COARSE.nowMicros() > start);
+        Assert.assertTrue(tracer.buildSpan("span").startManual().startMicros() >= start);
+
+        // The ticker stops once no tracer uses it.
+        tracer = null;
+        for (int i = 0; i < 100 && CoarseClock.isTicking(); i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        Assert.assertFalse(CoarseClock.isTicking());
+        Assert.assertTrue(MockTracer.Clock.COARSE.nowMicros() > start);
+    }
+
+    @Test
+    public void testBuilder() {
+        MockTracer tracer = MockTracer.builder().withPropagator(MockTracer.Propagator.TEXT_MAP)
+                .withRetention(MockTracer.Retention.lastSpans(1)).build();
+        tracer.buildSpan("first").startManual().finish();
+        tracer.buildSpan("second").startManual().finish();
+        Assert.assertEquals(1, tracer.finishedSpans().size());
+        Assert.assertEquals(1, tracer.overwrittenSpans());
+
+        try {
+            MockTracer.builder().withClock(null);
+            Assert.fail();
+        } catch (NullPointerException expected) {
+        }
+    }
+
+    @Test
+    public void testBinaryPropagator() {
+        MockTracer tracer = MockTracer.builder().withPropagator(MockTracer.Propagator.BINARY)
+                .withIdGenerator(MockTracer.IdGenerator.RANDOM_128).build();
+        MockSpan span = tracer.buildSpan("span").startManual();
+        span.setBaggageItem("user", "alice");
+        span.setBaggageItem("city", "Z\u00fcrich \u6771\u4eac \ud83d\ude00");
+        span.setBaggageItem("session", null);
+        MockSpan.MockContext context = span.context();
+
+        for (ByteBuffer frame : new ByteBuffer[] {ByteBuffer.allocate(256), ByteBuffer.allocateDirect(256)}) {
+            // The context is framed between other data.
+            frame.putInt(42);
+            tracer.inject(context, Format.Builtin.BINARY, frame);
+            assertEquals(4 + BinaryPropagator.encodedSize(context), frame.position());
+            frame.putInt(43);
+            frame.flip();
+
+            assertEquals(42, frame.getInt());
+            MockSpan.MockContext extracted = (MockSpan.MockContext) tracer.extract(Format.Builtin.BINARY,
+                    frame.slice());
+            assertEquals(context.traceIdHigh(), extracted.traceIdHigh());
+            assertEquals(context.traceId(), extracted.traceId());
+            assertEquals(context.spanId(), extracted.spanId());
+            assertEquals("alice", extracted.getBaggageItem("user"));
+            assertEquals("Z\u00fcrich \u6771\u4eac \ud83d\ude00", extracted.getBaggageItem("city"));
+            // A null value, not the string "null".
+            Assert.assertNull(extracted.getBaggageItem("session"));
+            assertEquals(3, extracted.baggage().size());
+
+            MockSpan.MockContext inPlace = (MockSpan.MockContext) tracer.extract(Format.Builtin.BINARY, frame);
+            assertEquals(context.spanId(), inPlace.spanId());
+            assertEquals(43, frame.getInt());
+        }
+    }
+
+    @Test
+    public void testBinaryPropagatorErrors() {
+        MockTracer tracer = new MockTracer(MockTracer.Propagator.BINARY);
+        MockSpan span = tracer.buildSpan("span").startManual();
+        span.setBaggageItem("key", "value");
+        MockSpan.MockContext context = span.context();
+        Assert.assertNull(tracer.extract(Format.Builtin.BINARY, ByteBuffer.allocate(0)));
+
+        ByteBuffer small = ByteBuffer.allocate(BinaryPropagator.encodedSize(context) - 1);
+        try {
+            tracer.inject(context, Format.Builtin.BINARY, small);
+            Assert.fail();
+        } catch (BufferOverflowException expected) {
+        }
+        assertEquals(0, small.position());
+
+        ByteBuffer truncated = ByteBuffer.allocate(64);
+        tracer.inject(context, Format.Builtin.BINARY, truncated);
+        truncated.flip();
+        truncated.limit(truncated.limit() - 2);
+        try {
+            tracer.extract(Format.Builtin.BINARY, truncated);
+            Assert.fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals(0, truncated.position());
+
+        ByteBuffer unknownVersion = ByteBuffer.wrap(new byte[] {2, 1, 1, 1, 0});
+        try {
+            tracer.extract(Format.Builtin.BINARY, unknownVersion);
+            Assert.fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
 }
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.mock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+
+public class PersistentBaggageTest {
+
+    private static Map<String, String> toMap(PersistentBaggage baggage) {
+        Map<String, String> map = new HashMap<>();
+        for (Map.Entry<String, String> item : baggage) {
+            map.put(item.getKey(), item.getValue());
+        }
+        assertEquals(baggage.size(), map.size());
+        return map;
+    }
+
+    private static void assertContents(Map<String, String> expected, PersistentBaggage baggage) {
+        assertEquals(expected, toMap(baggage));
+        for (Map.Entry<String, String> item : expected.entrySet()) {
+            assertEquals(item.getValue(), baggage.get(item.getKey()));
+        }
+    }
+
+    @Test
+    public void smallAndLarge() {
+        Map<String, String> expected = new HashMap<>();
+        PersistentBaggage baggage = PersistentBaggage.EMPTY;
+        for (int i = 0; i < 2000; i++) {
+            baggage = baggage.with("key" + i, "value" + i);
+            expected.put("key" + i, "value" + i);
+            if (i < 2 * PersistentBaggage.MAX_ARRAY_SIZE || i % 100 == 0) {
+                assertContents(expected, baggage);
+            }
+        }
+        assertContents(expected, baggage);
+        assertNull(baggage.get("missing"));
+
+        // Replacing keeps the size.
+        for (int i = 0; i < 2000; i += 7) {
+            baggage = baggage.with("key" + i, "other" + i);
+            expected.put("key" + i, "other" + i);
+        }
+        assertContents(expected, baggage);
+    }
+
+    @Test
+    public void sharesWithoutChangingOriginal() {
+        PersistentBaggage parent = PersistentBaggage.EMPTY;
+        for (int i = 0; i < 20; i++) {
+            parent = parent.with("key" + i, "value" + i);
+        }
+        PersistentBaggage child = parent.with("key3", "changed").with("extra", "item");
+
+        assertEquals("value3", parent.get("key3"));
+        assertNull(parent.get("extra"));
+        assertEquals(20, parent.size());
+        assertEquals("changed", child.get("key3"));
+        assertEquals("item", child.get("extra"));
+        assertEquals(21, child.size());
+        assertSame(child, child.with("extra", "item"));
+    }
+
+    @Test
+    public void collidingHashes() {
+        // "Aa" and "BB" have the same hashCode, and so do their concatenations.
+        String[] keys = {"AaAa", "AaBB", "BBAa", "BBBB"};
+        PersistentBaggage baggage = PersistentBaggage.EMPTY;
+        Map<String, String> expected = new HashMap<>();
+        for (int i = 0; i < 3 * PersistentBaggage.MAX_ARRAY_SIZE; i++) {
+            baggage = baggage.with("filler" + i, "value");
+            expected.put("filler" + i, "value");
+        }
+        for (String key : keys) {
+            baggage = baggage.with(key, key.toLowerCase());
+            expected.put(key, key.toLowerCase());
+        }
+        assertContents(expected, baggage);
+
+        baggage = baggage.with("BBAa", "replaced");
+        expected.put("BBAa", "replaced");
+        assertContents(expected, baggage);
+    }
+
+    @Test
+    public void nullValues() {
+        PersistentBaggage baggage = PersistentBaggage.EMPTY.with("key", null);
+        assertEquals(1, baggage.size());
+        assertNull(baggage.get("key"));
+        assertEquals("value", baggage.with("key", "value").get("key"));
+    }
+
+    @Test
+    public void mockContextBaggage() {
+        Map<String, String> items = new HashMap<>();
+        items.put("a", "1");
+        MockSpan.MockContext context = new MockSpan.MockContext(1, 2, items);
+        items.put("b", "2");
+        MockSpan.MockContext child = context.withBaggageItem("c", "3");
+
+        assertNull(context.getBaggageItem("b"));
+        assertNull(context.getBaggageItem("c"));
+        assertEquals("1", child.getBaggageItem("a"));
+        assertEquals("3", child.getBaggageItem("c"));
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.mock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import org.junit.Test;
+
+public class RingSpanBufferTest {
+    private final MockTracer tracer = new MockTracer();
+
+    private List<MockSpan> newSpans(int count) {
+        List<MockSpan> spans = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            spans.add(tracer.buildSpan("span-" + i).startManual());
+        }
+        return spans;
+    }
+
+    @Test
+    public void keepsLastSpans() {
+        RingSpanBuffer buffer = new RingSpanBuffer(4, Long.MAX_VALUE);
+        List<MockSpan> spans = newSpans(10);
+        for (MockSpan span : spans.subList(0, 3)) {
+            buffer.add(span);
+        }
+        assertEquals(spans.subList(0, 3), buffer.toList());
+        assertEquals(0, buffer.overwritten());
+
+        for (MockSpan span : spans.subList(3, 10)) {
+            buffer.add(span);
+        }
+        assertEquals(spans.subList(6, 10), buffer.toList());
+        assertEquals(6, buffer.overwritten());
+    }
+
+    @Test
+    public void keepsSpansWithinByteBudget() {
+        List<MockSpan> spans = newSpans(10);
+        long size = spans.get(0).estimatedBytes();
+        RingSpanBuffer buffer = new RingSpanBuffer(8, 3 * size);
+        for (MockSpan span : spans) {
+            buffer.add(span);
+        }
+        assertEquals(spans.subList(7, 10), buffer.toList());
+        assertEquals(7, buffer.overwritten());
+        assertEquals(3 * size, buffer.bytes());
+    }
+
+    @Test
+    public void keepsNewestSpanOverByteBudget() {
+        List<MockSpan> spans = newSpans(2);
+        RingSpanBuffer buffer = new RingSpanBuffer(8, 1);
+        buffer.add(spans.get(0));
+        buffer.add(spans.get(1));
+        assertEquals(spans.subList(1, 2), buffer.toList());
+        assertEquals(1, buffer.overwritten());
+    }
+
+    @Test
+    public void estimatedBytesGrowWithTagsAndLogs() {
+        MockSpan span = tracer.buildSpan("span").startManual();
+        long empty = span.estimatedBytes();
+        span.setTag("key", "value");
+        long tagged = span.estimatedBytes();
+        assertTrue(tagged > empty);
+        span.log("event");
+        assertTrue(span.estimatedBytes() > tagged);
+    }
+
+    @Test
+    public void concurrentAdds() throws InterruptedException {
+        final int threadCount = 8;
+        final int perThread = 10000;
+        final int capacity = 1000;
+        final RingSpanBuffer buffer = new RingSpanBuffer(capacity, Long.MAX_VALUE);
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            final List<MockSpan> spans = newSpans(perThread);
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                    for (MockSpan span : spans) {
+                        buffer.add(span);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        start.countDown();
+        // Readers may copy while adds and evictions are in progress.
+        for (int i = 0; i < 100; i++) {
+            assertTrue(buffer.toList().size() <= capacity);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(capacity, buffer.toList().size());
+        assertEquals(threadCount * perThread - capacity, buffer.overwritten());
+    }
+
+    @Test
+    public void tracerRetention() {
+        MockTracer tracer = MockTracer.builder().withRetention(MockTracer.Retention.lastSpans(2)).build();
+        List<MockSpan> spans = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            MockSpan span = tracer.buildSpan("span-" + i).startManual();
+            span.finish();
+            spans.add(span);
+        }
+        assertEquals(spans.subList(3, 5), tracer.finishedSpans());
+        assertEquals(3, tracer.overwrittenSpans());
+
+        tracer.reset();
+        assertTrue(tracer.finishedSpans().isEmpty());
+        assertEquals(0, tracer.overwrittenSpans());
+        MockSpan span = tracer.buildSpan("after-reset").startManual();
+        span.finish();
+        assertSame(span, tracer.finishedSpans().get(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyRetention() {
+        MockTracer.Retention.lastSpans(0);
+    }
+}
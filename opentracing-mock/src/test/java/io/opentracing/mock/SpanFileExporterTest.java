@@ -0,0 +1,223 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.mock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SpanFileExporterTest {
+    private Path file;
+
+    @Before
+    public void createFile() throws IOException {
+        file = Files.createTempFile("spans", ".out");
+    }
+
+    @After
+    public void deleteFile() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    private static MockTracer exportingTracer(final SpanFileExporter exporter) {
+        return new MockTracer(MockTracer.builder().withRetention(MockTracer.Retention.lastSpans(1))) {
+            @Override
+            protected void onSpanFinished(MockSpan span) {
+                exporter.export(span);
+            }
+        };
+    }
+
+    @Test
+    public void exportsNdjson() throws IOException {
+        SpanFileExporter exporter = new SpanFileExporter(file, SpanFileExporter.Format.NDJSON, 16,
+                SpanFileExporter.Fsync.ON_CLOSE);
+        MockTracer tracer = exportingTracer(exporter);
+        MockSpan parent = tracer.buildSpan("parent").withStartTimestamp(1000).startManual();
+        parent.setBaggageItem("user", "x");
+        MockSpan child = tracer.buildSpan("child \"quoted\"\n").asChildOf(parent).withStartTimestamp(1100)
+                .startManual();
+        child.setTag("ok", true);
+        child.setTag("count", 3);
+        child.log(1200, "event");
+        child.finish(1300);
+        parent.finish(2000);
+        exporter.close();
+
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        assertEquals(2, lines.size());
+        assertEquals(2, exporter.exportedSpans());
+        assertEquals("{\"traceId\":" + child.context().traceId() + ",\"spanId\":" + child.context().spanId()
+                + ",\"parentId\":" + parent.context().spanId() + ",\"operationName\":\"child \\\"quoted\\\"\\n\""
+                + ",\"startMicros\":1100,\"finishMicros\":1300,\"tags\":{\"count\":3,\"ok\":true}"
+                + ",\"logs\":[{\"timestampMicros\":1200,\"fields\":{\"event\":\"event\"}}]"
+                + ",\"baggage\":{\"user\":\"x\"}}", lines.get(0));
+        assertTrue(lines.get(1).contains("\"operationName\":\"parent\""));
+    }
+
+    @Test
+    public void exportsBinary() throws IOException {
+        SpanFileExporter exporter = new SpanFileExporter(file, SpanFileExporter.Format.BINARY, 4,
+                SpanFileExporter.Fsync.EVERY_BATCH);
+        MockTracer tracer = exportingTracer(exporter);
+        int count = 1000;
+        for (int i = 0; i < count; i++) {
+            MockSpan span = tracer.buildSpan("span-" + i).withStartTimestamp(1000 + i).startManual();
+            span.setTag("index", i);
+            span.finish(2000 + i);
+        }
+        exporter.close();
+
+        ByteBuffer input = ByteBuffer.wrap(Files.readAllBytes(file));
+        for (int i = 0; i < count; i++) {
+            int length = input.getInt();
+            int end = input.position() + length;
+            assertEquals(0, Varints.read(input));
+            Varints.read(input);
+            Varints.read(input);
+            assertEquals(0, Varints.read(input));
+            assertEquals(1000 + i, Varints.read(input));
+            assertEquals(2000 + i, Varints.read(input));
+            assertEquals("span-" + i, SpanJournalReader.readValue(input));
+            assertEquals(1, Varints.read(input));
+            input.position(end);
+        }
+        assertEquals(0, input.remaining());
+        assertEquals(count, exporter.exportedSpans());
+    }
+
+    @Test
+    public void binaryRoundTrip() throws IOException {
+        SpanFileExporter exporter = new SpanFileExporter(file, SpanFileExporter.Format.BINARY, 4,
+                SpanFileExporter.Fsync.NEVER);
+        MockTracer tracer = exportingTracer(exporter);
+        MockSpan parent = tracer.buildSpan(null).withStartTimestamp(1000).startManual();
+        parent.setBaggageItem("user", "Z\u00fcrich");
+        MockSpan span = tracer.buildSpan("child").asChildOf(parent).withStartTimestamp(1100).startManual();
+        span.setTag("string", "value");
+        span.setTag("null", (String) null);
+        span.setTag("ok", true);
+        span.setTag("count", 3);
+        span.setTag("ratio", 0.5);
+        span.log(1200, Collections.singletonMap("event", "e"));
+        span.finish(1300);
+        parent.finish(2000);
+        exporter.close();
+
+        ByteBuffer input = ByteBuffer.wrap(Files.readAllBytes(file));
+        input.getInt();
+        MockSpan.MockContext context = span.context();
+        assertEquals(context.traceIdHigh(), Varints.read(input));
+        assertEquals(context.traceId(), Varints.read(input));
+        assertEquals(context.spanId(), Varints.read(input));
+        assertEquals(span.parentId(), Varints.read(input));
+        assertEquals(1100, Varints.read(input));
+        assertEquals(1300, Varints.read(input));
+        assertEquals("child", SpanJournalReader.readValue(input));
+        Map<String, Object> tags = new HashMap<>();
+        for (long i = Varints.read(input); i > 0; i--) {
+            tags.put(SpanJournalReader.readString(input), SpanJournalReader.readValue(input));
+        }
+        Map<String, Object> expected = new HashMap<>();
+        expected.put("string", "value");
+        expected.put("null", null);
+        expected.put("ok", true);
+        expected.put("count", 3);
+        expected.put("ratio", 0.5);
+        assertEquals(expected, tags);
+        assertEquals(1, Varints.read(input));
+        assertEquals(1200, Varints.read(input));
+        assertEquals(1, Varints.read(input));
+        assertEquals("event", SpanJournalReader.readString(input));
+        assertEquals("e", SpanJournalReader.readValue(input));
+        assertEquals(1, Varints.read(input));
+        assertEquals("user", SpanJournalReader.readString(input));
+        assertEquals("Z\u00fcrich", SpanJournalReader.readValue(input));
+
+        // The parent has no operation name, which is a null value, as in NDJSON.
+        input.getInt();
+        for (int i = 0; i < 6; i++) {
+            Varints.read(input);
+        }
+        assertNull(SpanJournalReader.readValue(input));
+    }
+
+    @Test
+    public void exportsNullOperationNameAsNdjsonNull() throws IOException {
+        SpanFileExporter exporter = new SpanFileExporter(file, SpanFileExporter.Format.NDJSON, 1,
+                SpanFileExporter.Fsync.NEVER);
+        exportingTracer(exporter).buildSpan(null).startManual().finish();
+        exporter.close();
+
+        assertTrue(Files.readAllLines(file, StandardCharsets.UTF_8).get(0).contains("\"operationName\":null,"));
+    }
+
+    @Test
+    public void exportFailsAfterWriterFailure() throws IOException {
+        SpanFileExporter exporter = new SpanFileExporter(file, SpanFileExporter.Format.NDJSON, 1,
+                SpanFileExporter.Fsync.NEVER);
+        MockTracer tracer = exportingTracer(exporter);
+        MockSpan poison = tracer.buildSpan("poison").startManual();
+        poison.setTag("value", new BigDecimal(1) {
+            @Override
+            public String toString() {
+                throw new UnsupportedOperationException("Cannot encode");
+            }
+        });
+        poison.finish();
+
+        // Finishing threads, including those that were waiting for room, fail rather than drop their spans.
+        long deadline = System.currentTimeMillis() + 10000;
+        int failures = 0;
+        while (failures < 3 && System.currentTimeMillis() < deadline) {
+            try {
+                tracer.buildSpan("after").startManual().finish();
+            } catch (IllegalStateException expected) {
+                assertTrue(expected.getCause() instanceof UnsupportedOperationException);
+                failures++;
+            }
+        }
+        assertEquals(3, failures);
+        try {
+            exporter.close();
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void exportAfterClose() throws IOException {
+        SpanFileExporter exporter = new SpanFileExporter(file, SpanFileExporter.Format.NDJSON, 1,
+                SpanFileExporter.Fsync.NEVER);
+        exporter.close();
+        // Closing twice is fine.
+        exporter.close();
+        exporter.export(new MockTracer().buildSpan("late").startManual());
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.mock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+public class SpanIndexTest {
+    private static MockTracer newTracer(MockTracer.Retention retention) {
+        return MockTracer.builder().withRetention(retention).build();
+    }
+
+    private static MockSpan finish(MockTracer tracer, String operationName, MockSpan parent, String db) {
+        MockTracer.SpanBuilder builder = tracer.buildSpan(operationName);
+        if (parent != null) {
+            builder.asChildOf(parent);
+        }
+        MockSpan span = builder.startManual();
+        if (db != null) {
+            span.setTag("db.type", db);
+        }
+        span.finish();
+        return span;
+    }
+
+    @Test
+    public void queriesByTraceIdAndOperationName() {
+        queriesByTraceIdAndOperationName(new MockTracer());
+        queriesByTraceIdAndOperationName(newTracer(MockTracer.Retention.unbounded().withIndexes()));
+        queriesByTraceIdAndOperationName(newTracer(MockTracer.Retention.lastSpans(10).withIndexes()));
+    }
+
+    private static void queriesByTraceIdAndOperationName(MockTracer tracer) {
+        MockSpan root = tracer.buildSpan("root").startManual();
+        MockSpan query = finish(tracer, "db.query", root, "sql");
+        MockSpan other = finish(tracer, "db.query", null, "sql");
+        root.finish();
+
+        assertEquals(Arrays.asList(query, root), tracer.finishedSpansOfTrace(root.context().traceId()));
+        assertEquals(Collections.singletonList(other), tracer.finishedSpansOfTrace(other.context().traceId()));
+        assertEquals(Arrays.asList(query, other), tracer.finishedSpansWithOperationName("db.query"));
+        assertTrue(tracer.finishedSpansWithOperationName("missing").isEmpty());
+
+        tracer.reset();
+        assertTrue(tracer.finishedSpansWithOperationName("db.query").isEmpty());
+    }
+
+    @Test
+    public void queriesByTag() {
+        MockTracer tracer = newTracer(MockTracer.Retention.unbounded().withIndexedTags("db.type"));
+        MockSpan sql = finish(tracer, "query", null, "sql");
+        finish(tracer, "query", null, "redis");
+        finish(tracer, "query", null, null);
+
+        assertEquals(Collections.singletonList(sql), tracer.finishedSpansWithTag("db.type", "sql"));
+        assertTrue(tracer.finishedSpansWithTag("db.type", "cassandra").isEmpty());
+    }
+
+    @Test
+    public void queriesByTagWithoutIndex() {
+        MockTracer tracer = new MockTracer();
+        MockSpan sql = finish(tracer, "query", null, "sql");
+        finish(tracer, "query", null, "redis");
+
+        assertEquals(Collections.singletonList(sql), tracer.finishedSpansWithTag("db.type", "sql"));
+    }
+
+    @Test
+    public void evictedSpansLeaveIndexes() {
+        MockTracer.Retention retention = MockTracer.Retention.lastSpans(2).withIndexedTags("db.type");
+        assertEquals("Retention{maxSpans=2, indexedTags=[db.type]}", retention.toString());
+        MockTracer tracer = newTracer(retention);
+        MockSpan first = finish(tracer, "first", null, "sql");
+        MockSpan second = finish(tracer, "query", null, "sql");
+        MockSpan third = finish(tracer, "query", null, "sql");
+
+        assertTrue(tracer.finishedSpansOfTrace(first.context().traceId()).isEmpty());
+        assertTrue(tracer.finishedSpansWithOperationName("first").isEmpty());
+        List<MockSpan> retained = Arrays.asList(second, third);
+        assertEquals(retained, tracer.finishedSpansWithOperationName("query"));
+        assertEquals(retained, tracer.finishedSpansWithTag("db.type", "sql"));
+
+        // A new span with an evicted key is indexed again.
+        MockSpan fourth = finish(tracer, "first", null, "sql");
+        assertEquals(Collections.singletonList(fourth), tracer.finishedSpansWithOperationName("first"));
+    }
+
+    @Test
+    public void queriesByNullOperationName() {
+        for (MockTracer tracer : Arrays.asList(new MockTracer(),
+                newTracer(MockTracer.Retention.lastSpans(2).withIndexes()))) {
+            MockSpan unnamed = finish(tracer, null, null, null);
+            finish(tracer, "named", null, null);
+
+            assertEquals(Collections.singletonList(unnamed), tracer.finishedSpansWithOperationName(null));
+            assertEquals(2, tracer.finishedSpans().size());
+        }
+    }
+
+    @Test
+    public void queriesByNullTagValue() {
+        for (MockTracer tracer : Arrays.asList(new MockTracer(),
+                newTracer(MockTracer.Retention.unbounded().withIndexedTags("db.type")))) {
+            finish(tracer, "query", null, "sql");
+            MockSpan untagged = finish(tracer, "query", null, null);
+
+            assertEquals(Collections.singletonList(untagged), tracer.finishedSpansWithTag("db.type", null));
+        }
+    }
+
+    @Test
+    public void concurrentFinishesAndEvictions() throws InterruptedException {
+        final MockTracer tracer = newTracer(MockTracer.Retention.lastSpans(100).withIndexedTags("db.type"));
+        final int spansPerThread = 10000;
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            final String db = "db" + (i % 2);
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < spansPerThread; j++) {
+                        finish(tracer, "query" + (j % 3), null, db);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        List<MockSpan> retained = tracer.finishedSpans();
+        assertEquals(100, retained.size());
+        int indexed = 0;
+        for (int i = 0; i < 3; i++) {
+            List<MockSpan> spans = tracer.finishedSpansWithOperationName("query" + i);
+            assertTrue(retained.containsAll(spans));
+            indexed += spans.size();
+        }
+        assertEquals(100, indexed);
+        assertEquals(100, tracer.finishedSpansWithTag("db.type", "db0").size()
+                + tracer.finishedSpansWithTag("db.type", "db1").size());
+        for (MockSpan span : retained) {
+            assertEquals(Collections.singletonList(span), tracer.finishedSpansOfTrace(span.context().traceId()));
+        }
+    }
+}
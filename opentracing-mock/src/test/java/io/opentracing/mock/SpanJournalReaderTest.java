@@ -0,0 +1,205 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.mock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SpanJournalReaderTest {
+    private static final long EPOCH = 1000;
+
+    private Path directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("journal");
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    private static MockTracer journalingTracer(final SpanJournal journal) {
+        return new MockTracer(MockTracer.builder()) {
+            @Override
+            protected void onSpanFinished(MockSpan span) {
+                journal.append(span);
+            }
+        };
+    }
+
+    private static Map<Long, MockSpan> bySpanId(List<MockSpan> spans) {
+        Map<Long, MockSpan> bySpanId = new HashMap<>();
+        for (MockSpan span : spans) {
+            bySpanId.put(span.context().spanId(), span);
+        }
+        return bySpanId;
+    }
+
+    @Test
+    public void testReplay() throws IOException {
+        SpanJournal journal = new SpanJournal(directory, 1024);
+        MockTracer tracer = journalingTracer(journal);
+        for (int i = 0; i < 20; i++) {
+            MockSpan parent = tracer.buildSpan("request").withStartTimestamp(EPOCH + i).startManual();
+            parent.setBaggageItem("user", "u" + i);
+            MockSpan child = tracer.buildSpan("query").asChildOf(parent).withStartTimestamp(EPOCH + i + 1)
+                    .withTag("db.statement", "select " + i)
+                    .withTag("retry", i % 2 == 0)
+                    .withTag("rows", i)
+                    .withTag("cost", i / 4.0)
+                    .withTag("ratio", i / 8.0f)
+                    .withTag("size", (short) i)
+                    .startManual();
+            Map<String, Object> fields = new HashMap<>();
+            fields.put("event", "fetched");
+            fields.put("bytes", 100L * i);
+            child.log(EPOCH + i + 2, fields);
+            child.finish(EPOCH + i + 3);
+            parent.finish(EPOCH + i + 4);
+        }
+        journal.close();
+        assertTrue(journal.segmentFiles().size() > 1);
+
+        MockTracer replayed = new MockTracer(MockTracer.Propagator.PRINTER);
+        assertEquals(40, SpanJournalReader.replay(directory, replayed, 3));
+
+        Map<Long, MockSpan> expected = bySpanId(tracer.finishedSpans());
+        Map<Long, MockSpan> actual = bySpanId(replayed.finishedSpans());
+        assertEquals(expected.keySet(), actual.keySet());
+        for (MockSpan span : expected.values()) {
+            MockSpan replay = actual.get(span.context().spanId());
+            assertEquals(span.context().traceId(), replay.context().traceId());
+            assertEquals(span.parentId(), replay.parentId());
+            assertEquals(span.operationName(), replay.operationName());
+            assertEquals(span.startMicros(), replay.startMicros());
+            assertEquals(span.finishMicros(), replay.finishMicros());
+            assertEquals(span.getBaggageItem("user"), replay.getBaggageItem("user"));
+            assertEquals(span.logEntries().size(), replay.logEntries().size());
+            for (int i = 0; i < span.logEntries().size(); i++) {
+                assertEquals(span.logEntries().get(i).timestampMicros(),
+                        replay.logEntries().get(i).timestampMicros());
+                assertEquals(span.logEntries().get(i).fields(), replay.logEntries().get(i).fields());
+            }
+        }
+        MockSpan query = replayed.finishedSpansWithOperationName("query").get(0);
+        MockSpan original = expected.get(query.context().spanId());
+        Map<String, Object> tags = original.tags();
+        // Shorts are widened to Longs.
+        tags.put("size", ((Number) tags.get("size")).longValue());
+        assertEquals(tags, query.tags());
+
+        List<MockSpan> trace = replayed.finishedSpansOfTrace(query.context().traceId());
+        assertEquals(2, trace.size());
+        List<TraceTree> trees = TraceTree.build(trace);
+        assertEquals(1, trees.size());
+        TraceTree tree = trees.get(0);
+        assertEquals(1, tree.roots().size());
+        assertEquals(4, tree.roots().get(0).durationMicros());
+        assertEquals(1, tree.roots().get(0).children().size());
+    }
+
+    @Test
+    public void testReplaySkipsUnfinishedRecords() throws IOException {
+        SpanJournal journal = new SpanJournal(directory, 4096);
+        MockTracer tracer = journalingTracer(journal);
+        tracer.buildSpan("complete").startManual().finish();
+        tracer.buildSpan("torn").startManual().finish();
+        journal.close();
+
+        // Reset the type byte of the last record, as if the process had died while writing it.
+        Path segment = journal.segmentFiles().get(0);
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(segment));
+        buffer.position(SpanJournal.SEGMENT_HEADER_BYTES);
+        int last = -1;
+        while (buffer.remaining() >= SpanJournal.RECORD_HEADER_BYTES) {
+            int length = buffer.getInt(buffer.position());
+            if (length == 0) {
+                break;
+            }
+            last = buffer.position();
+            buffer.position(last + SpanJournal.RECORD_HEADER_BYTES + length);
+        }
+        buffer.put(last + 4, SpanJournal.UNCOMMITTED);
+        Files.write(segment, buffer.array());
+
+        MockTracer replayed = new MockTracer(MockTracer.Propagator.PRINTER);
+        assertEquals(1, SpanJournalReader.replay(journal.segmentFiles(), replayed, 1));
+        assertEquals("complete", replayed.finishedSpans().get(0).operationName());
+    }
+
+    @Test
+    public void testReplayRejectsOtherFiles() throws IOException {
+        Path file = directory.resolve("spans-000000.journal");
+        Files.write(file, new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+        List<Path> segments = new ArrayList<>();
+        segments.add(file);
+        try {
+            SpanJournalReader.replay(segments, new MockTracer(MockTracer.Propagator.PRINTER), 2);
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void testReplayNoSegments() throws IOException {
+        MockTracer replayed = new MockTracer(MockTracer.Propagator.PRINTER);
+        assertEquals(0, SpanJournalReader.replay(new ArrayList<Path>(), replayed, 4));
+        assertTrue(replayed.finishedSpans().isEmpty());
+    }
+
+    @Test
+    public void testReplayNulls() throws IOException {
+        SpanJournal journal = new SpanJournal(directory, 1024);
+        MockTracer tracer = journalingTracer(journal);
+        MockSpan span = tracer.buildSpan(null).startManual();
+        span.setBaggageItem("user", null);
+        span.setBaggageItem("tenant", "t1");
+        span.finish();
+        journal.close();
+
+        MockTracer replayed = new MockTracer(MockTracer.Propagator.PRINTER);
+        assertEquals(1, SpanJournalReader.replay(journal.segmentFiles(), replayed, 1));
+        MockSpan replayedSpan = replayed.finishedSpans().get(0);
+        assertNull(replayedSpan.operationName());
+        assertNull(replayedSpan.getBaggageItem("user"));
+        assertEquals("t1", replayedSpan.getBaggageItem("tenant"));
+        int items = 0;
+        for (Map.Entry<String, String> item : replayedSpan.context().baggageItems()) {
+            items++;
+        }
+        assertEquals(2, items);
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.mock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SpanJournalTest {
+    private Path directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("journal");
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    private static MockTracer journalingTracer(final SpanJournal journal) {
+        return new MockTracer(MockTracer.builder().withRetention(MockTracer.Retention.lastSpans(1))) {
+            @Override
+            protected void onSpanFinished(MockSpan span) {
+                journal.append(span);
+            }
+        };
+    }
+
+    /**
+     * @return the operation names and span ids of the span records of the segment, checking their strings are
+     * defined before they are used
+     */
+    private static List<String> readSpans(Path segment) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(segment));
+        assertEquals(SpanJournal.MAGIC, buffer.getInt());
+        assertEquals(SpanJournal.VERSION, buffer.getInt());
+        Map<Long, String> strings = new HashMap<>();
+        List<String> spans = new ArrayList<>();
+        while (buffer.remaining() >= SpanJournal.RECORD_HEADER_BYTES) {
+            int length = buffer.getInt();
+            if (length == 0) {
+                break;
+            }
+            byte type = buffer.get();
+            ByteBuffer payload = buffer.slice();
+            payload.limit(length);
+            buffer.position(buffer.position() + length);
+            if (type == SpanJournal.STRING) {
+                long id = Varints.read(payload);
+                strings.put(id, Utf8.decode(payload, (int) Varints.read(payload)));
+            } else if (type != SpanJournal.UNCOMMITTED) {
+                assertEquals(SpanJournal.SPAN, type);
+                Varints.read(payload);
+                Varints.read(payload);
+                long spanId = Varints.read(payload);
+                for (int i = 0; i < 3; i++) {
+                    Varints.read(payload);
+                }
+                String operationName = strings.get(Varints.read(payload));
+                assertTrue(operationName != null);
+                long tagCount = Varints.read(payload);
+                for (int i = 0; i < tagCount; i++) {
+                    assertTrue(strings.containsKey(Varints.read(payload)));
+                    assertEquals(SpanJournal.INT_VALUE, payload.get());
+                    Varints.read(payload);
+                }
+                spans.add(operationName + ":" + spanId);
+            }
+        }
+        return spans;
+    }
+
+    @Test
+    public void concurrentAppendsAcrossSegments() throws Exception {
+        final SpanJournal journal = new SpanJournal(directory, 16 * 1024);
+        final MockTracer tracer = journalingTracer(journal);
+        final int threadCount = 4;
+        final int perThread = 2000;
+        final Set<String> expected = Collections.synchronizedSet(new HashSet<String>());
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            final String operationName = "operation-" + t;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        MockSpan span = tracer.buildSpan(operationName).startManual();
+                        span.setTag("index", i);
+                        span.finish();
+                        expected.add(operationName + ":" + span.context().spanId());
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        journal.close();
+
+        assertEquals(threadCount * perThread, journal.appendedSpans());
+        assertTrue(journal.segmentFiles().size() > 1);
+        Set<String> recorded = new HashSet<>();
+        for (Path segment : journal.segmentFiles()) {
+            recorded.addAll(readSpans(segment));
+        }
+        assertEquals(expected, recorded);
+    }
+
+    @Test
+    public void appendsToPreallocatedSegment() throws IOException {
+        SpanJournal journal = new SpanJournal(directory, 1024 * 1024);
+        MockTracer tracer = journalingTracer(journal);
+        for (int i = 0; i < 100; i++) {
+            tracer.buildSpan("same").startManual().finish();
+        }
+        journal.close();
+
+        long size = Files.size(journal.segmentFiles().get(0));
+        assertEquals(1024 * 1024, size);
+        assertEquals(100, readSpans(journal.segmentFiles().get(0)).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void spanTooLarge() throws IOException {
+        SpanJournal journal = new SpanJournal(directory, 1024);
+        MockSpan span = new MockTracer().buildSpan("large").startManual();
+        span.setTag("value", new String(new char[2048]).replace('\0', 'x'));
+        span.finish();
+        journal.append(span);
+    }
+
+    @Test
+    public void recordsAfterUncommittedRecord() throws IOException {
+        SpanJournal journal = new SpanJournal(directory, 4096);
+        MockTracer tracer = journalingTracer(journal);
+        MockSpan first = tracer.buildSpan("span").startManual();
+        first.finish();
+        MockSpan torn = tracer.buildSpan("span").startManual();
+        torn.finish();
+        MockSpan last = tracer.buildSpan("span").startManual();
+        last.finish();
+        journal.close();
+
+        // Clear the payload and type byte of the second span record, as if the process had died right after
+        // reserving it, while the third one was written by another thread.
+        Path segment = journal.segmentFiles().get(0);
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(segment));
+        int offset = SpanJournal.SEGMENT_HEADER_BYTES;
+        int spanRecords = 0;
+        for (;;) {
+            int length = buffer.getInt(offset);
+            if (buffer.get(offset + 4) == SpanJournal.SPAN && ++spanRecords == 2) {
+                for (int i = offset + 4; i < offset + SpanJournal.RECORD_HEADER_BYTES + length; i++) {
+                    buffer.put(i, (byte) 0);
+                }
+                break;
+            }
+            offset += SpanJournal.RECORD_HEADER_BYTES + length;
+        }
+        Files.write(segment, buffer.array());
+
+        assertEquals(Arrays.asList("span:" + first.context().spanId(), "span:" + last.context().spanId()),
+                readSpans(segment));
+        MockTracer replayed = new MockTracer();
+        assertEquals(2, SpanJournalReader.replay(journal.segmentFiles(), replayed, 1));
+        assertEquals(last.context().spanId(), replayed.finishedSpans().get(1).context().spanId());
+    }
+
+    @Test
+    public void spanThatFitsAnEmptySegmentRollsOver() throws IOException {
+        SpanJournal journal = new SpanJournal(directory, 1024);
+        MockTracer tracer = journalingTracer(journal);
+        String value = new String(new char[600]).replace('\0', 'x');
+        for (int i = 0; i < 3; i++) {
+            MockSpan span = tracer.buildSpan("large").startManual();
+            span.setTag("value", value);
+            span.finish();
+        }
+        journal.close();
+
+        assertEquals(3, journal.appendedSpans());
+        assertEquals(3, journal.segmentFiles().size());
+    }
+
+    @Test
+    public void nullOperationNameAndBaggageValue() throws IOException {
+        SpanJournal journal = new SpanJournal(directory, 1024);
+        MockSpan span = new MockTracer().buildSpan(null).startManual();
+        span.setBaggageItem("key", null);
+        span.finish();
+        journal.append(span);
+        journal.close();
+
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(journal.segmentFiles().get(0)));
+        buffer.position(SpanJournal.SEGMENT_HEADER_BYTES + 4);
+        // No strings to define: the span record comes first.
+        assertEquals(SpanJournal.SPAN, buffer.get());
+        for (int i = 0; i < 6; i++) {
+            Varints.read(buffer);
+        }
+        assertEquals(SpanJournal.NULL_STRING_ID, Varints.read(buffer));
+        assertEquals(0, Varints.read(buffer));
+        assertEquals(0, Varints.read(buffer));
+        assertEquals(1, Varints.read(buffer));
+        assertEquals("key", SpanJournalReader.readString(buffer));
+        assertEquals(SpanJournal.NULL_VALUE, buffer.get());
+    }
+}
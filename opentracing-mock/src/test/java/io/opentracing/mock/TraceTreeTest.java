@@ -0,0 +1,137 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.mock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+public class TraceTreeTest {
+    // Timestamps are relative to this, as MockTracer replaces a start timestamp of 0 with the current time.
+    private static final long EPOCH = 1000;
+
+    private final MockTracer tracer = new MockTracer();
+
+    private MockSpan span(String operationName, MockSpan parent, long startMicros, long finishMicros) {
+        MockTracer.SpanBuilder builder = tracer.buildSpan(operationName).withStartTimestamp(EPOCH + startMicros);
+        if (parent != null) {
+            builder.asChildOf(parent);
+        }
+        MockSpan span = builder.startManual();
+        span.finish(EPOCH + finishMicros);
+        return span;
+    }
+
+    private static String path(List<TraceTree.Segment> segments) {
+        List<String> names = new ArrayList<>();
+        for (TraceTree.Segment segment : segments) {
+            names.add(segment.node().span().operationName() + ": "
+                    + (segment.startMicros() - EPOCH) + "-" + (segment.finishMicros() - EPOCH));
+        }
+        return names.toString();
+    }
+
+    @Test
+    public void buildsTrees() {
+        MockSpan root = span("root", null, 0, 100);
+        MockSpan child = span("child", root, 10, 20);
+        MockSpan grandChild = span("grandChild", child, 12, 18);
+        MockSpan other = span("other", null, 0, 10);
+
+        List<TraceTree> trees = TraceTree.build(Arrays.asList(grandChild, child, other, root));
+        assertEquals(2, trees.size());
+        TraceTree tree = trees.get(0);
+        assertEquals(root.context().traceId(), tree.traceId());
+        assertEquals(1, tree.roots().size());
+        TraceTree.Node rootNode = tree.roots().get(0);
+        assertSame(root, rootNode.span());
+        assertNull(rootNode.parent());
+        assertSame(child, rootNode.children().get(0).span());
+        assertSame(grandChild, tree.node(child.context().spanId()).children().get(0).span());
+        assertEquals(3, tree.nodes().size());
+        assertSame(other, trees.get(1).roots().get(0).span());
+    }
+
+    @Test
+    public void spansWithoutFinishedParentAreRoots() {
+        MockSpan root = tracer.buildSpan("root").startManual();
+        MockSpan first = span("first", root, 0, 10);
+        MockSpan second = span("second", root, 10, 20);
+
+        TraceTree tree = TraceTree.build(tracer.finishedSpans()).get(0);
+        assertEquals(2, tree.roots().size());
+        assertSame(first, tree.roots().get(0).span());
+        assertSame(second, tree.roots().get(1).span());
+    }
+
+    @Test
+    public void analyzesCriticalPathSelfTimeAndParallelism() {
+        MockSpan root = span("root", null, 0, 100);
+        MockSpan a = span("a", root, 10, 40);
+        MockSpan b = span("b", root, 20, 70);
+        span("c", b, 50, 60);
+        MockSpan d = span("d", root, 80, 90);
+
+        TraceTree tree = TraceTree.build(tracer.finishedSpans()).get(0);
+        TraceTree.Node rootNode = tree.node(root.context().spanId());
+        assertEquals("[root: 0-10, a: 10-20, b: 20-50, c: 50-60, b: 60-70, root: 70-80, d: 80-90, root: 90-100]", path(rootNode.criticalPath()));
+
+        assertEquals(30, rootNode.selfMicros());
+        assertEquals(30, rootNode.criticalPathMicros());
+        assertEquals(90.0 / 70, rootNode.parallelism(), 1e-9);
+
+        TraceTree.Node bNode = tree.node(b.context().spanId());
+        assertEquals(40, bNode.selfMicros());
+        assertEquals(40, bNode.criticalPathMicros());
+        assertEquals(1.0, bNode.parallelism(), 1e-9);
+
+        assertEquals(10, tree.node(a.context().spanId()).criticalPathMicros());
+        assertEquals(0, tree.node(d.context().spanId()).parallelism(), 1e-9);
+    }
+
+    @Test
+    public void clipsChildrenToParent() {
+        MockSpan root = span("root", null, 10, 20);
+        span("early", root, 0, 15);
+        span("late", root, 18, 30);
+
+        TraceTree.Node rootNode = TraceTree.build(tracer.finishedSpans()).get(0).roots().get(0);
+        assertEquals("[early: 10-15, root: 15-18, late: 18-20]", path(rootNode.criticalPath()));
+        assertEquals(3, rootNode.selfMicros());
+    }
+
+    @Test
+    public void analyzesDeepTraces() {
+        int depth = 100000;
+        List<MockSpan> spans = new ArrayList<>(depth);
+        MockSpan parent = null;
+        for (int i = 0; i < depth; i++) {
+            // Every span spends 1 microsecond in itself before its child starts.
+            parent = span("span" + i, parent, i, 2 * depth - i);
+            spans.add(parent);
+        }
+
+        TraceTree tree = TraceTree.build(spans).get(0);
+        assertEquals(2 * depth - 1, tree.roots().get(0).criticalPath().size());
+        // 1 microsecond at either end of each span, and 2 for the innermost one.
+        for (TraceTree.Node node : tree.nodes()) {
+            assertEquals(2, node.criticalPathMicros());
+        }
+    }
+}
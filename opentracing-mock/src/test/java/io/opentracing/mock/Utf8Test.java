@@ -0,0 +1,50 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.mock;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+
+public class Utf8Test {
+
+    private static void assertRoundTrip(String value, ByteBuffer buffer) {
+        byte[] expected = value.getBytes(StandardCharsets.UTF_8);
+        assertEquals(expected.length, Utf8.encodedLength(value));
+        buffer.clear();
+        Utf8.encode(value, buffer);
+        assertEquals(expected.length, buffer.position());
+        byte[] actual = new byte[expected.length];
+        buffer.flip();
+        buffer.duplicate().get(actual);
+        assertEquals(new String(expected, StandardCharsets.UTF_8), new String(actual, StandardCharsets.UTF_8));
+        assertEquals(new String(expected, StandardCharsets.UTF_8), Utf8.decode(buffer, expected.length));
+    }
+
+    @Test
+    public void roundTrips() {
+        String[] values = {"", "ascii", "caf\u00e9", "\u20ac100", "emoji \ud83d\ude00!", "unpaired \ud83d end"};
+        for (String value : values) {
+            assertRoundTrip(value, ByteBuffer.allocate(64));
+            assertRoundTrip(value, ByteBuffer.allocateDirect(64));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMalformedBytes() {
+        Utf8.decode(ByteBuffer.wrap(new byte[] {(byte) 0xC3, 0x28}), 2);
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.mock;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.junit.Test;
+
+public class VarintsTest {
+
+    @Test
+    public void roundTrips() {
+        long[] values = {0, 1, 127, 128, 300, Integer.MAX_VALUE, Long.MAX_VALUE, -1, Long.MIN_VALUE};
+        int[] sizes = {1, 1, 1, 2, 2, 5, 9, 10, 10};
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(sizes[i], Varints.size(values[i]));
+            buffer.clear();
+            Varints.put(buffer, values[i]);
+            assertEquals(sizes[i], buffer.position());
+            buffer.flip();
+            assertEquals(values[i], Varints.read(buffer));
+            assertEquals(0, buffer.remaining());
+        }
+    }
+
+    @Test
+    public void writesLeastSignificantGroupFirst() {
+        ByteBuffer buffer = ByteBuffer.allocate(2);
+        Varints.put(buffer, 300);
+        assertEquals((byte) 0xAC, buffer.get(0));
+        assertEquals((byte) 0x02, buffer.get(1));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsMalformedVarints() {
+        byte[] bytes = new byte[11];
+        Arrays.fill(bytes, (byte) 0x80);
+        Varints.read(ByteBuffer.wrap(bytes));
+    }
+}
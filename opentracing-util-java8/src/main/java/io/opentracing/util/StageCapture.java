@@ -0,0 +1,151 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.util;
+
+import io.opentracing.ActiveSpan;
+import io.opentracing.ActiveSpanSource;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * The {@link ActiveSpan.Continuation} captured when a {@link TracedCompletionStage} stage was created.
+ *
+ * <p>
+ * The wrapped stage function claims and activates it when it runs. A stage function does not run when the stage
+ * is skipped (exceptional or cancelled input, the other branch of an {@code exceptionally}) or cancelled, so the
+ * capture is also registered as a completion callback on the dependent stage, where it releases the continuation
+ * if nothing has claimed it. Whichever comes first wins, so the continuation is used exactly once.
+ */
+final class StageCapture extends AtomicReference<ActiveSpan.Continuation> implements BiConsumer<Object, Throwable> {
+
+    private StageCapture(ActiveSpan.Continuation continuation) {
+        super(continuation);
+    }
+
+    /**
+     * @return a capture of the {@link ActiveSpanSource#activeSpan() active span}, or null if no span is active
+     */
+    static StageCapture capture(ActiveSpanSource source) {
+        ActiveSpan activeSpan = source.activeSpan();
+        return activeSpan == null ? null : new StageCapture(activeSpan.capture());
+    }
+
+    ActiveSpan activate() {
+        ActiveSpan.Continuation continuation = getAndSet(null);
+        return continuation == null ? null : continuation.activate();
+    }
+
+    static void deactivate(ActiveSpan activeSpan) {
+        if (activeSpan != null) {
+            activeSpan.deactivate();
+        }
+    }
+
+    /**
+     * Completion callback of the dependent stage: release the continuation if the stage function never ran.
+     */
+    @Override
+    public void accept(Object result, Throwable failure) {
+        deactivate(activate());
+    }
+
+    static <T, U> Function<T, U> function(final StageCapture capture, final Function<T, U> fn) {
+        if (capture == null) {
+            return fn;
+        }
+        return t -> {
+            ActiveSpan activeSpan = capture.activate();
+            try {
+                return fn.apply(t);
+            } finally {
+                deactivate(activeSpan);
+            }
+        };
+    }
+
+    static <T, U, V> BiFunction<T, U, V> biFunction(final StageCapture capture, final BiFunction<T, U, V> fn) {
+        if (capture == null) {
+            return fn;
+        }
+        return (t, u) -> {
+            ActiveSpan activeSpan = capture.activate();
+            try {
+                return fn.apply(t, u);
+            } finally {
+                deactivate(activeSpan);
+            }
+        };
+    }
+
+    static <T> Consumer<T> consumer(final StageCapture capture, final Consumer<T> action) {
+        if (capture == null) {
+            return action;
+        }
+        return t -> {
+            ActiveSpan activeSpan = capture.activate();
+            try {
+                action.accept(t);
+            } finally {
+                deactivate(activeSpan);
+            }
+        };
+    }
+
+    static <T, U> BiConsumer<T, U> biConsumer(final StageCapture capture, final BiConsumer<T, U> action) {
+        if (capture == null) {
+            return action;
+        }
+        return (t, u) -> {
+            ActiveSpan activeSpan = capture.activate();
+            try {
+                action.accept(t, u);
+            } finally {
+                deactivate(activeSpan);
+            }
+        };
+    }
+
+    static Runnable runnable(final StageCapture capture, final Runnable action) {
+        if (capture == null) {
+            return action;
+        }
+        return () -> {
+            ActiveSpan activeSpan = capture.activate();
+            try {
+                action.run();
+            } finally {
+                deactivate(activeSpan);
+            }
+        };
+    }
+
+    static <T> Supplier<T> supplier(final StageCapture capture, final Supplier<T> supplier) {
+        if (capture == null) {
+            return supplier;
+        }
+        return () -> {
+            ActiveSpan activeSpan = capture.activate();
+            try {
+                return supplier.get();
+            } finally {
+                deactivate(activeSpan);
+            }
+        };
+    }
+}
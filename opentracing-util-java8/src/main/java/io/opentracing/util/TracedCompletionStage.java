@@ -0,0 +1,458 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.util;
+
+import io.opentracing.ActiveSpanSource;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * A {@link CompletionStage} that propagates the {@link ActiveSpanSource#activeSpan() active span} from the thread
+ * that chains a stage to the thread that eventually runs it.
+ *
+ * <p>
+ * Every chaining method captures the active span of the calling thread (if any), and the stage function activates
+ * that capture around its invocation, wherever and whenever it runs. Stages whose function never runs (because the
+ * input completed exceptionally, was cancelled, or because {@link #exceptionally(Function)} was skipped) release
+ * their capture when they complete, so the captured span is finished once the last reference to it goes away, as
+ * with any other {@link io.opentracing.ActiveSpan.Continuation}.
+ *
+ * <p>
+ * Chaining with no active span costs nothing beyond the plain {@link CompletableFuture} stage: the function is
+ * passed through unwrapped.
+ *
+ * <p>
+ * Example:
+ * <pre><code>
+ *     try (ActiveSpan span = tracer.buildSpan("request").startActive()) {
+ *         TracedCompletionStage.supplyAsync(this::load, executor, tracer)
+ *             .thenApply(this::transform)    // runs with "request" active
+ *             .thenAccept(this::respond);    // ditto
+ *     }
+ * </code></pre>
+ *
+ * @param <T> the type of the value this stage completes with
+ */
+public final class TracedCompletionStage<T> implements CompletionStage<T> {
+    private final CompletableFuture<T> delegate;
+    private final ActiveSpanSource source;
+
+    private TracedCompletionStage(CompletableFuture<T> delegate, ActiveSpanSource source) {
+        this.delegate = delegate;
+        this.source = source;
+    }
+
+    /**
+     * Wrap an existing stage, so that stages chained from it propagate the active span of {@code source}.
+     */
+    public static <T> TracedCompletionStage<T> of(CompletionStage<T> stage, ActiveSpanSource source) {
+        if (stage instanceof TracedCompletionStage && ((TracedCompletionStage<T>) stage).source == source) {
+            return (TracedCompletionStage<T>) stage;
+        }
+        return new TracedCompletionStage<T>(stage.toCompletableFuture(), source);
+    }
+
+    /**
+     * @see CompletableFuture#supplyAsync(Supplier)
+     */
+    public static <T> TracedCompletionStage<T> supplyAsync(Supplier<T> supplier, ActiveSpanSource source) {
+        StageCapture capture = StageCapture.capture(source);
+        return traced(CompletableFuture.supplyAsync(StageCapture.supplier(capture, supplier)), capture, source);
+    }
+
+    /**
+     * @see CompletableFuture#supplyAsync(Supplier, Executor)
+     */
+    public static <T> TracedCompletionStage<T> supplyAsync(Supplier<T> supplier, Executor executor,
+                                                           ActiveSpanSource source) {
+        StageCapture capture = StageCapture.capture(source);
+        try {
+            return traced(CompletableFuture.supplyAsync(StageCapture.supplier(capture, supplier), executor),
+                    capture, source);
+        } catch (RejectedExecutionException e) {
+            release(capture);
+            throw e;
+        }
+    }
+
+    /**
+     * @see CompletableFuture#runAsync(Runnable)
+     */
+    public static TracedCompletionStage<Void> runAsync(Runnable runnable, ActiveSpanSource source) {
+        StageCapture capture = StageCapture.capture(source);
+        return traced(CompletableFuture.runAsync(StageCapture.runnable(capture, runnable)), capture, source);
+    }
+
+    /**
+     * @see CompletableFuture#runAsync(Runnable, Executor)
+     */
+    public static TracedCompletionStage<Void> runAsync(Runnable runnable, Executor executor,
+                                                       ActiveSpanSource source) {
+        StageCapture capture = StageCapture.capture(source);
+        try {
+            return traced(CompletableFuture.runAsync(StageCapture.runnable(capture, runnable), executor),
+                    capture, source);
+        } catch (RejectedExecutionException e) {
+            release(capture);
+            throw e;
+        }
+    }
+
+    private static void release(StageCapture capture) {
+        if (capture != null) {
+            capture.accept(null, null);
+        }
+    }
+
+    private static <U> TracedCompletionStage<U> traced(CompletableFuture<U> dependent, StageCapture capture,
+                                                       ActiveSpanSource source) {
+        if (capture != null) {
+            dependent.whenComplete(capture);
+        }
+        return new TracedCompletionStage<U>(dependent, source);
+    }
+
+    private <U> TracedCompletionStage<U> traced(CompletableFuture<U> dependent, StageCapture capture) {
+        return traced(dependent, capture, source);
+    }
+
+    private StageCapture capture() {
+        return StageCapture.capture(source);
+    }
+
+    @Override
+    public <U> TracedCompletionStage<U> thenApply(Function<? super T, ? extends U> fn) {
+        StageCapture capture = capture();
+        return traced(delegate.thenApply(StageCapture.function(capture, fn)), capture);
+    }
+
+    @Override
+    public <U> TracedCompletionStage<U> thenApplyAsync(Function<? super T, ? extends U> fn) {
+        StageCapture capture = capture();
+        return traced(delegate.thenApplyAsync(StageCapture.function(capture, fn)), capture);
+    }
+
+    @Override
+    public <U> TracedCompletionStage<U> thenApplyAsync(Function<? super T, ? extends U> fn, Executor executor) {
+        StageCapture capture = capture();
+        try {
+            return traced(delegate.thenApplyAsync(StageCapture.function(capture, fn), executor), capture);
+        } catch (RejectedExecutionException e) {
+            release(capture);
+            throw e;
+        }
+    }
+
+    @Override
+    public TracedCompletionStage<Void> thenAccept(Consumer<? super T> action) {
+        StageCapture capture = capture();
+        return traced(delegate.thenAccept(StageCapture.consumer(capture, action)), capture);
+    }
+
+    @Override
+    public TracedCompletionStage<Void> thenAcceptAsync(Consumer<? super T> action) {
+        StageCapture capture = capture();
+        return traced(delegate.thenAcceptAsync(StageCapture.consumer(capture, action)), capture);
+    }
+
+    @Override
+    public TracedCompletionStage<Void> thenAcceptAsync(Consumer<? super T> action, Executor executor) {
+        StageCapture capture = capture();
+        try {
+            return traced(delegate.thenAcceptAsync(StageCapture.consumer(capture, action), executor), capture);
+        } catch (RejectedExecutionException e) {
+            release(capture);
+            throw e;
+        }
+    }
+
+    @Override
+    public TracedCompletionStage<Void> thenRun(Runnable action) {
+        StageCapture capture = capture();
+        return traced(delegate.thenRun(StageCapture.runnable(capture, action)), capture);
+    }
+
+    @Override
+    public TracedCompletionStage<Void> thenRunAsync(Runnable action) {
+        StageCapture capture = capture();
+        return traced(delegate.thenRunAsync(StageCapture.runnable(capture, action)), capture);
+    }
+
+    @Override
+    public TracedCompletionStage<Void> thenRunAsync(Runnable action, Executor executor) {
+        StageCapture capture = capture();
+        try {
+            return traced(delegate.thenRunAsync(StageCapture.runnable(capture, action), executor), capture);
+        } catch (RejectedExecutionException e) {
+            release(capture);
+            throw e;
+        }
+    }
+
+    @Override
+    public <U, V> TracedCompletionStage<V> thenCombine(CompletionStage<? extends U> other,
+                                                       BiFunction<? super T, ? super U, ? extends V> fn) {
+        StageCapture capture = capture();
+        return traced(delegate.thenCombine(other, StageCapture.biFunction(capture, fn)), capture);
+    }
+
+    @Override
+    public <U, V> TracedCompletionStage<V> thenCombineAsync(CompletionStage<? extends U> other,
+                                                            BiFunction<? super T, ? super U, ? extends V> fn) {
+        StageCapture capture = capture();
+        return traced(delegate.thenCombineAsync(other, StageCapture.biFunction(capture, fn)), capture);
+    }
+
+    @Override
+    public <U, V> TracedCompletionStage<V> thenCombineAsync(CompletionStage<? extends U> other,
+                                                            BiFunction<? super T, ? super U, ? extends V> fn,
+                                                            Executor executor) {
+        StageCapture capture = capture();
+        try {
+            return traced(delegate.thenCombineAsync(other, StageCapture.biFunction(capture, fn), executor), capture);
+        } catch (RejectedExecutionException e) {
+            release(capture);
+            throw e;
+        }
+    }
+
+    @Override
+    public <U> TracedCompletionStage<Void> thenAcceptBoth(CompletionStage<? extends U> other,
+                                                          BiConsumer<? super T, ? super U> action) {
+        StageCapture capture = capture();
+        return traced(delegate.thenAcceptBoth(other, StageCapture.biConsumer(capture, action)), capture);
+    }
+
+    @Override
+    public <U> TracedCompletionStage<Void> thenAcceptBothAsync(CompletionStage<? extends U> other,
+                                                               BiConsumer<? super T, ? super U> action) {
+        StageCapture capture = capture();
+        return traced(delegate.thenAcceptBothAsync(other, StageCapture.biConsumer(capture, action)), capture);
+    }
+
+    @Override
+    public <U> TracedCompletionStage<Void> thenAcceptBothAsync(CompletionStage<? extends U> other,
+                                                               BiConsumer<? super T, ? super U> action,
+                                                               Executor executor) {
+        StageCapture capture = capture();
+        try {
+            return traced(delegate.thenAcceptBothAsync(other, StageCapture.biConsumer(capture, action), executor),
+                    capture);
+        } catch (RejectedExecutionException e) {
+            release(capture);
+            throw e;
+        }
+    }
+
+    @Override
+    public TracedCompletionStage<Void> runAfterBoth(CompletionStage<?> other, Runnable action) {
+        StageCapture capture = capture();
+        return traced(delegate.runAfterBoth(other, StageCapture.runnable(capture, action)), capture);
+    }
+
+    @Override
+    public TracedCompletionStage<Void> runAfterBothAsync(CompletionStage<?> other, Runnable action) {
+        StageCapture capture = capture();
+        return traced(delegate.runAfterBothAsync(other, StageCapture.runnable(capture, action)), capture);
+    }
+
+    @Override
+    public TracedCompletionStage<Void> runAfterBothAsync(CompletionStage<?> other, Runnable action,
+                                                         Executor executor) {
+        StageCapture capture = capture();
+        try {
+            return traced(delegate.runAfterBothAsync(other, StageCapture.runnable(capture, action), executor), capture);
+        } catch (RejectedExecutionException e) {
+            release(capture);
+            throw e;
+        }
+    }
+
+    @Override
+    public <U> TracedCompletionStage<U> applyToEither(CompletionStage<? extends T> other,
+                                                      Function<? super T, U> fn) {
+        StageCapture capture = capture();
+        return traced(delegate.applyToEither(other, StageCapture.function(capture, fn)), capture);
+    }
+
+    @Override
+    public <U> TracedCompletionStage<U> applyToEitherAsync(CompletionStage<? extends T> other,
+                                                           Function<? super T, U> fn) {
+        StageCapture capture = capture();
+        return traced(delegate.applyToEitherAsync(other, StageCapture.function(capture, fn)), capture);
+    }
+
+    @Override
+    public <U> TracedCompletionStage<U> applyToEitherAsync(CompletionStage<? extends T> other,
+                                                           Function<? super T, U> fn, Executor executor) {
+        StageCapture capture = capture();
+        try {
+            return traced(delegate.applyToEitherAsync(other, StageCapture.function(capture, fn), executor), capture);
+        } catch (RejectedExecutionException e) {
+            release(capture);
+            throw e;
+        }
+    }
+
+    @Override
+    public TracedCompletionStage<Void> acceptEither(CompletionStage<? extends T> other,
+                                                    Consumer<? super T> action) {
+        StageCapture capture = capture();
+        return traced(delegate.acceptEither(other, StageCapture.consumer(capture, action)), capture);
+    }
+
+    @Override
+    public TracedCompletionStage<Void> acceptEitherAsync(CompletionStage<? extends T> other,
+                                                         Consumer<? super T> action) {
+        StageCapture capture = capture();
+        return traced(delegate.acceptEitherAsync(other, StageCapture.consumer(capture, action)), capture);
+    }
+
+    @Override
+    public TracedCompletionStage<Void> acceptEitherAsync(CompletionStage<? extends T> other,
+                                                         Consumer<? super T> action, Executor executor) {
+        StageCapture capture = capture();
+        try {
+            return traced(delegate.acceptEitherAsync(other, StageCapture.consumer(capture, action), executor), capture);
+        } catch (RejectedExecutionException e) {
+            release(capture);
+            throw e;
+        }
+    }
+
+    @Override
+    public TracedCompletionStage<Void> runAfterEither(CompletionStage<?> other, Runnable action) {
+        StageCapture capture = capture();
+        return traced(delegate.runAfterEither(other, StageCapture.runnable(capture, action)), capture);
+    }
+
+    @Override
+    public TracedCompletionStage<Void> runAfterEitherAsync(CompletionStage<?> other, Runnable action) {
+        StageCapture capture = capture();
+        return traced(delegate.runAfterEitherAsync(other, StageCapture.runnable(capture, action)), capture);
+    }
+
+    @Override
+    public TracedCompletionStage<Void> runAfterEitherAsync(CompletionStage<?> other, Runnable action,
+                                                           Executor executor) {
+        StageCapture capture = capture();
+        try {
+            return traced(delegate.runAfterEitherAsync(other, StageCapture.runnable(capture, action), executor),
+                    capture);
+        } catch (RejectedExecutionException e) {
+            release(capture);
+            throw e;
+        }
+    }
+
+    @Override
+    public <U> TracedCompletionStage<U> thenCompose(Function<? super T, ? extends CompletionStage<U>> fn) {
+        StageCapture capture = capture();
+        return traced(delegate.thenCompose(StageCapture.function(capture, fn)), capture);
+    }
+
+    @Override
+    public <U> TracedCompletionStage<U> thenComposeAsync(Function<? super T, ? extends CompletionStage<U>> fn) {
+        StageCapture capture = capture();
+        return traced(delegate.thenComposeAsync(StageCapture.function(capture, fn)), capture);
+    }
+
+    @Override
+    public <U> TracedCompletionStage<U> thenComposeAsync(Function<? super T, ? extends CompletionStage<U>> fn,
+                                                         Executor executor) {
+        StageCapture capture = capture();
+        try {
+            return traced(delegate.thenComposeAsync(StageCapture.function(capture, fn), executor), capture);
+        } catch (RejectedExecutionException e) {
+            release(capture);
+            throw e;
+        }
+    }
+
+    @Override
+    public TracedCompletionStage<T> exceptionally(Function<Throwable, ? extends T> fn) {
+        StageCapture capture = capture();
+        return traced(delegate.exceptionally(StageCapture.function(capture, fn)), capture);
+    }
+
+    @Override
+    public TracedCompletionStage<T> whenComplete(BiConsumer<? super T, ? super Throwable> action) {
+        StageCapture capture = capture();
+        return traced(delegate.whenComplete(StageCapture.biConsumer(capture, action)), capture);
+    }
+
+    @Override
+    public TracedCompletionStage<T> whenCompleteAsync(BiConsumer<? super T, ? super Throwable> action) {
+        StageCapture capture = capture();
+        return traced(delegate.whenCompleteAsync(StageCapture.biConsumer(capture, action)), capture);
+    }
+
+    @Override
+    public TracedCompletionStage<T> whenCompleteAsync(BiConsumer<? super T, ? super Throwable> action,
+                                                      Executor executor) {
+        StageCapture capture = capture();
+        try {
+            return traced(delegate.whenCompleteAsync(StageCapture.biConsumer(capture, action), executor), capture);
+        } catch (RejectedExecutionException e) {
+            release(capture);
+            throw e;
+        }
+    }
+
+    @Override
+    public <U> TracedCompletionStage<U> handle(BiFunction<? super T, Throwable, ? extends U> fn) {
+        StageCapture capture = capture();
+        return traced(delegate.handle(StageCapture.biFunction(capture, fn)), capture);
+    }
+
+    @Override
+    public <U> TracedCompletionStage<U> handleAsync(BiFunction<? super T, Throwable, ? extends U> fn) {
+        StageCapture capture = capture();
+        return traced(delegate.handleAsync(StageCapture.biFunction(capture, fn)), capture);
+    }
+
+    @Override
+    public <U> TracedCompletionStage<U> handleAsync(BiFunction<? super T, Throwable, ? extends U> fn,
+                                                    Executor executor) {
+        StageCapture capture = capture();
+        try {
+            return traced(delegate.handleAsync(StageCapture.biFunction(capture, fn), executor), capture);
+        } catch (RejectedExecutionException e) {
+            release(capture);
+            throw e;
+        }
+    }
+
+    /**
+     * @return the underlying {@link CompletableFuture}; stages chained on it directly do not propagate the active
+     * span
+     */
+    @Override
+    public CompletableFuture<T> toCompletableFuture() {
+        return delegate;
+    }
+
+    @Override
+    public String toString() {
+        return "TracedCompletionStage{" + delegate + '}';
+    }
+}
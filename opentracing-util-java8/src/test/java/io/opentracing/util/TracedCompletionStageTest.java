@@ -0,0 +1,184 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.opentracing.ActiveSpan;
+import io.opentracing.Span;
+import io.opentracing.SpanContext;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TracedCompletionStageTest {
+    private ThreadLocalActiveSpanSource source;
+    private ExecutorService executor;
+
+    @Before
+    public void before() {
+        source = new ThreadLocalActiveSpanSource();
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void after() throws Exception {
+        executor.shutdownNow();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void noActiveSpan() throws Exception {
+        ActiveSpan seen = TracedCompletionStage.supplyAsync(() -> source.activeSpan(), executor, source)
+                .thenApplyAsync(activeSpan -> activeSpan == null ? source.activeSpan() : activeSpan, executor)
+                .toCompletableFuture().get();
+        assertNull(seen);
+    }
+
+    @Test
+    public void activeSpanIsPropagated() throws Exception {
+        Span span = mock(Span.class);
+        SpanContext context = mock(SpanContext.class);
+        when(span.context()).thenReturn(context);
+        AtomicReference<SpanContext> first = new AtomicReference<SpanContext>();
+        AtomicReference<SpanContext> second = new AtomicReference<SpanContext>();
+
+        CompletableFuture<Void> done;
+        try (ActiveSpan activeSpan = source.makeActive(span)) {
+            done = TracedCompletionStage.supplyAsync(() -> {
+                first.set(source.activeSpan().context());
+                return 1;
+            }, executor, source)
+                    .thenAcceptAsync(i -> second.set(source.activeSpan().context()),
+                            executor)
+                    .toCompletableFuture();
+        }
+        done.get();
+
+        assertSame(context, first.get());
+        assertSame(context, second.get());
+        verify(span, timeout(1000)).finish();
+    }
+
+    @Test
+    public void exceptionalUpstreamReleasesCapture() throws Exception {
+        Span span = mock(Span.class);
+        CompletableFuture<String> upstream = new CompletableFuture<String>();
+
+        CompletableFuture<Integer> dependent;
+        try (ActiveSpan activeSpan = source.makeActive(span)) {
+            dependent = TracedCompletionStage.of(upstream, source)
+                    .thenApply(String::length)
+                    .toCompletableFuture();
+        }
+        verify(span, never()).finish();
+
+        upstream.completeExceptionally(new IllegalStateException());
+        assertTrue(dependent.isCompletedExceptionally());
+        verify(span, timeout(1000)).finish();
+    }
+
+    @Test
+    public void cancelledUpstreamReleasesCapture() throws Exception {
+        Span span = mock(Span.class);
+        CompletableFuture<String> upstream = new CompletableFuture<String>();
+
+        try (ActiveSpan activeSpan = source.makeActive(span)) {
+            TracedCompletionStage.of(upstream, source).thenApplyAsync(String::length, executor);
+        }
+        verify(span, never()).finish();
+
+        upstream.cancel(false);
+        verify(span, timeout(1000)).finish();
+    }
+
+    @Test
+    public void skippedExceptionallyReleasesCapture() throws Exception {
+        Span span = mock(Span.class);
+        CompletableFuture<String> upstream = new CompletableFuture<String>();
+
+        CompletableFuture<String> recovered;
+        try (ActiveSpan activeSpan = source.makeActive(span)) {
+            recovered = TracedCompletionStage.of(upstream, source)
+                    .exceptionally(t -> "recovered")
+                    .toCompletableFuture();
+        }
+
+        upstream.complete("ok");
+        assertEquals("ok", recovered.get());
+        verify(span, timeout(1000)).finish();
+    }
+
+    @Test
+    public void failingStageFunctionReleasesCapture() throws Exception {
+        Span span = mock(Span.class);
+
+        CompletableFuture<Object> failed;
+        try (ActiveSpan activeSpan = source.makeActive(span)) {
+            failed = TracedCompletionStage.supplyAsync(() -> {
+                throw new IllegalStateException();
+            }, executor, source).toCompletableFuture();
+        }
+
+        try {
+            failed.get();
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof IllegalStateException);
+        }
+        verify(span, timeout(1000)).finish();
+    }
+
+    @Test
+    public void rejectedChainingReleasesCapture() throws Exception {
+        Span span = mock(Span.class);
+        Executor rejecting = command -> {
+            throw new RejectedExecutionException();
+        };
+        // Hands the task straight to the executor so the rejection reaches the caller
+        CompletableFuture<String> upstream = new CompletableFuture<String>() {
+            @Override
+            public <U> CompletableFuture<U> thenApplyAsync(Function<? super String, ? extends U> fn,
+                                                           Executor executor) {
+                executor.execute(() -> fn.apply(join()));
+                return new CompletableFuture<U>();
+            }
+        };
+        upstream.complete("done");
+
+        try (ActiveSpan activeSpan = source.makeActive(span)) {
+            TracedCompletionStage.of(upstream, source).thenApplyAsync(String::length, rejecting);
+            fail();
+        } catch (RejectedExecutionException expected) {
+        }
+        verify(span, timeout(1000)).finish();
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.util;
+
+import io.opentracing.ActiveSpan;
+import io.opentracing.Span;
+import io.opentracing.SpanContext;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * The {@link ActiveSpan} implementation of {@link ScopedActiveSpanSource}.
+ *
+ * <p>
+ * Activations are stacked either on the scoped binding of the owner thread or, outside of one, in thread-local
+ * storage. As with a lazily counted {@link ThreadLocalActiveSpan}, the reference count is only inflated on the first
+ * {@link #capture()}, with a compare-and-set so that threads a binding was inherited by can capture its root too.
+ */
+public class ScopedActiveSpan implements ActiveSpan {
+    private final ScopedActiveSpanSource source;
+    private final ScopedActiveSpanSource.Binding binding;
+    private final Span wrapped;
+    private final ScopedActiveSpan toRestore;
+    private static final AtomicReferenceFieldUpdater<ScopedActiveSpan, AtomicInteger> REF_COUNT =
+            AtomicReferenceFieldUpdater.newUpdater(ScopedActiveSpan.class, AtomicInteger.class, "refCount");
+
+    // Null until captured: see capture().
+    private volatile AtomicInteger refCount;
+
+    ScopedActiveSpan(ScopedActiveSpanSource source, ScopedActiveSpanSource.Binding binding, Span wrapped,
+                     AtomicInteger refCount) {
+        this.source = source;
+        this.binding = binding;
+        this.wrapped = wrapped;
+        this.refCount = refCount;
+        if (binding != null) {
+            this.toRestore = binding.top;
+            binding.top = this;
+        } else {
+            this.toRestore = source.tlsSnapshot.get();
+            source.tlsSnapshot.set(this);
+        }
+    }
+
+    @Override
+    public void deactivate() {
+        if (binding != null) {
+            if (binding.top != this || binding.owner != Thread.currentThread()) {
+                // This shouldn't happen if users call methods in the expected order. Bail out.
+                return;
+            }
+            binding.top = toRestore;
+        } else {
+            if (source.tlsSnapshot.get() != this) {
+                // This shouldn't happen if users call methods in the expected order. Bail out.
+                return;
+            }
+            source.tlsSnapshot.set(toRestore);
+        }
+
+        AtomicInteger refCount = this.refCount;
+        if (refCount == null || 0 == refCount.decrementAndGet()) {
+            wrapped.finish();
+        }
+    }
+
+    @Override
+    public Continuation capture() {
+        AtomicInteger refCount = this.refCount;
+        if (refCount == null) {
+            // First capture, maybe from a thread the binding was inherited by: from now on the count is shared.
+            REF_COUNT.compareAndSet(this, null, new AtomicInteger(1));
+            refCount = this.refCount;
+        }
+        return new ScopedActiveSpan.Continuation(refCount);
+    }
+
+    @Override
+    public SpanContext context() {
+        return wrapped.context();
+    }
+
+    @Override
+    public ScopedActiveSpan setTag(String key, String value) {
+        wrapped.setTag(key, value);
+        return this;
+    }
+
+    @Override
+    public ScopedActiveSpan setTag(String key, boolean value) {
+        wrapped.setTag(key, value);
+        return this;
+    }
+
+    @Override
+    public ScopedActiveSpan setTag(String key, Number value) {
+        wrapped.setTag(key, value);
+        return this;
+    }
+
+    @Override
+    public ScopedActiveSpan log(Map<String, ?> fields) {
+        wrapped.log(fields);
+        return this;
+    }
+
+    @Override
+    public ScopedActiveSpan log(long timestampMicroseconds, Map<String, ?> fields) {
+        wrapped.log(timestampMicroseconds, fields);
+        return this;
+    }
+
+    @Override
+    public ScopedActiveSpan log(String event) {
+        wrapped.log(event);
+        return this;
+    }
+
+    @Override
+    public ScopedActiveSpan log(long timestampMicroseconds, String event) {
+        wrapped.log(timestampMicroseconds, event);
+        return this;
+    }
+
+    @Override
+    public ScopedActiveSpan setBaggageItem(String key, String value) {
+        wrapped.setBaggageItem(key, value);
+        return this;
+    }
+
+    @Override
+    public String getBaggageItem(String key) {
+        return wrapped.getBaggageItem(key);
+    }
+
+    @Override
+    public ScopedActiveSpan setOperationName(String operationName) {
+        wrapped.setOperationName(operationName);
+        return this;
+    }
+
+    @Override
+    public void close() {
+        deactivate();
+    }
+
+    @Override
+    public String toString() {
+        return wrapped.toString();
+    }
+
+    private final class Continuation implements ActiveSpan.Continuation {
+        private final AtomicInteger refCount;
+
+        Continuation(AtomicInteger refCount) {
+            this.refCount = refCount;
+            refCount.incrementAndGet();
+        }
+
+        @Override
+        public ScopedActiveSpan activate() {
+            return source.activate(wrapped, refCount);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.util;
+
+import io.opentracing.ActiveSpan;
+import io.opentracing.ActiveSpanSource;
+import io.opentracing.Span;
+import io.opentracing.Tracer;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An {@link ActiveSpanSource} that binds spans to a scope of code rather than to a thread, using
+ * {@code java.lang.ScopedValue} when the running JDK provides it.
+ *
+ * <p>
+ * {@link #runActive(Span, Runnable)} and {@link #callActive(Span, Callable)} bind a span for the duration of a task.
+ * On JDKs with {@code ScopedValue} the binding costs a single scoped value binding and no {@link ThreadLocal} entry,
+ * which matters when millions of virtual threads each carry an active span. Threads forked by a
+ * {@code StructuredTaskScope} within the task inherit the binding and see the same span.
+ *
+ * <p>
+ * {@link #makeActive(Span)} keeps working imperatively: within a bound task, the owner thread stacks activations
+ * on the binding itself. Outside of one, and on JDKs without {@code ScopedValue} (so Java 7 and 8), activations
+ * fall back to thread-local storage, just like {@link ThreadLocalActiveSpanSource}.
+ *
+ * <p>
+ * The span bound by {@link #runActive(Span, Runnable)} is finished when the task returns, unless it was
+ * {@link ActiveSpan#capture() captured}, in which case the last continuation to be deactivated finishes it.
+ *
+ * @see ScopedActiveSpan
+ * @see Tracer#activeSpan()
+ */
+public class ScopedActiveSpanSource implements ActiveSpanSource {
+    final ThreadLocal<ScopedActiveSpan> tlsSnapshot = new ThreadLocal<ScopedActiveSpan>();
+    // Set once anything was activated in tlsSnapshot, so that threads that only ever use bindings don't get a
+    // thread-local map created by looking it up.
+    volatile boolean tlsUsed;
+    private final Object scopedValue;
+
+    /**
+     * Create a source that uses {@code ScopedValue} if the running JDK provides it, and thread-local storage
+     * otherwise.
+     */
+    public ScopedActiveSpanSource() {
+        this(ScopedValues.AVAILABLE);
+    }
+
+    ScopedActiveSpanSource(boolean useScopedValue) {
+        this.scopedValue = useScopedValue ? ScopedValues.newInstance() : null;
+    }
+
+    /**
+     * @return whether spans are bound with {@code ScopedValue}, or fall back to thread-local storage
+     */
+    public boolean isScoped() {
+        return scopedValue != null;
+    }
+
+    @Override
+    public ScopedActiveSpan activeSpan() {
+        Binding binding = binding();
+        if (binding != null && binding.owner == Thread.currentThread()) {
+            return binding.top;
+        }
+        ScopedActiveSpan active = tlsUsed ? tlsSnapshot.get() : null;
+        if (active == null && binding != null) {
+            // Inherited by a forked thread: the root of the binding is the only frame safe to share.
+            return binding.root;
+        }
+        return active;
+    }
+
+    @Override
+    public ScopedActiveSpan makeActive(Span span) {
+        return activate(span, null);
+    }
+
+    /**
+     * Run {@code task} with {@code span} active, then deactivate it.
+     */
+    public void runActive(Span span, Runnable task) {
+        if (scopedValue == null) {
+            ActiveSpan activeSpan = makeActive(span);
+            try {
+                task.run();
+            } finally {
+                activeSpan.deactivate();
+            }
+            return;
+        }
+        Binding binding = new Binding(this, span);
+        try {
+            ScopedValues.runWhere(scopedValue, binding, task);
+        } finally {
+            binding.close();
+        }
+    }
+
+    /**
+     * Call {@code task} with {@code span} active, then deactivate it.
+     *
+     * @return the result of {@code task}
+     */
+    public <V> V callActive(Span span, final Callable<V> task) throws Exception {
+        if (scopedValue == null) {
+            ActiveSpan activeSpan = makeActive(span);
+            try {
+                return task.call();
+            } finally {
+                activeSpan.deactivate();
+            }
+        }
+        final Object[] result = new Object[1];
+        final Exception[] failure = new Exception[1];
+        runActive(span, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    result[0] = task.call();
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    failure[0] = e;
+                }
+            }
+        });
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        @SuppressWarnings("unchecked")
+        V value = (V) result[0];
+        return value;
+    }
+
+    ScopedActiveSpan activate(Span span, AtomicInteger refCount) {
+        Binding binding = binding();
+        if (binding == null || binding.owner != Thread.currentThread()) {
+            binding = null;
+            tlsUsed = true;
+        }
+        return new ScopedActiveSpan(this, binding, span, refCount);
+    }
+
+    private Binding binding() {
+        return scopedValue == null ? null : (Binding) ScopedValues.get(scopedValue);
+    }
+
+    /**
+     * The value bound by {@link #runActive(Span, Runnable)}: the stack of activations of its owner thread.
+     */
+    static final class Binding {
+        final Thread owner;
+        final ScopedActiveSpan root;
+        // Only accessed by the owner thread.
+        ScopedActiveSpan top;
+
+        Binding(ScopedActiveSpanSource source, Span span) {
+            this.owner = Thread.currentThread();
+            // The root can be seen and captured by forked threads, so its count is shared from the start.
+            this.root = new ScopedActiveSpan(source, this, span, new AtomicInteger(1));
+        }
+
+        void close() {
+            // Activations the task leaked are abandoned, but the root is deactivated regardless.
+            top = root;
+            root.deactivate();
+        }
+    }
+}
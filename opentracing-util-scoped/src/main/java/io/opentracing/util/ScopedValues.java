@@ -0,0 +1,128 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.util;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Access to {@code java.lang.ScopedValue} through method handles, so that this module still compiles and runs on
+ * JDKs that predate it.
+ *
+ * <p>
+ * {@link #AVAILABLE} is false when the class does not exist, or when it cannot be used (on JDKs where it is a
+ * preview API that was not enabled).
+ */
+final class ScopedValues {
+    static final boolean AVAILABLE;
+
+    // All handles are adapted to Object parameters and return types so that they can be invoked exactly.
+    private static final MethodHandle NEW_INSTANCE;
+    private static final MethodHandle IS_BOUND;
+    private static final MethodHandle GET;
+    private static final MethodHandle WHERE;
+    private static final MethodHandle RUN;
+
+    static {
+        MethodHandle newInstance = null;
+        MethodHandle isBound = null;
+        MethodHandle get = null;
+        MethodHandle where = null;
+        MethodHandle run = null;
+        boolean available;
+        try {
+            Class<?> scopedValue = Class.forName("java.lang.ScopedValue");
+            Class<?> carrier = Class.forName("java.lang.ScopedValue$Carrier");
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            newInstance = lookup.findStatic(scopedValue, "newInstance", MethodType.methodType(scopedValue))
+                    .asType(MethodType.methodType(Object.class));
+            isBound = lookup.findVirtual(scopedValue, "isBound", MethodType.methodType(boolean.class))
+                    .asType(MethodType.methodType(boolean.class, Object.class));
+            get = lookup.findVirtual(scopedValue, "get", MethodType.methodType(Object.class))
+                    .asType(MethodType.methodType(Object.class, Object.class));
+            where = lookup.findStatic(scopedValue, "where",
+                    MethodType.methodType(carrier, scopedValue, Object.class))
+                    .asType(MethodType.methodType(Object.class, Object.class, Object.class));
+            run = lookup.findVirtual(carrier, "run", MethodType.methodType(void.class, Runnable.class))
+                    .asType(MethodType.methodType(void.class, Object.class, Runnable.class));
+
+            // Preview APIs may refuse to work at runtime: try them out once.
+            Object probe = (Object) newInstance.invokeExact();
+            Object carrierProbe = (Object) where.invokeExact(probe, (Object) Boolean.TRUE);
+            run.invokeExact(carrierProbe, (Runnable) new Runnable() {
+                @Override
+                public void run() {
+                }
+            });
+            available = true;
+        } catch (Throwable t) {
+            available = false;
+        }
+        AVAILABLE = available;
+        NEW_INSTANCE = newInstance;
+        IS_BOUND = isBound;
+        GET = get;
+        WHERE = where;
+        RUN = run;
+    }
+
+    private ScopedValues() {
+    }
+
+    /**
+     * @return a new {@code ScopedValue}
+     */
+    static Object newInstance() {
+        try {
+            return (Object) NEW_INSTANCE.invokeExact();
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    /**
+     * @return the value bound to {@code scopedValue} in the current thread, or null if it is not bound
+     */
+    static Object get(Object scopedValue) {
+        try {
+            return (boolean) IS_BOUND.invokeExact(scopedValue) ? (Object) GET.invokeExact(scopedValue) : null;
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    /**
+     * Run {@code task} with {@code value} bound to {@code scopedValue}.
+     */
+    static void runWhere(Object scopedValue, Object value, Runnable task) {
+        try {
+            Object carrier = (Object) WHERE.invokeExact(scopedValue, value);
+            RUN.invokeExact(carrier, task);
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    private static RuntimeException propagate(Throwable t) {
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        // None of the invoked methods throws checked exceptions.
+        throw new IllegalStateException(t);
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.opentracing.ActiveSpan;
+import io.opentracing.Span;
+import io.opentracing.SpanContext;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+
+public class ScopedActiveSpanSourceTest {
+
+    private static ScopedActiveSpanSource[] sources() {
+        if (ScopedValues.AVAILABLE) {
+            return new ScopedActiveSpanSource[] {new ScopedActiveSpanSource(false), new ScopedActiveSpanSource(true)};
+        }
+        return new ScopedActiveSpanSource[] {new ScopedActiveSpanSource(false)};
+    }
+
+    @Test
+    public void defaultSourceUsesScopedValueWhenAvailable() {
+        assertEquals(ScopedValues.AVAILABLE, new ScopedActiveSpanSource().isScoped());
+    }
+
+    @Test
+    public void makeActiveOutsideOfBinding() {
+        for (ScopedActiveSpanSource source : sources()) {
+            Span span = mock(Span.class);
+            assertNull(source.activeSpan());
+
+            ActiveSpan activeSpan = source.makeActive(span);
+            assertSame(activeSpan, source.activeSpan());
+            activeSpan.deactivate();
+
+            assertNull(source.activeSpan());
+            verify(span, times(1)).finish();
+        }
+    }
+
+    @Test
+    public void runActive() {
+        for (final ScopedActiveSpanSource source : sources()) {
+            final Span span = mock(Span.class);
+            SpanContext context = mock(SpanContext.class);
+            when(span.context()).thenReturn(context);
+            final AtomicReference<SpanContext> seen = new AtomicReference<SpanContext>();
+
+            source.runActive(span, new Runnable() {
+                @Override
+                public void run() {
+                    seen.set(source.activeSpan().context());
+                    verify(span, never()).finish();
+                }
+            });
+
+            assertSame(context, seen.get());
+            assertNull(source.activeSpan());
+            verify(span, times(1)).finish();
+        }
+    }
+
+    @Test
+    public void makeActiveWithinBinding() {
+        for (final ScopedActiveSpanSource source : sources()) {
+            final Span outer = mock(Span.class);
+            final Span inner = mock(Span.class);
+
+            source.runActive(outer, new Runnable() {
+                @Override
+                public void run() {
+                    ActiveSpan root = source.activeSpan();
+                    ActiveSpan activeSpan = source.makeActive(inner);
+                    assertSame(activeSpan, source.activeSpan());
+                    activeSpan.deactivate();
+                    verify(inner, times(1)).finish();
+                    assertSame(root, source.activeSpan());
+                }
+            });
+
+            verify(outer, times(1)).finish();
+        }
+    }
+
+    @Test
+    public void capturedSpanOutlivesBinding() throws Exception {
+        for (final ScopedActiveSpanSource source : sources()) {
+            Span span = mock(Span.class);
+            final AtomicReference<ActiveSpan.Continuation> continuation =
+                    new AtomicReference<ActiveSpan.Continuation>();
+
+            source.runActive(span, new Runnable() {
+                @Override
+                public void run() {
+                    continuation.set(source.activeSpan().capture());
+                }
+            });
+            verify(span, never()).finish();
+
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    ActiveSpan activeSpan = continuation.get().activate();
+                    assertSame(activeSpan, source.activeSpan());
+                    activeSpan.deactivate();
+                }
+            });
+            thread.start();
+            thread.join();
+
+            verify(span, times(1)).finish();
+        }
+    }
+
+    @Test
+    public void callActive() throws Exception {
+        for (final ScopedActiveSpanSource source : sources()) {
+            Span span = mock(Span.class);
+
+            assertEquals("result", source.callActive(span, new Callable<String>() {
+                @Override
+                public String call() {
+                    return "result";
+                }
+            }));
+            verify(span, times(1)).finish();
+        }
+    }
+
+    @Test
+    public void callActivePropagatesCheckedException() {
+        for (final ScopedActiveSpanSource source : sources()) {
+            Span span = mock(Span.class);
+            final IOException failure = new IOException();
+
+            try {
+                source.callActive(span, new Callable<Object>() {
+                    @Override
+                    public Object call() throws IOException {
+                        throw failure;
+                    }
+                });
+                fail();
+            } catch (Exception e) {
+                assertSame(failure, e);
+            }
+            verify(span, times(1)).finish();
+            assertNull(source.activeSpan());
+        }
+    }
+
+    @Test
+    public void bindingDoesNotUseThreadLocal() {
+        assumeTrue(ScopedValues.AVAILABLE);
+        final ScopedActiveSpanSource source = new ScopedActiveSpanSource(true);
+        final Span inner = mock(Span.class);
+
+        source.runActive(mock(Span.class), new Runnable() {
+            @Override
+            public void run() {
+                source.makeActive(inner).deactivate();
+                source.activeSpan();
+            }
+        });
+
+        assertFalse(source.tlsUsed);
+    }
+}
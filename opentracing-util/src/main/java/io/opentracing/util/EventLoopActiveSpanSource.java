@@ -0,0 +1,105 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.util;
+
+import io.opentracing.ActiveSpan;
+import io.opentracing.ActiveSpanSource;
+
+/**
+ * A {@link ThreadLocalActiveSpanSource} for event loops, where a single thread multiplexes many connections (or
+ * other units of work) and switches between them on every I/O event.
+ *
+ * <p>
+ * Each connection owns a {@link Snapshot}, which holds its chain of {@link ActiveSpan}s while it is not being
+ * processed. {@link #swap(Snapshot)} exchanges the whole chain of the current thread with the one held by the
+ * snapshot in O(1): a single thread-local lookup, no matter how many spans are active, no allocation, and no
+ * reference count updates, since spans only change place and not ownership.
+ *
+ * <p>
+ * Example:
+ * <pre><code>
+ *     void onEvent(Connection connection) {
+ *         source.swap(connection.snapshot); // switch to the spans of the connection
+ *         try {
+ *             handle(connection);
+ *         } finally {
+ *             source.swap(connection.snapshot); // and back
+ *         }
+ *     }
+ * </code></pre>
+ *
+ * <p>
+ * A chain that is held by a {@link Snapshot} is not active on any thread, so its spans cannot be deactivated
+ * until it is swapped in again. A {@link Snapshot} MUST only be swapped by one thread at a time, which is the case
+ * when a connection is bound to a single event loop.
+ *
+ * @see ThreadLocalActiveSpanSource
+ */
+public class EventLoopActiveSpanSource extends ThreadLocalActiveSpanSource {
+
+    public EventLoopActiveSpanSource() {
+    }
+
+    /**
+     * @param leakDetector tracks the {@link ActiveSpan}s and {@link ActiveSpan.Continuation}s of this source, may be
+     *     null
+     */
+    public EventLoopActiveSpanSource(LeakDetector leakDetector) {
+        super(leakDetector);
+    }
+
+    /**
+     * @return a new {@link Snapshot} holding no active span
+     */
+    public Snapshot newSnapshot() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * Exchange the {@link ActiveSpan}s of the current thread with those held by {@code snapshot}: afterwards the
+     * chain previously held by {@code snapshot} is active, and {@code snapshot} holds the chain that was active.
+     * Calling it twice in a row restores the original state.
+     *
+     * @param snapshot a {@link Snapshot} created by this source
+     */
+    public void swap(Snapshot snapshot) {
+        if (snapshot.source != this) {
+            throw new IllegalArgumentException("Snapshot belongs to another ActiveSpanSource");
+        }
+        ThreadLocalActiveSpan current = tlsSnapshot.get();
+        tlsSnapshot.set(snapshot.top);
+        snapshot.top = current;
+    }
+
+    /**
+     * A chain of {@link ActiveSpan}s that is swapped in and out of the current thread with
+     * {@link EventLoopActiveSpanSource#swap(Snapshot)}.
+     */
+    public static final class Snapshot {
+        private final EventLoopActiveSpanSource source;
+        private ThreadLocalActiveSpan top;
+
+        private Snapshot(EventLoopActiveSpanSource source) {
+            this.source = source;
+        }
+
+        /**
+         * @return the top of the held chain, i.e. what {@link ActiveSpanSource#activeSpan()} will return once it is
+         *     swapped in, or null
+         */
+        public ActiveSpan activeSpan() {
+            return top;
+        }
+    }
+}
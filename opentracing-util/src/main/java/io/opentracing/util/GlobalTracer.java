@@ -47,10 +47,18 @@ import java.util.logging.Logger;
  * always allow the programmer to specify a {@link Tracer} instance to use for
  * instrumentation, though the {@link GlobalTracer} is a reasonable fallback or
  * default value.
+ *
+ * <p>
+ * On Java 7 and later the delegate is bound through a {@link java.lang.invoke.MutableCallSite}, so that the JIT
+ * can treat the registered tracer as a constant and inline its methods. Set the
+ * {@value #DISABLE_CALL_SITE_PROPERTY} system property to {@code true} to read a volatile field instead, which
+ * is what happens on Java 6.
  */
 public final class GlobalTracer implements Tracer {
     private static final Logger LOGGER = Logger.getLogger(GlobalTracer.class.getName());
 
+    static final String DISABLE_CALL_SITE_PROPERTY = "io.opentracing.util.GlobalTracer.disableCallSite";
+
     /**
      * Singleton instance.
      * <p>
@@ -67,9 +75,45 @@ public final class GlobalTracer implements Tracer {
      */
     private static volatile Tracer tracer = NoopTracerFactory.create();
 
+    /**
+     * Whether {@link GlobalTracerCallSite} mirrors {@link #tracer} and is read instead of it.
+     */
+    private static final boolean USE_CALL_SITE = initCallSite();
+
     private GlobalTracer() {
     }
 
+    private static boolean initCallSite() {
+        if (Boolean.getBoolean(DISABLE_CALL_SITE_PROPERTY)) {
+            return false;
+        }
+        try {
+            Class.forName("java.lang.invoke.MutableCallSite");
+            GlobalTracerCallSite.set(tracer);
+            return true;
+        } catch (Throwable t) {
+            LOGGER.log(Level.FINE, "MutableCallSite not available, GlobalTracer uses a volatile field.", t);
+            return false;
+        }
+    }
+
+    /**
+     * @return the registered {@link Tracer} delegate, or the {@link NoopTracer}
+     */
+    private static Tracer tracer() {
+        return USE_CALL_SITE ? GlobalTracerCallSite.get() : tracer;
+    }
+
+    /**
+     * Replace the delegate. Also used by tests, to reset the global tracer.
+     */
+    static synchronized void set(Tracer tracer) {
+        GlobalTracer.tracer = tracer;
+        if (USE_CALL_SITE) {
+            GlobalTracerCallSite.set(tracer);
+        }
+    }
+
     /**
      * Returns the constant {@linkplain GlobalTracer}.
      * <p>
@@ -106,7 +150,7 @@ public final class GlobalTracer implements Tracer {
         if (isRegistered() && !GlobalTracer.tracer.equals(tracer)) {
             throw new IllegalStateException("There is already a current global Tracer registered.");
         }
-        GlobalTracer.tracer = tracer;
+        set(tracer);
     }
 
     /**
@@ -125,17 +169,17 @@ public final class GlobalTracer implements Tracer {
 
     @Override
     public SpanBuilder buildSpan(String operationName) {
-        return tracer.buildSpan(operationName);
+        return tracer().buildSpan(operationName);
     }
 
     @Override
     public <C> void inject(SpanContext spanContext, Format<C> format, C carrier) {
-        tracer.inject(spanContext, format, carrier);
+        tracer().inject(spanContext, format, carrier);
     }
 
     @Override
     public <C> SpanContext extract(Format<C> format, C carrier) {
-        return tracer.extract(format, carrier);
+        return tracer().extract(format, carrier);
     }
 
     @Override
@@ -145,11 +189,11 @@ public final class GlobalTracer implements Tracer {
 
     @Override
     public ActiveSpan activeSpan() {
-        return tracer.activeSpan();
+        return tracer().activeSpan();
     }
 
     @Override
     public ActiveSpan makeActive(Span span) {
-        return tracer.makeActive(span);
+        return tracer().makeActive(span);
     }
 }
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.util;
+
+import io.opentracing.ActiveSpan;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Collections;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An opt-in, sampled detector of {@link ActiveSpan.Continuation}s that are never activated and {@link ActiveSpan}s
+ * that are never deactivated. Either leak keeps the reference count of a span above zero, so the span is never
+ * finished, and anything retaining unfinished spans grows forever.
+ *
+ * <p>
+ * One in {@code sampleRate} continuations and active spans is tracked with a {@link PhantomReference}, along with
+ * the stack trace of the code that created it. Tracking stops when the continuation is activated or the active span
+ * deactivated; a tracked object that is garbage collected first is reported as a leak, with its creation site.
+ * An {@link ActiveSpan} that is left active stays reachable from its thread, so it is also reported as soon as an
+ * {@link ActiveSpan} below it is deactivated.
+ *
+ * <p>
+ * The reference queue is polled whenever a sampled object is tracked, so no background thread is needed. Objects that
+ * are not sampled cost a random number draw; with no detector at all there is no cost beyond a null check.
+ *
+ * <p>
+ * Leaks are logged as warnings by default, override {@link #onLeak(String, Throwable)} to report them elsewhere.
+ *
+ * @see ThreadLocalActiveSpanSource#ThreadLocalActiveSpanSource(LeakDetector)
+ */
+public class LeakDetector {
+    private static final Logger LOGGER = Logger.getLogger(LeakDetector.class.getName());
+
+    private final int sampleRate;
+    private final Random random = new Random();
+    private final ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+    // Keeps the phantom references reachable until they are enqueued or closed.
+    private final Set<Tracker> trackers = Collections.newSetFromMap(new ConcurrentHashMap<Tracker, Boolean>());
+
+    /**
+     * @param sampleRate track one in {@code sampleRate} objects; 1 tracks them all
+     */
+    public LeakDetector(int sampleRate) {
+        if (sampleRate < 1) {
+            throw new IllegalArgumentException("sampleRate must be at least 1: " + sampleRate);
+        }
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * Report the tracked objects that have been garbage collected since the last poll.
+     *
+     * @return the number of leaks reported
+     */
+    public int poll() {
+        int leaks = 0;
+        Reference<?> reference;
+        while ((reference = queue.poll()) != null) {
+            Tracker tracker = (Tracker) reference;
+            if (trackers.remove(tracker)) {
+                leaks++;
+                onLeak(tracker.description + " was garbage collected before being "
+                        + tracker.expectedAction + ", created at:", tracker.site);
+            }
+        }
+        return leaks;
+    }
+
+    /**
+     * Called for every detected leak. Logs a warning by default.
+     *
+     * @param message describes the leaked object
+     * @param site a stack trace of the code that created the leaked object, if known
+     */
+    protected void onLeak(String message, Throwable site) {
+        LOGGER.log(Level.WARNING, message, site);
+    }
+
+    /**
+     * Start tracking {@code referent} if it is sampled.
+     *
+     * @return the {@link Tracker} to {@link Tracker#close() close} once {@code referent} was used properly, or null
+     *     if it is not sampled
+     */
+    Tracker track(Object referent, String description, String expectedAction) {
+        if (sampleRate > 1 && random.nextInt(sampleRate) != 0) {
+            return null;
+        }
+        poll();
+        Tracker tracker = new Tracker(referent, queue, description, expectedAction);
+        trackers.add(tracker);
+        return tracker;
+    }
+
+    /**
+     * Report an {@link ActiveSpan} that was left active on top of one being deactivated.
+     *
+     * @param top the {@link Tracker} of the {@link ActiveSpan} left active, may be null if it was not sampled
+     */
+    void reportLeftActive(Tracker top) {
+        Throwable site = top == null ? new Throwable("Deactivation attempted at") : top.site;
+        if (top == null || top.close()) {
+            onLeak("ActiveSpan was never deactivated, another ActiveSpan below it could not be deactivated; "
+                    + (top == null ? "the ActiveSpan left active was not sampled" : "activated at:"), site);
+        }
+    }
+
+    /**
+     * A phantom reference to a tracked object, with its creation site.
+     */
+    final class Tracker extends PhantomReference<Object> {
+        private final String description;
+        private final String expectedAction;
+        private final Throwable site;
+
+        Tracker(Object referent, ReferenceQueue<Object> queue, String description, String expectedAction) {
+            super(referent, queue);
+            this.description = description;
+            this.expectedAction = expectedAction;
+            this.site = new Throwable(description + " created");
+        }
+
+        /**
+         * Stop tracking: the object was used properly.
+         *
+         * @return whether the object was still tracked
+         */
+        boolean close() {
+            clear();
+            return trackers.remove(this);
+        }
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.util;
+
+import io.opentracing.ActiveSpan;
+import io.opentracing.ActiveSpanSource;
+import io.opentracing.Span;
+import io.opentracing.SpanContext;
+import io.opentracing.Tracer;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An {@link ActiveSpanSource} that keeps a per-thread, array-backed stack of reusable activation frames.
+ *
+ * <p>
+ * Unlike {@link ThreadLocalActiveSpanSource}, which allocates a new {@link ThreadLocalActiveSpan} (and reference
+ * count) for every activation, this source reuses the frame at the current stack depth. Once a thread's stack has
+ * grown to its maximum nesting depth, {@link #makeActive(Span)} only allocates the small {@link ActiveSpan} handle
+ * it returns and {@link ActiveSpan#deactivate()} allocates nothing; a reference count is only allocated when an
+ * {@link ActiveSpan} is {@link ActiveSpan#capture() captured}.
+ *
+ * <p>
+ * Each frame counts its activations, and a handle remembers the activation it was returned for. Like with
+ * {@link ThreadLocalActiveSpanSource}, deactivating a handle again does nothing, even once another {@link Span} has
+ * been activated at the same depth; capturing a deactivated handle throws an {@link IllegalStateException}.
+ *
+ * @see ThreadLocalActiveSpanSource
+ * @see Tracer#activeSpan()
+ */
+public class StackActiveSpanSource implements ActiveSpanSource {
+    private static final int INITIAL_CAPACITY = 8;
+
+    final ThreadLocal<Stack> stacks = new ThreadLocal<Stack>() {
+        @Override
+        protected Stack initialValue() {
+            return new Stack(StackActiveSpanSource.this, Thread.currentThread());
+        }
+    };
+
+    @Override
+    public ActiveSpan activeSpan() {
+        return stacks.get().top();
+    }
+
+    @Override
+    public ActiveSpan makeActive(Span span) {
+        return stacks.get().push(span, null);
+    }
+
+    /**
+     * The activation stack of a single thread. Only ever accessed by its {@link #owner}.
+     */
+    static final class Stack {
+        private final StackActiveSpanSource source;
+        private final Thread owner;
+        Frame[] frames = new Frame[INITIAL_CAPACITY];
+        private int size;
+
+        Stack(StackActiveSpanSource source, Thread owner) {
+            this.source = source;
+            this.owner = owner;
+        }
+
+        Activation top() {
+            return size == 0 ? null : frames[size - 1].activation;
+        }
+
+        Activation push(Span span, AtomicInteger refCount) {
+            if (size == frames.length) {
+                frames = Arrays.copyOf(frames, size * 2);
+            }
+            Frame frame = frames[size];
+            if (frame == null) {
+                frame = frames[size] = new Frame(this, size);
+            }
+            frame.refCount = refCount;
+            frame.activation = new Activation(frame, frame.generation, span);
+            size++;
+            return frame.activation;
+        }
+    }
+
+    /**
+     * A reusable activation frame. {@link #refCount} stays {@code null} until the frame is captured: an uncaptured
+     * frame is the only reference to its {@link Span} and finishes it on deactivation without any atomic operation.
+     * {@link #generation} is incremented on every deactivation, so that the handles of earlier activations at this
+     * depth can tell that they are no longer active.
+     */
+    static final class Frame {
+        private final Stack stack;
+        private final int depth;
+        private int generation;
+        private AtomicInteger refCount;
+        private Activation activation;
+
+        Frame(Stack stack, int depth) {
+            this.stack = stack;
+            this.depth = depth;
+        }
+    }
+
+    /**
+     * The {@link ActiveSpan} handle of one activation of a {@link Frame}. Writes go to its {@link Span} even once
+     * it has been deactivated, like with {@link ThreadLocalActiveSpan}.
+     */
+    static final class Activation implements ActiveSpan {
+        final Frame frame;
+        private final int generation;
+        private final Span span;
+
+        Activation(Frame frame, int generation, Span span) {
+            this.frame = frame;
+            this.generation = generation;
+            this.span = span;
+        }
+
+        /**
+         * @return whether this is the activation its frame is in, on the current thread
+         */
+        private boolean isActive() {
+            return frame.generation == generation && frame.stack.owner == Thread.currentThread();
+        }
+
+        @Override
+        public void deactivate() {
+            Stack stack = frame.stack;
+            if (!isActive() || stack.size != frame.depth + 1) {
+                // This shouldn't happen if users call methods in the expected order. Bail out.
+                return;
+            }
+            AtomicInteger toRelease = frame.refCount;
+            frame.generation++;
+            frame.refCount = null;
+            frame.activation = null;
+            stack.size--;
+
+            if (toRelease == null || 0 == toRelease.decrementAndGet()) {
+                span.finish();
+            }
+        }
+
+        @Override
+        public ActiveSpan.Continuation capture() {
+            if (!isActive()) {
+                throw new IllegalStateException("ActiveSpan was deactivated: " + span);
+            }
+            if (frame.refCount == null) {
+                frame.refCount = new AtomicInteger(1);
+            }
+            return new StackActiveSpanSource.Continuation(frame.stack.source, span, frame.refCount);
+        }
+
+        /**
+         * @return the {@link Span} of this activation
+         */
+        Span span() {
+            return span;
+        }
+
+        @Override
+        public SpanContext context() {
+            return span.context();
+        }
+
+        @Override
+        public Activation setTag(String key, String value) {
+            span.setTag(key, value);
+            return this;
+        }
+
+        @Override
+        public Activation setTag(String key, boolean value) {
+            span.setTag(key, value);
+            return this;
+        }
+
+        @Override
+        public Activation setTag(String key, Number value) {
+            span.setTag(key, value);
+            return this;
+        }
+
+        @Override
+        public Activation log(Map<String, ?> fields) {
+            span.log(fields);
+            return this;
+        }
+
+        @Override
+        public Activation log(long timestampMicroseconds, Map<String, ?> fields) {
+            span.log(timestampMicroseconds, fields);
+            return this;
+        }
+
+        @Override
+        public Activation log(String event) {
+            span.log(event);
+            return this;
+        }
+
+        @Override
+        public Activation log(long timestampMicroseconds, String event) {
+            span.log(timestampMicroseconds, event);
+            return this;
+        }
+
+        @Override
+        public Activation setBaggageItem(String key, String value) {
+            span.setBaggageItem(key, value);
+            return this;
+        }
+
+        @Override
+        public String getBaggageItem(String key) {
+            return span.getBaggageItem(key);
+        }
+
+        @Override
+        public Activation setOperationName(String operationName) {
+            span.setOperationName(operationName);
+            return this;
+        }
+
+        @Override
+        public void close() {
+            deactivate();
+        }
+
+        @Override
+        public String toString() {
+            return String.valueOf(span);
+        }
+    }
+
+    private static final class Continuation implements ActiveSpan.Continuation {
+        private final StackActiveSpanSource source;
+        private final Span span;
+        private final AtomicInteger refCount;
+
+        Continuation(StackActiveSpanSource source, Span span, AtomicInteger refCount) {
+            this.source = source;
+            this.span = span;
+            this.refCount = refCount;
+            refCount.incrementAndGet();
+        }
+
+        @Override
+        public ActiveSpan activate() {
+            return source.stacks.get().push(span, refCount);
+        }
+    }
+}
@@ -15,6 +15,7 @@ package io.opentracing.util;
 
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import io.opentracing.ActiveSpan;
 import io.opentracing.ActiveSpanSource;
@@ -26,6 +27,13 @@ import io.opentracing.Tracer;
  * {@link ThreadLocalActiveSpan} is a simple {@link ActiveSpan} implementation that relies on Java's
  * thread-local storage primitive.
  *
+ * <p>
+ * With a source created with a lazy reference count, see
+ * {@link ThreadLocalActiveSpanSource#ThreadLocalActiveSpanSource(LeakDetector, boolean)}, an {@link ActiveSpan}
+ * created by {@link ThreadLocalActiveSpanSource#makeActive(Span)} is the only reference to its {@link Span} until it
+ * is {@link #capture() captured}: the count is only inflated to an {@link AtomicInteger} on the first
+ * {@link #capture()}, which keeps the allocation and the atomic decrement off the common activate/deactivate path.
+ *
  * @see ActiveSpanSource
  * @see Tracer#activeSpan()
  */
@@ -33,32 +41,60 @@ public class ThreadLocalActiveSpan implements ActiveSpan {
     private final ThreadLocalActiveSpanSource source;
     private final Span wrapped;
     private final ThreadLocalActiveSpan toRestore;
-    private final AtomicInteger refCount;
+    private static final AtomicReferenceFieldUpdater<ThreadLocalActiveSpan, AtomicInteger> REF_COUNT =
+            AtomicReferenceFieldUpdater.newUpdater(ThreadLocalActiveSpan.class, AtomicInteger.class, "refCount");
+
+    // With a lazy reference count, null until captured: see capture().
+    private volatile AtomicInteger refCount;
+    private final LeakDetector.Tracker tracker;
 
     ThreadLocalActiveSpan(ThreadLocalActiveSpanSource source, Span wrapped, AtomicInteger refCount) {
         this.source = source;
         this.refCount = refCount;
         this.wrapped = wrapped;
+        this.tracker = source.leakDetector == null ? null
+                : source.leakDetector.track(this, "ActiveSpan", "deactivated");
         this.toRestore = source.tlsSnapshot.get();
         source.tlsSnapshot.set(this);
     }
 
     @Override
     public void deactivate() {
-        if (source.tlsSnapshot.get() != this) {
+        ThreadLocalActiveSpan top = source.tlsSnapshot.get();
+        if (top != this) {
             // This shouldn't happen if users call methods in the expected order. Bail out.
+            if (tracker != null && tracker.close() && top != null) {
+                source.leakDetector.reportLeftActive(top.tracker);
+            }
             return;
         }
         source.tlsSnapshot.set(toRestore);
+        if (tracker != null) {
+            tracker.close();
+        }
 
-        if (0 == refCount.decrementAndGet()) {
+        AtomicInteger refCount = this.refCount;
+        if (refCount == null || 0 == refCount.decrementAndGet()) {
             wrapped.finish();
         }
     }
 
     @Override
     public Continuation capture() {
-        return new ThreadLocalActiveSpan.Continuation();
+        AtomicInteger refCount = this.refCount;
+        if (refCount == null) {
+            // First capture of a lazily counted span, maybe from another thread: from now on the count is shared.
+            REF_COUNT.compareAndSet(this, null, new AtomicInteger(1));
+            refCount = this.refCount;
+        }
+        return new ThreadLocalActiveSpan.Continuation(refCount);
+    }
+
+    /**
+     * @return the wrapped {@link Span}
+     */
+    Span wrapped() {
+        return wrapped;
     }
 
     @Override
@@ -136,12 +172,21 @@ public class ThreadLocalActiveSpan implements ActiveSpan {
     }
 
     private final class Continuation implements ActiveSpan.Continuation {
-        Continuation() {
+        private final AtomicInteger refCount;
+        private final LeakDetector.Tracker tracker;
+
+        Continuation(AtomicInteger refCount) {
+            this.refCount = refCount;
             refCount.incrementAndGet();
+            tracker = source.leakDetector == null ? null
+                    : source.leakDetector.track(this, "Continuation", "activated");
         }
 
         @Override
         public ThreadLocalActiveSpan activate() {
+            if (tracker != null) {
+                tracker.close();
+            }
             return new ThreadLocalActiveSpan(source, wrapped, refCount);
         }
     }
@@ -28,6 +28,32 @@ import java.util.concurrent.atomic.AtomicInteger;
  */
 public class ThreadLocalActiveSpanSource implements ActiveSpanSource {
     final ThreadLocal<ThreadLocalActiveSpan> tlsSnapshot = new ThreadLocal<ThreadLocalActiveSpan>();
+    final LeakDetector leakDetector;
+    private final boolean lazyRefCount;
+
+    public ThreadLocalActiveSpanSource() {
+        this(null);
+    }
+
+    /**
+     * @param leakDetector tracks the {@link ActiveSpan}s and {@link ActiveSpan.Continuation}s of this source, may be
+     *     null
+     */
+    public ThreadLocalActiveSpanSource(LeakDetector leakDetector) {
+        this(leakDetector, false);
+    }
+
+    /**
+     * @param leakDetector tracks the {@link ActiveSpan}s and {@link ActiveSpan.Continuation}s of this source, may be
+     *     null
+     * @param lazyRefCount whether {@link #makeActive(Span)} defers allocating the reference count of the
+     *     {@link ActiveSpan} to its first {@link ActiveSpan#capture()}, which spares it for spans that are never
+     *     captured
+     */
+    public ThreadLocalActiveSpanSource(LeakDetector leakDetector, boolean lazyRefCount) {
+        this.leakDetector = leakDetector;
+        this.lazyRefCount = lazyRefCount;
+    }
 
     @Override
     public ThreadLocalActiveSpan activeSpan() {
@@ -36,7 +62,7 @@ public class ThreadLocalActiveSpanSource implements ActiveSpanSource {
 
     @Override
     public ActiveSpan makeActive(Span span) {
-        return new ThreadLocalActiveSpan(this, span, new AtomicInteger(1));
+        return new ThreadLocalActiveSpan(this, span, lazyRefCount ? null : new AtomicInteger(1));
     }
 
 }
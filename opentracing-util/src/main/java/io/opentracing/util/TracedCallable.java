@@ -0,0 +1,59 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.util;
+
+import io.opentracing.ActiveSpan;
+import io.opentracing.ActiveSpanSource;
+
+import java.util.concurrent.Callable;
+
+/**
+ * A {@link Callable} that calls its delegate with the {@link ActiveSpan} that was active when it was created.
+ *
+ * <p>
+ * The constructor {@link ActiveSpan#capture() captures} the {@link ActiveSpanSource#activeSpan() active span}, if
+ * any, and {@link #call()} activates it around the delegate. Since the capture pins the
+ * {@link io.opentracing.Span}, every {@link TracedCallable} created while a span is active MUST eventually be
+ * called.
+ *
+ * @see TracedExecutorService
+ * @see ActiveSpan#capture()
+ */
+public class TracedCallable<V> extends TracedTask implements Callable<V> {
+    private final Callable<V> delegate;
+
+    public TracedCallable(Callable<V> delegate, ActiveSpanSource source) {
+        this(delegate, capture(source));
+    }
+
+    TracedCallable(Callable<V> delegate, ActiveSpan.Continuation continuation) {
+        super(continuation);
+        this.delegate = delegate;
+    }
+
+    @Override
+    public V call() throws Exception {
+        ActiveSpan activeSpan = activate();
+        try {
+            return delegate.call();
+        } finally {
+            deactivate(activeSpan, false);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return TracedCallable.class.getSimpleName() + '{' + delegate + '}';
+    }
+}
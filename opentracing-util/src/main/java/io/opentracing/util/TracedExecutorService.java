@@ -0,0 +1,255 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.util;
+
+import io.opentracing.ActiveSpan;
+import io.opentracing.ActiveSpanSource;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * An {@link ExecutorService} that propagates the {@link ActiveSpanSource#activeSpan() active span} of the
+ * submitting thread to the submitted tasks.
+ *
+ * <p>
+ * If a span is active when a task is submitted, it is {@link ActiveSpan#capture() captured} and the task runs
+ * with it activated, as a {@link TracedRunnable} or {@link TracedCallable}. If no span is active the task is handed
+ * to the delegate as is, so untraced work does not pay for any wrapping.
+ *
+ * <p>
+ * Tasks that are rejected, {@link Future#cancel(boolean) cancelled} before they start, or not picked by
+ * {@link #invokeAny(Collection)} release their capture, so they do not keep the span from finishing. Tasks
+ * silently discarded by the delegate (e.g. by a discarding rejection policy) or returned by
+ * {@link #shutdownNow()} still hold their capture until they are run.
+ *
+ * @see TracedScheduledExecutorService
+ */
+public class TracedExecutorService implements ExecutorService {
+    private final ExecutorService delegate;
+    final ActiveSpanSource source;
+
+    public TracedExecutorService(ExecutorService delegate, ActiveSpanSource source) {
+        this.delegate = delegate;
+        this.source = source;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        ActiveSpan activeSpan = source.activeSpan();
+        if (activeSpan == null) {
+            delegate.execute(command);
+            return;
+        }
+        TracedRunnable task = new TracedRunnable(command, activeSpan.capture(), false);
+        try {
+            delegate.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public <T> Future<T> submit(Callable<T> callable) {
+        ActiveSpan activeSpan = source.activeSpan();
+        if (activeSpan == null) {
+            return delegate.submit(callable);
+        }
+        TracedCallable<T> task = new TracedCallable<T>(callable, activeSpan.capture());
+        try {
+            return new TracedFuture<T>(delegate.submit(task), task);
+        } catch (RejectedExecutionException e) {
+            task.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public <T> Future<T> submit(Runnable runnable, T result) {
+        ActiveSpan activeSpan = source.activeSpan();
+        if (activeSpan == null) {
+            return delegate.submit(runnable, result);
+        }
+        TracedRunnable task = new TracedRunnable(runnable, activeSpan.capture(), false);
+        try {
+            return new TracedFuture<T>(delegate.submit(task, result), task);
+        } catch (RejectedExecutionException e) {
+            task.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public Future<?> submit(Runnable runnable) {
+        return submit(runnable, null);
+    }
+
+    @Override
+    public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks) throws InterruptedException {
+        ActiveSpan activeSpan = source.activeSpan();
+        if (activeSpan == null) {
+            return delegate.invokeAll(tasks);
+        }
+        List<TracedCallable<T>> traced = capture(tasks, activeSpan);
+        try {
+            return delegate.invokeAll(traced);
+        } finally {
+            releaseAll(traced);
+        }
+    }
+
+    @Override
+    public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit)
+            throws InterruptedException {
+        ActiveSpan activeSpan = source.activeSpan();
+        if (activeSpan == null) {
+            return delegate.invokeAll(tasks, timeout, unit);
+        }
+        List<TracedCallable<T>> traced = capture(tasks, activeSpan);
+        try {
+            return delegate.invokeAll(traced, timeout, unit);
+        } finally {
+            releaseAll(traced);
+        }
+    }
+
+    @Override
+    public <T> T invokeAny(Collection<? extends Callable<T>> tasks)
+            throws InterruptedException, ExecutionException {
+        ActiveSpan activeSpan = source.activeSpan();
+        if (activeSpan == null) {
+            return delegate.invokeAny(tasks);
+        }
+        List<TracedCallable<T>> traced = capture(tasks, activeSpan);
+        try {
+            return delegate.invokeAny(traced);
+        } finally {
+            releaseAll(traced);
+        }
+    }
+
+    @Override
+    public <T> T invokeAny(Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        ActiveSpan activeSpan = source.activeSpan();
+        if (activeSpan == null) {
+            return delegate.invokeAny(tasks, timeout, unit);
+        }
+        List<TracedCallable<T>> traced = capture(tasks, activeSpan);
+        try {
+            return delegate.invokeAny(traced, timeout, unit);
+        } finally {
+            releaseAll(traced);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        delegate.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        return delegate.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return delegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return delegate.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return delegate.awaitTermination(timeout, unit);
+    }
+
+    @Override
+    public String toString() {
+        return TracedExecutorService.class.getSimpleName() + '{' + delegate + '}';
+    }
+
+    private static <T> List<TracedCallable<T>> capture(Collection<? extends Callable<T>> tasks,
+                                                       ActiveSpan activeSpan) {
+        List<TracedCallable<T>> traced = new ArrayList<TracedCallable<T>>(tasks.size());
+        for (Callable<T> task : tasks) {
+            traced.add(new TracedCallable<T>(task, activeSpan.capture()));
+        }
+        return traced;
+    }
+
+    /**
+     * Once a batch returns, tasks that did not start (cancelled by a timeout or by {@code invokeAny}) never will.
+     */
+    private static <T> void releaseAll(List<TracedCallable<T>> tasks) {
+        for (TracedCallable<T> task : tasks) {
+            task.release();
+        }
+    }
+
+    /**
+     * Releases the task's capture when it is cancelled before it started.
+     */
+    static class TracedFuture<V> implements Future<V> {
+        final Future<V> delegate;
+        private final TracedTask task;
+
+        TracedFuture(Future<V> delegate, TracedTask task) {
+            this.delegate = delegate;
+            this.task = task;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = delegate.cancel(mayInterruptIfRunning);
+            if (cancelled) {
+                task.release();
+            }
+            return cancelled;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return delegate.isCancelled();
+        }
+
+        @Override
+        public boolean isDone() {
+            return delegate.isDone();
+        }
+
+        @Override
+        public V get() throws InterruptedException, ExecutionException {
+            return delegate.get();
+        }
+
+        @Override
+        public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            return delegate.get(timeout, unit);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.util;
+
+import io.opentracing.ActiveSpan;
+import io.opentracing.ActiveSpanSource;
+
+/**
+ * A {@link Runnable} that runs its delegate with the {@link ActiveSpan} that was active when it was created.
+ *
+ * <p>
+ * The constructor {@link ActiveSpan#capture() captures} the {@link ActiveSpanSource#activeSpan() active span}, if
+ * any, and {@link #run()} activates it around the delegate. Since the capture pins the {@link io.opentracing.Span},
+ * every {@link TracedRunnable} created while a span is active MUST eventually be run.
+ *
+ * @see TracedExecutorService
+ * @see ActiveSpan#capture()
+ */
+public class TracedRunnable extends TracedTask implements Runnable {
+    private final Runnable delegate;
+    private final boolean periodic;
+
+    public TracedRunnable(Runnable delegate, ActiveSpanSource source) {
+        this(delegate, capture(source), false);
+    }
+
+    TracedRunnable(Runnable delegate, ActiveSpan.Continuation continuation, boolean periodic) {
+        super(continuation);
+        this.delegate = delegate;
+        this.periodic = periodic;
+    }
+
+    @Override
+    public void run() {
+        ActiveSpan activeSpan = activate();
+        boolean completed = false;
+        try {
+            delegate.run();
+            completed = true;
+        } finally {
+            // A periodic task that throws is not run again.
+            deactivate(activeSpan, periodic && completed);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return TracedRunnable.class.getSimpleName() + '{' + delegate + '}';
+    }
+}
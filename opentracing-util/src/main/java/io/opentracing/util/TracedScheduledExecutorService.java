@@ -0,0 +1,127 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.util;
+
+import io.opentracing.ActiveSpan;
+import io.opentracing.ActiveSpanSource;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link ScheduledExecutorService} that propagates the {@link ActiveSpanSource#activeSpan() active span} of the
+ * scheduling thread to the scheduled tasks, see {@link TracedExecutorService}.
+ *
+ * <p>
+ * Periodic tasks keep the span pinned between runs: each run captures it again for the next one. The capture is
+ * released when the periodic task is {@link ScheduledFuture#cancel(boolean) cancelled} or throws.
+ */
+public class TracedScheduledExecutorService extends TracedExecutorService implements ScheduledExecutorService {
+    private final ScheduledExecutorService delegate;
+
+    public TracedScheduledExecutorService(ScheduledExecutorService delegate, ActiveSpanSource source) {
+        super(delegate, source);
+        this.delegate = delegate;
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+        ActiveSpan activeSpan = source.activeSpan();
+        if (activeSpan == null) {
+            return delegate.schedule(command, delay, unit);
+        }
+        TracedRunnable task = new TracedRunnable(command, activeSpan.capture(), false);
+        try {
+            return traced(delegate.schedule(task, delay, unit), task);
+        } catch (RejectedExecutionException e) {
+            task.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+        ActiveSpan activeSpan = source.activeSpan();
+        if (activeSpan == null) {
+            return delegate.schedule(callable, delay, unit);
+        }
+        TracedCallable<V> task = new TracedCallable<V>(callable, activeSpan.capture());
+        try {
+            return traced(delegate.schedule(task, delay, unit), task);
+        } catch (RejectedExecutionException e) {
+            task.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+        ActiveSpan activeSpan = source.activeSpan();
+        if (activeSpan == null) {
+            return delegate.scheduleAtFixedRate(command, initialDelay, period, unit);
+        }
+        TracedRunnable task = new TracedRunnable(command, activeSpan.capture(), true);
+        try {
+            return traced(delegate.scheduleAtFixedRate(task, initialDelay, period, unit), task);
+        } catch (RejectedExecutionException e) {
+            task.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay,
+                                                     TimeUnit unit) {
+        ActiveSpan activeSpan = source.activeSpan();
+        if (activeSpan == null) {
+            return delegate.scheduleWithFixedDelay(command, initialDelay, delay, unit);
+        }
+        TracedRunnable task = new TracedRunnable(command, activeSpan.capture(), true);
+        try {
+            return traced(delegate.scheduleWithFixedDelay(task, initialDelay, delay, unit), task);
+        } catch (RejectedExecutionException e) {
+            task.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return TracedScheduledExecutorService.class.getSimpleName() + '{' + delegate + '}';
+    }
+
+    private static <V> ScheduledFuture<V> traced(ScheduledFuture<V> scheduled, TracedTask task) {
+        return new TracedScheduledFuture<V>(scheduled, task);
+    }
+
+    static final class TracedScheduledFuture<V> extends TracedFuture<V> implements ScheduledFuture<V> {
+        TracedScheduledFuture(ScheduledFuture<V> delegate, TracedTask task) {
+            super(delegate, task);
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return ((ScheduledFuture<V>) delegate).getDelay(unit);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return ((ScheduledFuture<V>) delegate).compareTo(other);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.util;
+
+import io.opentracing.ActiveSpan;
+import io.opentracing.ActiveSpanSource;
+
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Common base of {@link TracedRunnable} and {@link TracedCallable}: holds the {@link ActiveSpan.Continuation}
+ * captured when the task was created and makes sure it is activated or released exactly once.
+ */
+abstract class TracedTask {
+    private static final AtomicReferenceFieldUpdater<TracedTask, ActiveSpan.Continuation> CONTINUATION =
+            AtomicReferenceFieldUpdater.newUpdater(TracedTask.class, ActiveSpan.Continuation.class, "continuation");
+
+    private volatile ActiveSpan.Continuation continuation;
+    private volatile boolean released;
+
+    TracedTask(ActiveSpan.Continuation continuation) {
+        this.continuation = continuation;
+    }
+
+    /**
+     * @return a {@link ActiveSpan.Continuation} of the {@link ActiveSpanSource#activeSpan()}, or null if no span is
+     *     active
+     */
+    static ActiveSpan.Continuation capture(ActiveSpanSource source) {
+        ActiveSpan activeSpan = source.activeSpan();
+        return activeSpan == null ? null : activeSpan.capture();
+    }
+
+    /**
+     * Activate the captured {@link ActiveSpan.Continuation} in the calling thread.
+     *
+     * @return the newly activated {@link ActiveSpan}, or null if nothing was captured or the task was
+     *     {@link #release() released}
+     */
+    final ActiveSpan activate() {
+        ActiveSpan.Continuation toActivate = CONTINUATION.getAndSet(this, null);
+        return toActivate == null ? null : toActivate.activate();
+    }
+
+    /**
+     * Deactivate an {@link ActiveSpan} returned by {@link #activate()}.
+     *
+     * @param activeSpan the {@link ActiveSpan} to deactivate, may be null
+     * @param runAgain whether the task will run again (periodic tasks), in which case a new
+     *     {@link ActiveSpan.Continuation} is captured for the next run before deactivating
+     */
+    final void deactivate(ActiveSpan activeSpan, boolean runAgain) {
+        if (activeSpan == null) {
+            return;
+        }
+        if (runAgain) {
+            continuation = activeSpan.capture();
+            if (released) {
+                // Cancelled while running: nobody else is going to release the new capture.
+                release();
+            }
+        }
+        activeSpan.deactivate();
+    }
+
+    /**
+     * Release the captured {@link ActiveSpan.Continuation} of a task that will not run (again), so that the
+     * {@link io.opentracing.Span} can finish. Does nothing if the task has already claimed its continuation.
+     */
+    final void release() {
+        released = true;
+        ActiveSpan.Continuation toRelease = CONTINUATION.getAndSet(this, null);
+        if (toRelease != null) {
+            toRelease.activate().deactivate();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.util;
+
+import io.opentracing.Tracer;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+
+/**
+ * Holds the delegate of the {@link GlobalTracer} in a {@link MutableCallSite}.
+ *
+ * <p>
+ * The JIT treats the target of a call site as a constant, and deoptimizes the code depending on it when the target
+ * changes. Once a {@link Tracer} has been {@link GlobalTracer#register(Tracer) registered}, calls through
+ * {@link GlobalTracer} therefore compile to direct, inlinable calls on the registered tracer: no volatile read and
+ * no interface dispatch.
+ *
+ * <p>
+ * This class is compiled for Java 7 and must only be loaded when {@code java.lang.invoke} is available, see
+ * {@link GlobalTracer}.
+ */
+final class GlobalTracerCallSite {
+    private static final MutableCallSite SITE = new MutableCallSite(MethodType.methodType(Tracer.class));
+    private static final MutableCallSite[] SITES = {SITE};
+    private static final MethodHandle TRACER = SITE.dynamicInvoker();
+
+    private GlobalTracerCallSite() {
+    }
+
+    static Tracer get() {
+        try {
+            return (Tracer) TRACER.invokeExact();
+        } catch (Throwable t) {
+            // A constant method handle does not throw.
+            throw new IllegalStateException(t);
+        }
+    }
+
+    static void set(Tracer tracer) {
+        SITE.setTarget(MethodHandles.constant(Tracer.class, tracer));
+        // Makes the new target visible to all threads, just like the volatile field it replaces.
+        MutableCallSite.syncAll(SITES);
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.util;
+
+import io.opentracing.ActiveSpan;
+import io.opentracing.ActiveSpanSource;
+import io.opentracing.BaseSpan;
+import io.opentracing.Span;
+import io.opentracing.SpanContext;
+
+import java.util.Map;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Common base of {@link TracedRecursiveTask} and {@link TracedRecursiveAction}.
+ *
+ * <p>
+ * A task created while no other traced task is running on the current thread is a root: it
+ * {@link ActiveSpan#capture() captures} the {@link ActiveSpanSource#activeSpan() active span} once, for its whole
+ * {@link Group group} of subtasks. A task created from within the computation of another traced task (and with
+ * that task's span still active) joins its group instead, without touching the captured reference count.
+ *
+ * <p>
+ * Every task of a group activates its own view of the captured span, whose {@link Span#finish()} counts the task as
+ * done instead of finishing the span. The captured continuation is released once the whole tree of tasks has
+ * completed. Completion is tracked like {@link java.util.concurrent.CountedCompleter} does: every running task
+ * counts its own execution plus its running subtasks and notifies its parent when the count reaches zero. A count
+ * is only ever touched by the direct subtasks of a task, so thousands of stolen subtasks never contend on a
+ * single counter.
+ *
+ * <p>
+ * A task whose computation {@link ActiveSpan#capture() captures} its active span to hand work off to asynchronous
+ * code therefore holds the group, and so the captured span, until that work deactivates its continuation.
+ */
+abstract class TracedForkJoinTask<V> extends ForkJoinTask<V> {
+    private static final long serialVersionUID = 1L;
+
+    private static final ThreadLocal<TracedForkJoinTask<?>> CURRENT = new ThreadLocal<TracedForkJoinTask<?>>();
+
+    private static final AtomicIntegerFieldUpdater<TracedForkJoinTask> PENDING =
+            AtomicIntegerFieldUpdater.newUpdater(TracedForkJoinTask.class, "pending");
+    private static final AtomicIntegerFieldUpdater<TracedForkJoinTask> STATE =
+            AtomicIntegerFieldUpdater.newUpdater(TracedForkJoinTask.class, "state");
+
+    private static final int NEW = 0;
+    private static final int RUNNING = 1;
+    private static final int DONE = 2;
+
+    private final transient Group group;
+    private final transient TracedForkJoinTask<?> parent;
+    private transient ActiveSpan activation;
+    // This task's own execution until it has run, plus its subtasks that are running: see exec().
+    private volatile int pending;
+    private volatile int state = NEW;
+
+    TracedForkJoinTask(ActiveSpanSource source) {
+        TracedForkJoinTask<?> current = CURRENT.get();
+        ActiveSpan activeSpan = source.activeSpan();
+        if (current != null && current.group.source == source && current.activation == activeSpan) {
+            this.group = current.group;
+            this.parent = current;
+        } else {
+            this.group = activeSpan == null ? null : new Group(source, activeSpan);
+            this.parent = null;
+            this.pending = 1;
+        }
+    }
+
+    /**
+     * Run the computation of the task and set its raw result.
+     */
+    abstract void compute0();
+
+    @Override
+    protected final boolean exec() {
+        if (group == null) {
+            compute0();
+            return true;
+        }
+        // A root holds the group until it has run. A subtask only needs to hold it while it runs, which keeps
+        // subtasks that are computed inline with compute() or never forked out of the count. It does so by
+        // holding its parent, which is necessarily running if the subtask is joined. A subtask that starts after
+        // its whole tree has completed (forked and never joined) still sees the span, but cannot hold it.
+        boolean counted = parent == null ? STATE.compareAndSet(this, NEW, RUNNING) : parent.tryAcquire();
+        if (counted && parent != null) {
+            pending = 1;
+        }
+        TracedForkJoinTask<?> previous = CURRENT.get();
+        // The source finishes the view when the activation and its continuations, if any, are all deactivated.
+        activation = group.source.makeActive(new TaskSpan(group.span, counted ? this : null));
+        CURRENT.set(this);
+        try {
+            compute0();
+        } finally {
+            CURRENT.set(previous);
+            if (counted) {
+                state = DONE;
+            }
+            activation.deactivate();
+            activation = null;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = super.cancel(mayInterruptIfRunning);
+        if (cancelled) {
+            abandon();
+        }
+        return cancelled;
+    }
+
+    @Override
+    public void complete(V value) {
+        super.complete(value);
+        abandon();
+    }
+
+    @Override
+    public void completeExceptionally(Throwable ex) {
+        super.completeExceptionally(ex);
+        abandon();
+    }
+
+    /**
+     * Release the group of a root task that completed without ever being executed.
+     */
+    private void abandon() {
+        if (group != null && parent == null && STATE.compareAndSet(this, NEW, DONE)) {
+            release();
+        }
+    }
+
+    private boolean tryAcquire() {
+        for (;;) {
+            int count = pending;
+            if (count == 0) {
+                return false;
+            }
+            if (PENDING.compareAndSet(this, count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private void release() {
+        TracedForkJoinTask<?> task = this;
+        while (PENDING.decrementAndGet(task) == 0) {
+            if (task.parent == null) {
+                task.group.release();
+                return;
+            }
+            task = task.parent;
+        }
+    }
+
+    /**
+     * The span shared by a root task and all its subtasks.
+     */
+    static final class Group {
+        final ActiveSpanSource source;
+        // Writes to an ActiveSpan go to its span even once it is deactivated.
+        final BaseSpan<?> span;
+        private final ActiveSpan.Continuation continuation;
+
+        Group(ActiveSpanSource source, ActiveSpan activeSpan) {
+            this.source = source;
+            this.span = activeSpan;
+            this.continuation = activeSpan.capture();
+        }
+
+        void release() {
+            continuation.activate().deactivate();
+        }
+    }
+
+    /**
+     * The view of the span of a {@link Group} that a task activates. Finishing it releases the task's hold on the
+     * group, if it has one, instead of finishing the span.
+     */
+    static final class TaskSpan implements Span {
+        private static final AtomicIntegerFieldUpdater<TaskSpan> FINISHED =
+                AtomicIntegerFieldUpdater.newUpdater(TaskSpan.class, "finished");
+
+        private final BaseSpan<?> delegate;
+        private final TracedForkJoinTask<?> task;
+        private volatile int finished;
+
+        TaskSpan(BaseSpan<?> delegate, TracedForkJoinTask<?> task) {
+            this.delegate = delegate;
+            this.task = task;
+        }
+
+        @Override
+        public void finish() {
+            if (task != null && FINISHED.compareAndSet(this, 0, 1)) {
+                task.release();
+            }
+        }
+
+        @Override
+        public void finish(long finishMicros) {
+            finish();
+        }
+
+        @Override
+        public SpanContext context() {
+            return delegate.context();
+        }
+
+        @Override
+        public Span setTag(String key, String value) {
+            delegate.setTag(key, value);
+            return this;
+        }
+
+        @Override
+        public Span setTag(String key, boolean value) {
+            delegate.setTag(key, value);
+            return this;
+        }
+
+        @Override
+        public Span setTag(String key, Number value) {
+            delegate.setTag(key, value);
+            return this;
+        }
+
+        @Override
+        public Span log(Map<String, ?> fields) {
+            delegate.log(fields);
+            return this;
+        }
+
+        @Override
+        public Span log(long timestampMicroseconds, Map<String, ?> fields) {
+            delegate.log(timestampMicroseconds, fields);
+            return this;
+        }
+
+        @Override
+        public Span log(String event) {
+            delegate.log(event);
+            return this;
+        }
+
+        @Override
+        public Span log(long timestampMicroseconds, String event) {
+            delegate.log(timestampMicroseconds, event);
+            return this;
+        }
+
+        @Override
+        public Span setBaggageItem(String key, String value) {
+            delegate.setBaggageItem(key, value);
+            return this;
+        }
+
+        @Override
+        public String getBaggageItem(String key) {
+            return delegate.getBaggageItem(key);
+        }
+
+        @Override
+        public Span setOperationName(String operationName) {
+            delegate.setOperationName(operationName);
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            return delegate.toString();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.util;
+
+import io.opentracing.ActiveSpan;
+import io.opentracing.ActiveSpanSource;
+
+/**
+ * A {@link java.util.concurrent.RecursiveAction} counterpart whose computation, and the computation of all its
+ * subtasks, runs with the {@link ActiveSpan} that was active when the root action was created.
+ *
+ * <p>
+ * See {@link TracedRecursiveTask} for how the span is shared among subtasks. Since the capture pins the
+ * {@link io.opentracing.Span}, every root action created while a span is active MUST eventually be executed or
+ * cancelled.
+ *
+ * @see TracedRecursiveTask
+ */
+public abstract class TracedRecursiveAction extends TracedForkJoinTask<Void> {
+    private static final long serialVersionUID = 1L;
+
+    protected TracedRecursiveAction(ActiveSpanSource source) {
+        super(source);
+    }
+
+    /**
+     * The main computation performed by this action.
+     */
+    protected abstract void compute();
+
+    @Override
+    final void compute0() {
+        compute();
+    }
+
+    @Override
+    public final Void getRawResult() {
+        return null;
+    }
+
+    @Override
+    protected final void setRawResult(Void value) {
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.util;
+
+import io.opentracing.ActiveSpan;
+import io.opentracing.ActiveSpanSource;
+
+/**
+ * A {@link java.util.concurrent.RecursiveTask} counterpart whose computation, and the computation of all its
+ * subtasks, runs with the {@link ActiveSpan} that was active when the root task was created, whichever
+ * {@link java.util.concurrent.ForkJoinPool} worker steals them.
+ *
+ * <p>
+ * The root task captures the {@link ActiveSpanSource#activeSpan() active span} once; subtasks created from within
+ * {@link #compute()} share that capture instead of taking their own, and the span can finish once every task of
+ * the tree has completed. Since the capture pins the {@link io.opentracing.Span}, every root task created while a
+ * span is active MUST eventually be executed or cancelled; subtasks that are computed inline or never forked are
+ * fine.
+ *
+ * <p>
+ * Example:
+ * <pre><code>
+ *     class Sum extends TracedRecursiveTask&lt;Long&gt; {
+ *         ...
+ *         protected Long compute() {
+ *             if (hi - lo &lt; THRESHOLD) {
+ *                 return sequentialSum(lo, hi);
+ *             }
+ *             int mid = (lo + hi) &gt;&gt;&gt; 1;
+ *             Sum left = new Sum(tracer, lo, mid);
+ *             left.fork();
+ *             return new Sum(tracer, mid, hi).compute() + left.join();
+ *         }
+ *     }
+ *
+ *     try (ActiveSpan span = tracer.buildSpan("sum").startActive()) {
+ *         pool.invoke(new Sum(tracer, 0, n));
+ *     }
+ * </code></pre>
+ *
+ * @param <V> the type of the result of the task
+ * @see TracedRecursiveAction
+ */
+public abstract class TracedRecursiveTask<V> extends TracedForkJoinTask<V> {
+    private static final long serialVersionUID = 1L;
+
+    private V result;
+
+    protected TracedRecursiveTask(ActiveSpanSource source) {
+        super(source);
+    }
+
+    /**
+     * The main computation performed by this task.
+     *
+     * @return the result of the computation
+     */
+    protected abstract V compute();
+
+    @Override
+    final void compute0() {
+        result = compute();
+    }
+
+    @Override
+    public final V getRawResult() {
+        return result;
+    }
+
+    @Override
+    protected final void setRawResult(V value) {
+        result = value;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.util;
+
+import io.opentracing.ActiveSpan;
+import io.opentracing.Span;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class EventLoopActiveSpanSourceTest {
+    private EventLoopActiveSpanSource source;
+
+    @Before
+    public void before() throws Exception {
+        source = new EventLoopActiveSpanSource();
+    }
+
+    @Test
+    public void swapEmptySnapshots() throws Exception {
+        EventLoopActiveSpanSource.Snapshot snapshot = source.newSnapshot();
+        assertNull(snapshot.activeSpan());
+
+        source.swap(snapshot);
+        assertNull(source.activeSpan());
+        assertNull(snapshot.activeSpan());
+    }
+
+    @Test
+    public void swapChains() throws Exception {
+        Span loopSpan = mock(Span.class);
+        Span parent = mock(Span.class);
+        Span child = mock(Span.class);
+        EventLoopActiveSpanSource.Snapshot connection = source.newSnapshot();
+
+        ActiveSpan loopActiveSpan = source.makeActive(loopSpan);
+
+        // First event of the connection: start a chain of two spans and leave it active.
+        source.swap(connection);
+        assertNull(source.activeSpan());
+        ActiveSpan parentActiveSpan = source.makeActive(parent);
+        ActiveSpan childActiveSpan = source.makeActive(child);
+        source.swap(connection);
+
+        assertSame(loopActiveSpan, source.activeSpan());
+        assertSame(childActiveSpan, connection.activeSpan());
+
+        // Deactivating a swapped out span does nothing.
+        childActiveSpan.deactivate();
+        verify(child, never()).finish();
+
+        // Second event of the connection: the chain is back and unwinds as usual.
+        source.swap(connection);
+        assertSame(childActiveSpan, source.activeSpan());
+        childActiveSpan.deactivate();
+        verify(child).finish();
+        assertSame(parentActiveSpan, source.activeSpan());
+        parentActiveSpan.deactivate();
+        verify(parent).finish();
+        assertNull(source.activeSpan());
+        source.swap(connection);
+
+        assertNull(connection.activeSpan());
+        assertSame(loopActiveSpan, source.activeSpan());
+        loopActiveSpan.deactivate();
+        verify(loopSpan).finish();
+    }
+
+    @Test
+    public void capturedSpanSurvivesSwap() throws Exception {
+        Span span = mock(Span.class);
+        EventLoopActiveSpanSource.Snapshot connection = source.newSnapshot();
+
+        source.swap(connection);
+        ActiveSpan activeSpan = source.makeActive(span);
+        ActiveSpan.Continuation continuation = activeSpan.capture();
+        source.swap(connection);
+
+        source.swap(connection);
+        activeSpan.deactivate();
+        source.swap(connection);
+        verify(span, never()).finish();
+
+        continuation.activate().deactivate();
+        verify(span).finish();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void snapshotOfAnotherSource() throws Exception {
+        new EventLoopActiveSpanSource().swap(source.newSnapshot());
+    }
+}
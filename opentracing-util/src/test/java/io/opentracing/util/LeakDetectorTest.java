@@ -0,0 +1,145 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.util;
+
+import io.opentracing.ActiveSpan;
+import io.opentracing.Span;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class LeakDetectorTest {
+    private RecordingLeakDetector leakDetector;
+    private ThreadLocalActiveSpanSource source;
+
+    static class RecordingLeakDetector extends LeakDetector {
+        final List<String> messages = new ArrayList<String>();
+        final List<Throwable> sites = new ArrayList<Throwable>();
+
+        RecordingLeakDetector() {
+            super(1);
+        }
+
+        @Override
+        protected synchronized void onLeak(String message, Throwable site) {
+            messages.add(message);
+            sites.add(site);
+        }
+    }
+
+    @Before
+    public void before() throws Exception {
+        leakDetector = new RecordingLeakDetector();
+        source = new ThreadLocalActiveSpanSource(leakDetector);
+    }
+
+    private int gcAndPoll() throws InterruptedException {
+        for (int i = 0; i < 50; i++) {
+            System.gc();
+            int leaks = leakDetector.poll();
+            if (leaks > 0) {
+                return leaks;
+            }
+            Thread.sleep(10);
+        }
+        return 0;
+    }
+
+    private void leakContinuation(Span span) {
+        ActiveSpan activeSpan = source.makeActive(span);
+        activeSpan.capture();
+        activeSpan.deactivate();
+    }
+
+    @Test
+    public void leakedContinuationIsReported() throws Exception {
+        Span span = mock(Span.class);
+        leakContinuation(span);
+        verify(span, never()).finish();
+
+        assertEquals(1, gcAndPoll());
+        assertTrue(leakDetector.messages.get(0).startsWith("Continuation was garbage collected before being activated"));
+        boolean foundCaptureSite = false;
+        for (StackTraceElement element : leakDetector.sites.get(0).getStackTrace()) {
+            foundCaptureSite |= "leakContinuation".equals(element.getMethodName());
+        }
+        assertTrue(foundCaptureSite);
+    }
+
+    @Test
+    public void activatedContinuationIsNotReported() throws Exception {
+        Span span = mock(Span.class);
+
+        ActiveSpan activeSpan = source.makeActive(span);
+        ActiveSpan.Continuation continuation = activeSpan.capture();
+        activeSpan.deactivate();
+        continuation.activate().deactivate();
+        continuation = null;
+        verify(span).finish();
+
+        assertEquals(0, gcAndPoll());
+        assertTrue(leakDetector.messages.isEmpty());
+    }
+
+    @Test
+    public void activeSpanLeftActiveIsReported() throws Exception {
+        ActiveSpan outer = source.makeActive(mock(Span.class));
+        source.makeActive(mock(Span.class));
+
+        outer.deactivate();
+        assertEquals(1, leakDetector.messages.size());
+        assertTrue(leakDetector.messages.get(0).startsWith("ActiveSpan was never deactivated"));
+
+        // Reported once only.
+        outer.deactivate();
+        assertEquals(1, leakDetector.messages.size());
+    }
+
+    @Test
+    public void repeatedDeactivationIsNotReported() throws Exception {
+        ActiveSpan activeSpan = source.makeActive(mock(Span.class));
+        activeSpan.deactivate();
+        activeSpan.close();
+
+        assertTrue(leakDetector.messages.isEmpty());
+    }
+
+    @Test
+    public void unsampledObjectsDoNotPoll() throws Exception {
+        final int[] polls = new int[1];
+        LeakDetector detector = new LeakDetector(Integer.MAX_VALUE) {
+            @Override
+            public int poll() {
+                polls[0]++;
+                return super.poll();
+            }
+        };
+        for (int i = 0; i < 100; i++) {
+            assertNull(detector.track(new Object(), "Object", "used"));
+        }
+        assertEquals(0, polls[0]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidSampleRate() throws Exception {
+        new LeakDetector(0);
+    }
+}
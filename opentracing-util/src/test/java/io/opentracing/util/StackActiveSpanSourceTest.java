@@ -0,0 +1,225 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import io.opentracing.ActiveSpan;
+import io.opentracing.Span;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StackActiveSpanSourceTest {
+    private StackActiveSpanSource source;
+
+    @Before
+    public void before() throws Exception {
+        source = new StackActiveSpanSource();
+    }
+
+    @Test
+    public void missingActiveSpan() throws Exception {
+        ActiveSpan missingSpan = source.activeSpan();
+        assertNull(missingSpan);
+    }
+
+    @Test
+    public void makeActiveSpan() throws Exception {
+        Span span = mock(Span.class);
+
+        // Quasi try-with-resources (this is 1.6).
+        ActiveSpan activeSpan = source.makeActive(span);
+        try {
+            assertNotNull(activeSpan);
+            ActiveSpan otherActiveSpan = source.activeSpan();
+            assertEquals(otherActiveSpan, activeSpan);
+        } finally {
+            activeSpan.close();
+        }
+
+        // Make sure the Span got finish()ed.
+        verify(span).finish();
+
+        // And now it's gone:
+        ActiveSpan missingSpan = source.activeSpan();
+        assertNull(missingSpan);
+    }
+
+    @Test
+    public void framesAreReused() throws Exception {
+        ActiveSpan first = source.makeActive(mock(Span.class));
+        first.deactivate();
+        ActiveSpan second = source.makeActive(mock(Span.class));
+        second.deactivate();
+
+        assertSame(source.stacks.get().frames[0], ((StackActiveSpanSource.Activation) first).frame);
+        assertSame(source.stacks.get().frames[0], ((StackActiveSpanSource.Activation) second).frame);
+        assertNotSame(first, second);
+    }
+
+    @Test
+    public void repeatedDeactivationDoesNotDeactivateNextSpan() throws Exception {
+        Span first = mock(Span.class);
+        Span second = mock(Span.class);
+
+        ActiveSpan firstActive = source.makeActive(first);
+        firstActive.deactivate();
+        ActiveSpan secondActive = source.makeActive(second);
+        firstActive.close();
+
+        verify(first, times(1)).finish();
+        verify(second, never()).finish();
+        assertSame(secondActive, source.activeSpan());
+
+        secondActive.close();
+        verify(second, times(1)).finish();
+        assertNull(source.activeSpan());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void captureAfterDeactivation() throws Exception {
+        ActiveSpan activeSpan = source.makeActive(mock(Span.class));
+        activeSpan.deactivate();
+        activeSpan.capture();
+    }
+
+    @Test
+    public void continuation() throws Exception {
+        Span span = mock(Span.class);
+
+        ActiveSpan activeSpan = source.makeActive(span);
+        ActiveSpan.Continuation continued = null;
+        try {
+            assertNotNull(activeSpan);
+            continued = activeSpan.capture();
+        } finally {
+            activeSpan.close();
+        }
+
+        // Make sure the Span was not finished since there was a capture().
+        verify(span, never()).finish();
+
+        // Activate the continuation.
+        try {
+            activeSpan = continued.activate();
+        } finally {
+            activeSpan.close();
+        }
+
+        // Now the Span should be finished.
+        verify(span, times(1)).finish();
+
+        // And now it's no longer active.
+        ActiveSpan missingSpan = source.activeSpan();
+        assertNull(missingSpan);
+    }
+
+    @Test
+    public void continuationInOtherThread() throws Exception {
+        final Span span = mock(Span.class);
+
+        ActiveSpan activeSpan = source.makeActive(span);
+        final ActiveSpan.Continuation continued = activeSpan.capture();
+        activeSpan.deactivate();
+        verify(span, never()).finish();
+
+        final ActiveSpan[] seenInThread = new ActiveSpan[1];
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                ActiveSpan continuedSpan = continued.activate();
+                try {
+                    seenInThread[0] = source.activeSpan();
+                } finally {
+                    continuedSpan.deactivate();
+                }
+            }
+        };
+        thread.start();
+        thread.join();
+
+        assertNotNull(seenInThread[0]);
+        verify(span, times(1)).finish();
+        assertNull(source.activeSpan());
+    }
+
+    @Test
+    public void implicitSpanStack() throws Exception {
+        Span backgroundSpan = mock(Span.class);
+        Span foregroundSpan = mock(Span.class);
+
+        ActiveSpan backgroundActive = source.makeActive(backgroundSpan);
+        try {
+            assertNotNull(backgroundActive);
+
+            // Activate a new ActiveSpan on top of the background one.
+            ActiveSpan foregroundActive = source.makeActive(foregroundSpan);
+            try {
+                ActiveSpan shouldBeForeground = source.activeSpan();
+                assertEquals(foregroundActive, shouldBeForeground);
+            } finally {
+                foregroundActive.close();
+            }
+
+            // And now the backgroundActive should be reinstated.
+            ActiveSpan shouldBeBackground = source.activeSpan();
+            assertEquals(backgroundActive, shouldBeBackground);
+        } finally {
+            backgroundActive.close();
+        }
+
+        // The background and foreground Spans should be finished.
+        verify(backgroundSpan, times(1)).finish();
+        verify(foregroundSpan, times(1)).finish();
+
+        // And now nothing is active.
+        ActiveSpan missingSpan = source.activeSpan();
+        assertNull(missingSpan);
+    }
+
+    @Test
+    public void deepStackGrows() throws Exception {
+        Span span = mock(Span.class);
+        ActiveSpan[] stack = new ActiveSpan[100];
+        for (int i = 0; i < stack.length; i++) {
+            stack[i] = source.makeActive(span);
+        }
+        assertSame(stack[stack.length - 1], source.activeSpan());
+        for (int i = stack.length - 1; i >= 0; i--) {
+            stack[i].deactivate();
+        }
+
+        verify(span, times(stack.length)).finish();
+        assertNull(source.activeSpan());
+    }
+
+    @Test
+    public void testDeactivateWhenDifferentSpanIsActive() {
+        Span span = mock(Span.class);
+
+        ActiveSpan activeSpan = source.makeActive(span);
+        source.makeActive(mock(Span.class));
+        activeSpan.deactivate();
+
+        verify(span, times(0)).finish();
+    }
+}
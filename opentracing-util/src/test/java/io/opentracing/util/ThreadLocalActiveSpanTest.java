@@ -23,6 +23,9 @@ import static org.mockito.Mockito.verify;
 
 import io.opentracing.ActiveSpan;
 import io.opentracing.Span;
+import io.opentracing.mock.MockSpan;
+import io.opentracing.mock.MockTracer;
+import java.util.List;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -66,6 +69,65 @@ public class ThreadLocalActiveSpanTest {
         assertNull(missingSpan);
     }
 
+    @Test
+    public void continuationInOtherThread() throws Exception {
+        final Span span = mock(Span.class);
+
+        ActiveSpan activeSpan = source.makeActive(span);
+        final ActiveSpan.Continuation first = activeSpan.capture();
+        final ActiveSpan.Continuation second = activeSpan.capture();
+        activeSpan.deactivate();
+        verify(span, never()).finish();
+
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                first.activate().deactivate();
+            }
+        };
+        thread.start();
+        thread.join();
+
+        // One Continuation is still outstanding.
+        verify(span, never()).finish();
+
+        second.activate().deactivate();
+        verify(span, times(1)).finish();
+    }
+
+    @Test
+    public void lazyRefCountCaptureInOtherThread() throws Exception {
+        source = new ThreadLocalActiveSpanSource(null, true);
+        final Span span = mock(Span.class);
+
+        final ActiveSpan activeSpan = source.makeActive(span);
+        final ActiveSpan.Continuation[] captured = new ActiveSpan.Continuation[1];
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                captured[0] = activeSpan.capture();
+            }
+        };
+        thread.start();
+        thread.join();
+
+        // The count inflated by the other thread is seen by the activating one.
+        activeSpan.deactivate();
+        verify(span, never()).finish();
+
+        captured[0].activate().deactivate();
+        verify(span, times(1)).finish();
+    }
+
+    @Test
+    public void lazyRefCountWithoutCapture() throws Exception {
+        source = new ThreadLocalActiveSpanSource(null, true);
+        Span span = mock(Span.class);
+        source.makeActive(span).deactivate();
+        verify(span, times(1)).finish();
+        assertNull(source.activeSpan());
+    }
+
     @Test
     public void implicitSpanStack() throws Exception {
         Span backgroundSpan = mock(Span.class);
@@ -111,4 +173,36 @@ public class ThreadLocalActiveSpanTest {
 
         verify(span, times(0)).finish();
     }
+
+    @Test
+    public void confinedSpanFinishedInOtherThread() throws Exception {
+        MockTracer tracer = MockTracer.builder().withSpanSource(source)
+                .withConcurrency(MockTracer.Concurrency.CONFINED).build();
+        ActiveSpan activeSpan = tracer.buildSpan("foo").startActive();
+        activeSpan.setTag("starter", true);
+        final ActiveSpan.Continuation continuation = activeSpan.capture();
+        activeSpan.deactivate();
+
+        final Throwable[] error = new Throwable[1];
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    ActiveSpan continued = continuation.activate();
+                    continued.setTag("worker", true);
+                    // The last reference: this finishes the span in this thread.
+                    continued.deactivate();
+                } catch (Throwable t) {
+                    error[0] = t;
+                }
+            }
+        };
+        thread.start();
+        thread.join();
+
+        assertNull(error[0]);
+        List<MockSpan> finished = tracer.finishedSpans();
+        assertEquals(1, finished.size());
+        assertEquals(2, finished.get(0).tags().size());
+    }
 }
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import io.opentracing.ActiveSpan;
+import io.opentracing.Span;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TracedExecutorServiceTest {
+    private ThreadLocalActiveSpanSource source;
+    private TracedExecutorService executor;
+
+    @Before
+    public void before() throws Exception {
+        source = new ThreadLocalActiveSpanSource();
+        executor = new TracedExecutorService(Executors.newFixedThreadPool(2), source);
+    }
+
+    @After
+    public void after() throws Exception {
+        executor.shutdownNow();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    private Callable<ActiveSpan> activeSpanCallable() {
+        return new Callable<ActiveSpan>() {
+            @Override
+            public ActiveSpan call() {
+                return source.activeSpan();
+            }
+        };
+    }
+
+    @Test
+    public void noActiveSpanIsNotWrapped() throws Exception {
+        Future<ActiveSpan> future = executor.submit(activeSpanCallable());
+        assertNull(future.get());
+        assertFalse(future instanceof TracedExecutorService.TracedFuture);
+    }
+
+    @Test
+    public void activeSpanIsPropagated() throws Exception {
+        Span span = mock(Span.class);
+
+        ActiveSpan activeSpan = source.makeActive(span);
+        Future<ActiveSpan> future;
+        try {
+            future = executor.submit(new Callable<ActiveSpan>() {
+                @Override
+                public ActiveSpan call() {
+                    source.activeSpan().setTag("in", "task");
+                    return source.activeSpan();
+                }
+            });
+        } finally {
+            activeSpan.deactivate();
+        }
+
+        assertTrue(future.get() != null);
+        verify(span).setTag("in", "task");
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+        verify(span, times(1)).finish();
+    }
+
+    @Test
+    public void spanFinishesAfterTask() throws Exception {
+        Span span = mock(Span.class);
+        final CountDownLatch proceed = new CountDownLatch(1);
+
+        ActiveSpan activeSpan = source.makeActive(span);
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        proceed.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        } finally {
+            activeSpan.deactivate();
+        }
+        verify(span, never()).finish();
+
+        proceed.countDown();
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+        verify(span, times(1)).finish();
+    }
+
+    @Test
+    public void cancelledTaskReleasesSpan() throws Exception {
+        executor = new TracedExecutorService(Executors.newSingleThreadExecutor(), source);
+        final CountDownLatch proceed = new CountDownLatch(1);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    proceed.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        Span span = mock(Span.class);
+        ActiveSpan activeSpan = source.makeActive(span);
+        Future<ActiveSpan> queued;
+        try {
+            queued = executor.submit(activeSpanCallable());
+        } finally {
+            activeSpan.deactivate();
+        }
+        verify(span, never()).finish();
+
+        assertTrue(queued.cancel(false));
+        verify(span, times(1)).finish();
+        proceed.countDown();
+    }
+
+    @Test
+    public void rejectedTaskReleasesSpan() throws Exception {
+        executor.shutdown();
+
+        Span span = mock(Span.class);
+        ActiveSpan activeSpan = source.makeActive(span);
+        try {
+            executor.submit(activeSpanCallable());
+            fail("Expected RejectedExecutionException");
+        } catch (RejectedExecutionException expected) {
+        } finally {
+            activeSpan.deactivate();
+        }
+        verify(span, times(1)).finish();
+    }
+
+    @Test
+    public void invokeAll() throws Exception {
+        Span span = mock(Span.class);
+        List<Callable<ActiveSpan>> tasks = new ArrayList<Callable<ActiveSpan>>();
+        for (int i = 0; i < 5; i++) {
+            tasks.add(activeSpanCallable());
+        }
+
+        ActiveSpan activeSpan = source.makeActive(span);
+        List<Future<ActiveSpan>> futures;
+        try {
+            futures = executor.invokeAll(tasks);
+        } finally {
+            activeSpan.deactivate();
+        }
+
+        assertEquals(5, futures.size());
+        for (Future<ActiveSpan> future : futures) {
+            assertTrue(future.get() != null);
+        }
+        verify(span, times(1)).finish();
+    }
+
+    @Test
+    public void invokeAnyReleasesUnusedTasks() throws Exception {
+        Span span = mock(Span.class);
+        List<Callable<String>> tasks = new ArrayList<Callable<String>>();
+        for (int i = 0; i < 10; i++) {
+            final String result = String.valueOf(i);
+            tasks.add(new Callable<String>() {
+                @Override
+                public String call() {
+                    return result;
+                }
+            });
+        }
+
+        ActiveSpan activeSpan = source.makeActive(span);
+        try {
+            assertTrue(executor.invokeAny(tasks) != null);
+        } finally {
+            activeSpan.deactivate();
+        }
+
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+        verify(span, times(1)).finish();
+    }
+
+    @Test
+    public void tracedRunnable() throws Exception {
+        Span span = mock(Span.class);
+        final ActiveSpan[] seen = new ActiveSpan[1];
+
+        ActiveSpan activeSpan = source.makeActive(span);
+        Runnable runnable;
+        try {
+            runnable = new TracedRunnable(new Runnable() {
+                @Override
+                public void run() {
+                    seen[0] = source.activeSpan();
+                }
+            }, source);
+        } finally {
+            activeSpan.deactivate();
+        }
+        verify(span, never()).finish();
+
+        Thread thread = new Thread(runnable);
+        thread.start();
+        thread.join();
+
+        assertTrue(seen[0] != null);
+        verify(span, times(1)).finish();
+    }
+
+    @Test
+    public void tracedCallableWithoutActiveSpan() throws Exception {
+        TracedCallable<ActiveSpan> callable = new TracedCallable<ActiveSpan>(activeSpanCallable(), source);
+        assertSame(null, callable.call());
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.opentracing.ActiveSpan;
+import io.opentracing.ActiveSpanSource;
+import io.opentracing.Span;
+import io.opentracing.SpanContext;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TracedRecursiveTaskTest {
+    private ThreadLocalActiveSpanSource source;
+    private ForkJoinPool pool;
+
+    @Before
+    public void before() {
+        source = new ThreadLocalActiveSpanSource();
+        pool = new ForkJoinPool(4);
+    }
+
+    @After
+    public void after() throws Exception {
+        pool.shutdownNow();
+        pool.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Counts the leaves of a binary tree of subtasks, recording the active span context of every task.
+     */
+    static class CountLeaves extends TracedRecursiveTask<Integer> {
+        final ActiveSpanSource source;
+        final int depth;
+        final Set<Object> contexts;
+        final Set<Thread> threads;
+
+        CountLeaves(ActiveSpanSource source, int depth, Set<Object> contexts, Set<Thread> threads) {
+            super(source);
+            this.source = source;
+            this.depth = depth;
+            this.contexts = contexts;
+            this.threads = threads;
+        }
+
+        @Override
+        protected Integer compute() {
+            ActiveSpan activeSpan = source.activeSpan();
+            contexts.add(activeSpan == null ? "none" : activeSpan.context());
+            threads.add(Thread.currentThread());
+            if (depth == 0) {
+                return 1;
+            }
+            CountLeaves left = new CountLeaves(source, depth - 1, contexts, threads);
+            left.fork();
+            return new CountLeaves(source, depth - 1, contexts, threads).compute() + left.join();
+        }
+    }
+
+    private static Set<Object> newConcurrentSet() {
+        return Collections.newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
+    }
+
+    @Test
+    public void noActiveSpan() {
+        Set<Object> contexts = newConcurrentSet();
+        int leaves = pool.invoke(new CountLeaves(source, 10, contexts, Collections.<Thread>synchronizedSet(
+                new HashSet<Thread>())));
+
+        assertEquals(1024, leaves);
+        assertEquals(Collections.singleton("none"), contexts);
+    }
+
+    @Test
+    public void activeSpanIsPropagatedToAllSubtasks() {
+        Span span = mock(Span.class);
+        SpanContext context = mock(SpanContext.class);
+        when(span.context()).thenReturn(context);
+        Set<Object> contexts = newConcurrentSet();
+
+        ActiveSpan activeSpan = source.makeActive(span);
+        CountLeaves root;
+        try {
+            root = new CountLeaves(source, 14, contexts, Collections.<Thread>synchronizedSet(
+                    new HashSet<Thread>()));
+        } finally {
+            activeSpan.deactivate();
+        }
+        verify(span, never()).finish();
+
+        assertEquals(16384, pool.invoke(root).intValue());
+        assertEquals(Collections.<Object>singleton(context), contexts);
+        verify(span, timeout(1000).times(1)).finish();
+    }
+
+    @Test
+    public void spanActivatedInSubtaskIsPropagatedToItsSubtasks() {
+        final Span outer = mock(Span.class);
+        final Span inner = mock(Span.class);
+        final SpanContext innerContext = mock(SpanContext.class);
+        when(inner.context()).thenReturn(innerContext);
+        final Set<Object> contexts = newConcurrentSet();
+
+        ActiveSpan activeSpan = source.makeActive(outer);
+        TracedRecursiveAction root;
+        try {
+            root = new TracedRecursiveAction(source) {
+                @Override
+                protected void compute() {
+                    ActiveSpan innerSpan = source.makeActive(inner);
+                    try {
+                        new CountLeaves(source, 6, contexts, Collections.<Thread>synchronizedSet(
+                                new HashSet<Thread>())).fork().join();
+                    } finally {
+                        innerSpan.deactivate();
+                    }
+                }
+            };
+        } finally {
+            activeSpan.deactivate();
+        }
+        pool.invoke(root);
+
+        assertEquals(Collections.<Object>singleton(innerContext), contexts);
+        verify(inner, timeout(1000).times(1)).finish();
+        verify(outer, timeout(1000).times(1)).finish();
+    }
+
+    @Test
+    public void cancelledSubtaskDoesNotHoldSpan() {
+        final Span span = mock(Span.class);
+
+        ActiveSpan activeSpan = source.makeActive(span);
+        TracedRecursiveTask<Boolean> root;
+        try {
+            root = new TracedRecursiveTask<Boolean>(source) {
+                @Override
+                protected Boolean compute() {
+                    TracedRecursiveAction never = new TracedRecursiveAction(source) {
+                        @Override
+                        protected void compute() {
+                        }
+                    };
+                    return never.cancel(false);
+                }
+            };
+        } finally {
+            activeSpan.deactivate();
+        }
+
+        assertTrue(pool.invoke(root));
+        verify(span, timeout(1000).times(1)).finish();
+    }
+
+    @Test
+    public void cancelledRootReleasesSpan() {
+        Span span = mock(Span.class);
+
+        ActiveSpan activeSpan = source.makeActive(span);
+        TracedRecursiveAction root;
+        try {
+            root = new TracedRecursiveAction(source) {
+                @Override
+                protected void compute() {
+                }
+            };
+        } finally {
+            activeSpan.deactivate();
+        }
+        verify(span, never()).finish();
+
+        assertTrue(root.cancel(false));
+        verify(span, times(1)).finish();
+        root.cancel(false);
+        verify(span, times(1)).finish();
+    }
+
+    @Test
+    public void subtasksWriteThroughToCapturedSpan() {
+        final StackActiveSpanSource stackSource = new StackActiveSpanSource();
+        Span span = mock(Span.class);
+
+        ActiveSpan activeSpan = stackSource.makeActive(span);
+        TracedRecursiveAction root;
+        try {
+            root = new TracedRecursiveAction(stackSource) {
+                @Override
+                protected void compute() {
+                    stackSource.activeSpan().setTag("stolen", true);
+                }
+            };
+        } finally {
+            activeSpan.deactivate();
+        }
+        // The frame of the root activation is reused before the task runs.
+        stackSource.makeActive(mock(Span.class)).deactivate();
+
+        pool.invoke(root);
+        verify(span).setTag("stolen", true);
+        verify(span, timeout(1000).times(1)).finish();
+    }
+
+    @Test
+    public void continuationCapturedInSubtaskHoldsSpan() throws Exception {
+        Span span = mock(Span.class);
+        final ActiveSpan.Continuation[] handedOff = new ActiveSpan.Continuation[1];
+
+        ActiveSpan activeSpan = source.makeActive(span);
+        TracedRecursiveAction root;
+        try {
+            root = new TracedRecursiveAction(source) {
+                @Override
+                protected void compute() {
+                    TracedRecursiveAction subtask = new TracedRecursiveAction(source) {
+                        @Override
+                        protected void compute() {
+                            handedOff[0] = source.activeSpan().capture();
+                        }
+                    };
+                    subtask.fork().join();
+                }
+            };
+        } finally {
+            activeSpan.deactivate();
+        }
+
+        pool.invoke(root);
+        verify(span, never()).finish();
+
+        Thread async = new Thread() {
+            @Override
+            public void run() {
+                handedOff[0].activate().deactivate();
+            }
+        };
+        async.start();
+        async.join();
+        verify(span, times(1)).finish();
+    }
+}
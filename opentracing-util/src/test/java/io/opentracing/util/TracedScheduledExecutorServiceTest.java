@@ -0,0 +1,122 @@
+/*
+ * Copyright 2016-2017 The OpenTracing Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.opentracing.util;
+
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import io.opentracing.ActiveSpan;
+import io.opentracing.Span;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TracedScheduledExecutorServiceTest {
+    private ThreadLocalActiveSpanSource source;
+    private TracedScheduledExecutorService executor;
+
+    @Before
+    public void before() throws Exception {
+        source = new ThreadLocalActiveSpanSource();
+        executor = new TracedScheduledExecutorService(Executors.newScheduledThreadPool(2), source);
+    }
+
+    @After
+    public void after() throws Exception {
+        executor.shutdownNow();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void scheduledCallable() throws Exception {
+        Span span = mock(Span.class);
+
+        ActiveSpan activeSpan = source.makeActive(span);
+        ScheduledFuture<Boolean> future;
+        try {
+            future = executor.schedule(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return source.activeSpan() != null;
+                }
+            }, 10, TimeUnit.MILLISECONDS);
+        } finally {
+            activeSpan.deactivate();
+        }
+
+        assertTrue(future.get());
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+        verify(span, times(1)).finish();
+    }
+
+    @Test
+    public void cancelledScheduledTaskReleasesSpan() throws Exception {
+        Span span = mock(Span.class);
+
+        ActiveSpan activeSpan = source.makeActive(span);
+        ScheduledFuture<?> future;
+        try {
+            future = executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                }
+            }, 1, TimeUnit.HOURS);
+        } finally {
+            activeSpan.deactivate();
+        }
+        verify(span, never()).finish();
+
+        assertTrue(future.cancel(false));
+        verify(span, times(1)).finish();
+    }
+
+    @Test
+    public void periodicTaskKeepsSpanUntilCancelled() throws Exception {
+        Span span = mock(Span.class);
+        final CountDownLatch runs = new CountDownLatch(3);
+
+        ActiveSpan activeSpan = source.makeActive(span);
+        ScheduledFuture<?> future;
+        try {
+            future = executor.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    source.activeSpan().log("run");
+                    runs.countDown();
+                }
+            }, 0, 5, TimeUnit.MILLISECONDS);
+        } finally {
+            activeSpan.deactivate();
+        }
+
+        assertTrue(runs.await(5, TimeUnit.SECONDS));
+        verify(span, never()).finish();
+
+        future.cancel(false);
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+        verify(span, atLeast(3)).log("run");
+        verify(span, times(1)).finish();
+    }
+}